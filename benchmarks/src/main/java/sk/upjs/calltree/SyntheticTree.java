@@ -0,0 +1,149 @@
+package sk.upjs.calltree;
+
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * Complete call tree with given number of nodes for benchmarks of the
+ * visualization. The tree is placed in the package of the library to access
+ * package-private tree nodes.
+ */
+class SyntheticTree {
+
+	/**
+	 * Number of children of each inner node.
+	 */
+	static final int FAN_OUT = 4;
+
+	/**
+	 * Width of the offscreen image, i.e., of the viewport.
+	 */
+	static final int IMAGE_WIDTH = 1280;
+
+	/**
+	 * Height of the offscreen image, i.e., of the viewport.
+	 */
+	static final int IMAGE_HEIGHT = 800;
+
+	/**
+	 * Configuration of the visualization.
+	 */
+	final Config config = new Config();
+
+	/**
+	 * Offscreen image for painting.
+	 */
+	final BufferedImage image = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+	/**
+	 * Font metrics of the offscreen image.
+	 */
+	final FontMetrics fm;
+
+	/**
+	 * Theme for painting the tree.
+	 */
+	final RenderTheme theme;
+
+	/**
+	 * Root of the tree.
+	 */
+	final TreeNode root;
+
+	/**
+	 * The deepest node on the rightmost path of the tree. As in a call tree
+	 * recorded step by step, no node is to the right of this path.
+	 */
+	final TreeNode lastNode;
+
+	/**
+	 * Method call represented by appended leaves.
+	 */
+	private final MethodCall leafCall;
+
+	/**
+	 * Constructs a complete tree with given number of nodes. Nodes are
+	 * created in breadth-first order, hence the tree can be built without
+	 * recursion.
+	 */
+	SyntheticTree(int nodeCount) {
+		Graphics2D g2 = image.createGraphics();
+		g2.setFont(config.getFont());
+		fm = g2.getFontMetrics();
+		g2.dispose();
+		theme = new RenderTheme(config, fm, config.getGlobalPadding());
+
+		int methodId = MethodRegistry.register("Synthetic", "compute", "Synthetic.java");
+		ObjectCallHistory history = new ObjectCallHistory(false);
+		TreeNode[] nodes = new TreeNode[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			TreeNode parent = (i == 0) ? null : nodes[(i - 1) / FAN_OUT];
+			MethodCall mc = history.createCall(methodId, 1, true, (parent == null) ? null : parent.getMethodCall());
+			mc.setArguments(new Object[] { i });
+			mc.storeReturn(MethodCall.INT_RETURN, i, null);
+
+			nodes[i] = new TreeNode(mc, 0);
+			if (parent != null)
+				parent.addChild(nodes[i]);
+		}
+
+		root = nodes[0];
+		int last = 0;
+		while (FAN_OUT * last + 1 < nodeCount)
+			last = Math.min(FAN_OUT * last + FAN_OUT, nodeCount - 1);
+
+		lastNode = nodes[last];
+		leafCall = history.createCall(methodId, 1, true, null);
+		leafCall.setArguments(new Object[] { nodeCount });
+		measure();
+		layout();
+	}
+
+	/**
+	 * Realizes the measure pass of the tree.
+	 */
+	void measure() {
+		root.measure(fm, config);
+	}
+
+	/**
+	 * Realizes the layout pass of the tree.
+	 */
+	void layout() {
+		root.layout(config.getGlobalPadding(), config.getGlobalPadding(), fm, config);
+	}
+
+	/**
+	 * Creates a new leaf node that can be appended to the tree.
+	 */
+	TreeNode createLeaf() {
+		return new TreeNode(leafCall, 0);
+	}
+
+	/**
+	 * Creates graphics of the offscreen image prepared as in the call tree
+	 * panel.
+	 */
+	Graphics2D createGraphics() {
+		Graphics2D g2 = image.createGraphics();
+		g2.setFont(config.getFont());
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		return g2;
+	}
+
+	/**
+	 * Returns width of the canvas with the whole tree.
+	 */
+	int getCanvasWidth() {
+		return root.getWidth() + 2 * config.getGlobalPadding();
+	}
+
+	/**
+	 * Returns height of the canvas with the whole tree.
+	 */
+	int getCanvasHeight() {
+		return root.getHeight() + 2 * config.getGlobalPadding();
+	}
+}
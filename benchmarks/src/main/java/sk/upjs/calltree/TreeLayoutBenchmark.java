@@ -0,0 +1,76 @@
+package sk.upjs.calltree;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure and layout passes of complete call trees of different size. Full
+ * passes are compared with the incremental relayout after a leaf is appended
+ * to the rightmost path as in a call tree recorded step by step.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx4g" })
+public class TreeLayoutBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	int nodes;
+
+	/**
+	 * Benchmarked tree.
+	 */
+	SyntheticTree tree;
+
+	@Setup(Level.Trial)
+	public void buildTree() {
+		tree = new SyntheticTree(nodes);
+	}
+
+	/**
+	 * Alternating horizontal shift of the tree that forces the full layout
+	 * pass.
+	 */
+	int shift;
+
+	@Benchmark
+	public int measure() {
+		tree.root.invalidateTree();
+		tree.measure();
+		return tree.root.getWidth();
+	}
+
+	@Benchmark
+	public int layout() {
+		shift = 1 - shift;
+		tree.root.layout(tree.config.getGlobalPadding() + shift, tree.config.getGlobalPadding(), tree.fm, tree.config);
+		return tree.root.getLeft();
+	}
+
+	@Benchmark
+	public int appendLeaf() {
+		tree.lastNode.addChild(tree.createLeaf());
+		tree.measure();
+		tree.layout();
+		int width = tree.root.getWidth();
+
+		tree.lastNode.removeLastChild();
+		tree.measure();
+		tree.layout();
+		return width;
+	}
+}
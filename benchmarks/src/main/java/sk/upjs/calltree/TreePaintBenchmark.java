@@ -0,0 +1,99 @@
+package sk.upjs.calltree;
+
+import java.awt.Graphics2D;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Painting of complete call trees of different size into an offscreen image.
+ * With the full clip, the whole canvas is painted as when the tree is
+ * exported or the clip is not set. With the viewport clip, only a part of the
+ * canvas of the size of the image is painted as in a scrolled call tree
+ * panel. The preview is painted scaled to fit into the image with the same
+ * clip in coordinates of the canvas.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Djava.awt.headless=true", "-Xmx4g" })
+public class TreePaintBenchmark {
+
+	@Param({ "1000", "10000", "100000", "1000000" })
+	int nodes;
+
+	@Param({ "full", "viewport" })
+	String clip;
+
+	/**
+	 * Benchmarked tree.
+	 */
+	SyntheticTree tree;
+
+	/**
+	 * Left, top, width and height of the painted part of the canvas.
+	 */
+	int clipX, clipY, clipWidth, clipHeight;
+
+	/**
+	 * Scale of the preview.
+	 */
+	double previewScale;
+
+	@Setup(Level.Trial)
+	public void buildTree() {
+		tree = new SyntheticTree(nodes);
+		if ("full".equals(clip)) {
+			clipX = 0;
+			clipY = 0;
+			clipWidth = tree.getCanvasWidth();
+			clipHeight = tree.getCanvasHeight();
+		} else {
+			// viewport centered horizontally at the top of the canvas
+			clipWidth = SyntheticTree.IMAGE_WIDTH;
+			clipHeight = SyntheticTree.IMAGE_HEIGHT;
+			clipX = Math.max((tree.getCanvasWidth() - clipWidth) / 2, 0);
+			clipY = 0;
+		}
+
+		previewScale = Math.min(SyntheticTree.IMAGE_WIDTH / (double) tree.getCanvasWidth(),
+				SyntheticTree.IMAGE_HEIGHT / (double) tree.getCanvasHeight());
+	}
+
+	@Benchmark
+	public void paint() {
+		Graphics2D g2 = tree.createGraphics();
+		try {
+			g2.translate(-clipX, -clipY);
+			g2.setClip(clipX, clipY, clipWidth, clipHeight);
+			tree.root.paint(g2, tree.theme);
+		} finally {
+			g2.dispose();
+		}
+	}
+
+	@Benchmark
+	public void paintPreview() {
+		Graphics2D g2 = tree.createGraphics();
+		try {
+			g2.scale(previewScale, previewScale);
+			g2.setClip(clipX, clipY, clipWidth, clipHeight);
+			tree.root.paintPreview(g2, tree.theme);
+		} finally {
+			g2.dispose();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package sk.upjs.calltree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording of method calls with different number of arguments in headless
+ * mode. Up to three int arguments are recorded without boxing, five
+ * arguments are passed as an array of objects. Recorded call trees are
+ * removed by {@link RecordedCalls}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcalltree.headless=true")
+public class ArgumentsBenchmark {
+
+	/**
+	 * Depth of the recorded recursion.
+	 */
+	private static final int DEPTH = 100;
+
+	@Param({ "0", "1", "2", "3", "5" })
+	int arguments;
+
+	@Benchmark
+	public int baseline() {
+		return Recursions.plainArguments(DEPTH, arguments);
+	}
+
+	@Benchmark
+	public int markCall(RecordedCalls recorded) {
+		int result = Recursions.markedArguments(DEPTH, arguments);
+		recorded.add(DEPTH + 1);
+		return result;
+	}
+}
@@ -0,0 +1,69 @@
+package sk.upjs.calltree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording of complete trees of recursive calls with different fan-out in
+ * headless mode. The number of levels is chosen so that each tree has about
+ * {@link #NODES} method calls. Recorded call trees are removed by
+ * {@link RecordedCalls}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcalltree.headless=true")
+public class FanOutBenchmark {
+
+	/**
+	 * Approximate number of method calls in a recorded tree.
+	 */
+	private static final int NODES = 4096;
+
+	@Param({ "2", "3", "4", "8" })
+	int fanOut;
+
+	/**
+	 * Number of levels of the recorded tree.
+	 */
+	int levels;
+
+	/**
+	 * Number of method calls of the recorded tree.
+	 */
+	int calls;
+
+	@Setup(Level.Trial)
+	public void computeLevels() {
+		levels = (int) Math.round(Math.log(NODES) / Math.log(fanOut));
+		calls = 0;
+		for (int i = 0, width = 1; i <= levels; i++, width *= fanOut)
+			calls += width;
+	}
+
+	@Benchmark
+	public int baseline() {
+		return Recursions.plainTree(levels, fanOut);
+	}
+
+	@Benchmark
+	public int markCall(RecordedCalls recorded) {
+		int result = Recursions.markedTree(levels, fanOut);
+		recorded.add(calls);
+		return result;
+	}
+}
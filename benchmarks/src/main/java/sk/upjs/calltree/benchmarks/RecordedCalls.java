@@ -0,0 +1,45 @@
+package sk.upjs.calltree.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import sk.upjs.calltree.CallTree;
+
+/**
+ * Number of method calls recorded by a benchmark thread. Recorded call trees
+ * are removed before each iteration and whenever the number of recorded
+ * method calls exceeds {@link #LIMIT}, hence the heap does not grow during
+ * measurement. The cost of removal is amortized over many operations and no
+ * fixture runs per invocation.
+ */
+@State(Scope.Thread)
+public class RecordedCalls {
+
+	/**
+	 * Maximal number of recorded method calls kept in the heap.
+	 */
+	static final int LIMIT = 1 << 20;
+
+	/**
+	 * Number of method calls recorded since the last removal.
+	 */
+	int count;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		CallTree.reset();
+		count = 0;
+	}
+
+	/**
+	 * Adds method calls recorded by an operation and removes recorded call
+	 * trees if the limit is reached.
+	 */
+	void add(int calls) {
+		count += calls;
+		if (count >= LIMIT)
+			reset();
+	}
+}
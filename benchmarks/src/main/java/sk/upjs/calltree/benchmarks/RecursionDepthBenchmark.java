@@ -0,0 +1,57 @@
+package sk.upjs.calltree.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording of linear recursions of different depth in headless mode. An
+ * operation is the whole recursion, i.e., depth + 1 method calls. Recorded
+ * call trees are removed by {@link RecordedCalls}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dcalltree.headless=true", "-Xss64m" })
+public class RecursionDepthBenchmark {
+
+	@Param({ "10", "100", "1000", "10000" })
+	int depth;
+
+	@Benchmark
+	public int baseline() {
+		return Recursions.plain(depth);
+	}
+
+	@Benchmark
+	public int markCall(RecordedCalls recorded) {
+		int result = Recursions.marked(depth);
+		recorded.add(depth + 1);
+		return result;
+	}
+
+	@Benchmark
+	public int markCallWithLog(RecordedCalls recorded) {
+		int result = Recursions.logged(depth);
+		recorded.add(depth + 1);
+		return result;
+	}
+
+	@Benchmark
+	public int enterExit(RecordedCalls recorded) {
+		int result = Recursions.entered(depth);
+		recorded.add(depth + 1);
+		return result;
+	}
+}
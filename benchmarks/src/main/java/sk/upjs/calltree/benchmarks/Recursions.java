@@ -0,0 +1,145 @@
+package sk.upjs.calltree.benchmarks;
+
+import sk.upjs.calltree.CallHandle;
+import sk.upjs.calltree.CallTree;
+
+/**
+ * Recursive methods whose recording is measured by benchmarks. Each
+ * recorded method has an uninstrumented twin that serves as a baseline.
+ */
+final class Recursions {
+
+	private Recursions() {
+	}
+
+	/**
+	 * Linear recursion without instrumentation.
+	 */
+	static int plain(int depth) {
+		if (depth == 0) {
+			return 1;
+		}
+
+		return plain(depth - 1) + 1;
+	}
+
+	/**
+	 * Linear recursion recorded by markCall and markReturn.
+	 */
+	static int marked(int depth) {
+		CallTree.markCallInt(depth);
+
+		if (depth == 0) {
+			return CallTree.markReturn(1);
+		}
+
+		return CallTree.markReturn(marked(depth - 1) + 1);
+	}
+
+	/**
+	 * Linear recursion recorded by markCall and markReturn with a log message
+	 * in each method call.
+	 */
+	static int logged(int depth) {
+		CallTree.markCallInt(depth);
+		CallTree.log("depth", depth);
+
+		if (depth == 0) {
+			return CallTree.markReturn(1);
+		}
+
+		return CallTree.markReturn(logged(depth - 1) + 1);
+	}
+
+	/**
+	 * Linear recursion recorded by enter and exit.
+	 */
+	static int entered(int depth) {
+		CallHandle h = CallTree.enter("entered", depth);
+
+		if (depth == 0) {
+			return CallTree.exit(h, 1);
+		}
+
+		return CallTree.exit(h, entered(depth - 1) + 1);
+	}
+
+	/**
+	 * Complete tree recursion without instrumentation.
+	 */
+	static int plainTree(int levels, int fanOut) {
+		if (levels == 0) {
+			return 1;
+		}
+
+		int sum = 0;
+		for (int i = 0; i < fanOut; i++) {
+			sum += plainTree(levels - 1, fanOut);
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Complete tree recursion recorded by markCall and markReturn.
+	 */
+	static int markedTree(int levels, int fanOut) {
+		CallTree.markCallInt(levels, fanOut);
+
+		if (levels == 0) {
+			return CallTree.markReturn(1);
+		}
+
+		int sum = 0;
+		for (int i = 0; i < fanOut; i++) {
+			sum += markedTree(levels - 1, fanOut);
+		}
+
+		return CallTree.markReturn(sum);
+	}
+
+	/**
+	 * Linear recursion without instrumentation that passes given number of
+	 * arguments.
+	 */
+	static int plainArguments(int depth, int arguments) {
+		if (depth == 0) {
+			return arguments;
+		}
+
+		return plainArguments(depth - 1, arguments) + 1;
+	}
+
+	/**
+	 * Linear recursion that records given number of arguments by markCall.
+	 * Up to three arguments are recorded without boxing.
+	 */
+	static int markedArguments(int depth, int arguments) {
+		switch (arguments) {
+		case 0:
+			CallTree.markCall();
+			break;
+		case 1:
+			CallTree.markCallInt(depth);
+			break;
+		case 2:
+			CallTree.markCallInt(depth, arguments);
+			break;
+		case 3:
+			CallTree.markCallInt(depth, arguments, depth);
+			break;
+		default:
+			Object[] args = new Object[arguments];
+			for (int i = 0; i < args.length; i++) {
+				args[i] = depth + i;
+			}
+			CallTree.markCall(args);
+		}
+
+		if (depth == 0) {
+			return CallTree.markReturn(arguments);
+		}
+
+		return CallTree.markReturn(markedArguments(depth - 1, arguments) + 1);
+	}
+}
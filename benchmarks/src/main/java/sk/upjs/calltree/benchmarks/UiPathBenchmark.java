@@ -0,0 +1,80 @@
+package sk.upjs.calltree.benchmarks;
+
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Recording of linear recursions with visualization. Recursions are executed
+ * in the event dispatch thread, hence recording is never suspended and
+ * updates of the visualization are included in measured times. The
+ * benchmark requires a display. Recorded call trees are removed by
+ * {@link RecordedCalls}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Dcalltree.headless=false", "-Xss64m" })
+public class UiPathBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	int depth;
+
+	/**
+	 * Result of the last recursion.
+	 */
+	int result;
+
+	/**
+	 * Recursion with recording executed in the event dispatch thread.
+	 */
+	private final Runnable markedRecursion = new Runnable() {
+		public void run() {
+			result = Recursions.marked(depth);
+		}
+	};
+
+	/**
+	 * Recursion without recording executed in the event dispatch thread.
+	 */
+	private final Runnable plainRecursion = new Runnable() {
+		public void run() {
+			result = Recursions.plain(depth);
+		}
+	};
+
+	@Setup(Level.Trial)
+	public void checkDisplay() {
+		if (GraphicsEnvironment.isHeadless()) {
+			throw new IllegalStateException("The benchmark requires a display.");
+		}
+	}
+
+	@Benchmark
+	public int baseline() throws Exception {
+		EventQueue.invokeAndWait(plainRecursion);
+		return result;
+	}
+
+	@Benchmark
+	public int markCall(RecordedCalls recorded) throws Exception {
+		EventQueue.invokeAndWait(markedRecursion);
+		recorded.add(depth + 1);
+		return result;
+	}
+}
@@ -0,0 +1,79 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+
+/**
+ * History that merges all invocations along the same call path into a single
+ * node of a calling context tree. Memory is bounded by the number of distinct
+ * call paths and recording of an invocation along a known path is a lookup
+ * of a child node.
+ */
+class AggregatedCallHistory extends CallHistory {
+
+	/**
+	 * Estimated size in bytes of a node including its references in the
+	 * history and in the parent.
+	 */
+	private static final int ESTIMATED_NODE_BYTES = 160;
+
+	/**
+	 * Nodes of the calling context tree in order in which they were created.
+	 */
+	private final List<MethodCall> calls = new ArrayList<MethodCall>();
+
+	/**
+	 * Root nodes indexed by their path key.
+	 */
+	private final Map<Long, AggregatedMethodCall> roots = new HashMap<Long, AggregatedMethodCall>();
+
+	@Override
+	MethodCall createCall(int methodId, int lineNumber, boolean marked, MethodCall parent) {
+		AggregatedMethodCall mc;
+		if (parent == null) {
+			Long key = AggregatedMethodCall.pathKey(methodId, lineNumber, marked);
+			mc = roots.get(key);
+			if (mc == null) {
+				mc = new AggregatedMethodCall(methodId, lineNumber, marked, null, calls.size());
+				roots.put(key, mc);
+				calls.add(mc);
+			}
+		} else {
+			AggregatedMethodCall aggregatedParent = (AggregatedMethodCall) parent;
+			mc = aggregatedParent.findCall(methodId, lineNumber, marked);
+			if (mc == null) {
+				mc = new AggregatedMethodCall(methodId, lineNumber, marked, parent, calls.size());
+				aggregatedParent.addCall(mc);
+				calls.add(mc);
+			}
+		}
+
+		mc.startInvocation();
+		return mc;
+	}
+
+	@Override
+	MethodCall get(int index) {
+		return calls.get(index);
+	}
+
+	@Override
+	int size() {
+		return calls.size();
+	}
+
+	@Override
+	void clear() {
+		calls.clear();
+		roots.clear();
+	}
+
+	@Override
+	long estimateRetainedBytes() {
+		return (long) calls.size() * ESTIMATED_NODE_BYTES;
+	}
+
+	@Override
+	List<MethodCall> getCalls(int fromIndex) {
+		return new ArrayList<MethodCall>(calls.subList(fromIndex, calls.size()));
+	}
+}
@@ -0,0 +1,430 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+
+/**
+ * A node of a calling context tree that aggregates all invocations of a
+ * method along the same call path. Instead of arguments, logs and individual
+ * return values, the node stores the number of invocations, statistics of
+ * returned values and the total time of timed invocations.
+ * The node is changed only by the recording thread, each change is published
+ * by a write of a volatile field.
+ */
+class AggregatedMethodCall extends MethodCall {
+
+	/**
+	 * Number of children that are searched linearly before a lookup map is
+	 * created.
+	 */
+	private static final int LINEAR_LOOKUP_LIMIT = 8;
+
+	/**
+	 * Identifier of the method in the method registry.
+	 */
+	private final int methodId;
+
+	/**
+	 * Line number in the calling method that caused invocations of the
+	 * method.
+	 */
+	private final int lineNumber;
+
+	/**
+	 * Indicates whether invocations aggregated by this node are marked.
+	 */
+	private final boolean isMarked;
+
+	/**
+	 * Index of this node in the history log.
+	 */
+	private final int historyIndex;
+
+	/**
+	 * Parent of this node in the calling context tree.
+	 */
+	private final MethodCall parent;
+
+	/**
+	 * Child nodes. Elements below {@link #childCount} are never changed, the
+	 * array is replaced by a larger copy when it is full.
+	 */
+	private AggregatedMethodCall[] children;
+
+	/**
+	 * Number of published child nodes in {@link #children}.
+	 */
+	private volatile int childCount;
+
+	/**
+	 * Child nodes indexed by their path key or null, if children are
+	 * searched linearly. It is accessed only by the recording thread.
+	 */
+	private Map<Long, AggregatedMethodCall> childLookup;
+
+	/**
+	 * Number of aggregated invocations.
+	 */
+	private volatile long invocationCount;
+
+	/**
+	 * Number of invocations that stored a return value. Statistics of return
+	 * values are published by writing this field.
+	 */
+	private volatile long returnCount;
+
+	/**
+	 * Number of returned values that are numbers.
+	 */
+	private long numericReturnCount;
+
+	/**
+	 * Indicates that all numeric return values are integral.
+	 */
+	private boolean integralReturns = true;
+
+	/**
+	 * Minimum, maximum and sum of integral return values.
+	 */
+	private long minLong, maxLong, sumLong;
+
+	/**
+	 * Minimum, maximum and sum of all numeric return values.
+	 */
+	private double minDouble, maxDouble, sumDouble;
+
+	/**
+	 * Start time of the last timed invocation or -1, if there is no timed
+	 * invocation in progress.
+	 */
+	private long startTime = -1;
+
+	/**
+	 * Number of completed timed invocations.
+	 */
+	private long timedCount;
+
+	/**
+	 * Total time in nanoseconds of completed timed invocations. Timing is
+	 * published by writing this field.
+	 */
+	private volatile long totalTime;
+
+	/**
+	 * Allocated bytes when the last measured invocation started or -1, if
+	 * there is no measured invocation in progress.
+	 */
+	private long startAllocation = -1;
+
+	/**
+	 * Number of completed invocations with measured allocations.
+	 */
+	private long measuredCount;
+
+	/**
+	 * Total bytes allocated by completed measured invocations. Allocations
+	 * are published by writing this field.
+	 */
+	private volatile long totalAllocation;
+
+	/**
+	 * Number of changes of aggregated values that are displayed as the
+	 * formatted return value.
+	 */
+	private volatile long changeCount;
+
+	/**
+	 * Constructs a new node of a calling context tree.
+	 */
+	AggregatedMethodCall(int methodId, int lineNumber, boolean marked, MethodCall parent, int index) {
+		this.methodId = methodId;
+		this.lineNumber = lineNumber;
+		this.isMarked = marked;
+		this.parent = parent;
+		this.historyIndex = index;
+	}
+
+	/**
+	 * Returns the key that identifies a child node among its siblings.
+	 */
+	static long pathKey(int methodId, int lineNumber, boolean marked) {
+		return ((long) methodId << 33) | (((long) lineNumber & 0xFFFFFFFFL) << 1) | (marked ? 1 : 0);
+	}
+
+	/**
+	 * Returns the child node for given method and line number or null, if
+	 * there is no such child.
+	 */
+	AggregatedMethodCall findCall(int methodId, int lineNumber, boolean marked) {
+		if (childLookup != null)
+			return childLookup.get(pathKey(methodId, lineNumber, marked));
+
+		int count = childCount;
+		for (int i = 0; i < count; i++) {
+			AggregatedMethodCall child = children[i];
+			if ((child.methodId == methodId) && (child.lineNumber == lineNumber) && (child.isMarked == marked))
+				return child;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Adds a child node. Only the recording thread can add child nodes.
+	 */
+	void addCall(AggregatedMethodCall methodCall) {
+		int count = childCount;
+		if (children == null)
+			children = new AggregatedMethodCall[4];
+		else if (count == children.length)
+			children = Arrays.copyOf(children, 2 * count);
+
+		children[count] = methodCall;
+		childCount = count + 1;
+
+		if (childLookup != null) {
+			childLookup.put(pathKey(methodCall.methodId, methodCall.lineNumber, methodCall.isMarked), methodCall);
+		} else if (count + 1 > LINEAR_LOOKUP_LIMIT) {
+			childLookup = new HashMap<Long, AggregatedMethodCall>();
+			for (int i = 0; i <= count; i++) {
+				AggregatedMethodCall child = children[i];
+				childLookup.put(pathKey(child.methodId, child.lineNumber, child.isMarked), child);
+			}
+		}
+	}
+
+	/**
+	 * Records start of an invocation aggregated by this node.
+	 */
+	void startInvocation() {
+		invocationCount++;
+		changeCount++;
+	}
+
+	@Override
+	void storeStartTime(long time) {
+		startTime = time;
+	}
+
+	@Override
+	void storeEndTime(long time) {
+		if (startTime < 0)
+			return;
+
+		long inclusiveTime = time - startTime;
+		startTime = -1;
+		timedCount++;
+		totalTime += inclusiveTime;
+		changeCount++;
+	}
+
+	/**
+	 * Returns the total time of all completed timed invocations.
+	 */
+	@Override
+	public long getInclusiveTime() {
+		long time = totalTime;
+		return (timedCount != 0) ? time : -1;
+	}
+
+	@Override
+	void storeStartAllocation(long bytes) {
+		startAllocation = bytes;
+	}
+
+	@Override
+	void storeEndAllocation(long bytes) {
+		if (startAllocation < 0)
+			return;
+
+		long inclusiveAllocation = bytes - startAllocation;
+		startAllocation = -1;
+		measuredCount++;
+		totalAllocation += inclusiveAllocation;
+		changeCount++;
+	}
+
+	/**
+	 * Returns the total bytes allocated by all completed measured
+	 * invocations.
+	 */
+	@Override
+	public long getInclusiveAllocation() {
+		long bytes = totalAllocation;
+		return (measuredCount != 0) ? bytes : -1;
+	}
+
+	/**
+	 * Returns the number of aggregated invocations.
+	 */
+	long getInvocationCount() {
+		return invocationCount;
+	}
+
+	@Override
+	public void setArguments(Object[] arguments) {
+		// arguments of individual invocations are not stored
+	}
+
+	@Override
+	void setPrimitiveArguments(byte type, int count, long arg1, long arg2, long arg3) {
+		// arguments of individual invocations are not stored
+	}
+
+	@Override
+	public Object[] getArguments() {
+		return null;
+	}
+
+	@Override
+	void storeReturn(byte type, long bits, Object value) {
+		long longValue = 0;
+		double doubleValue;
+		boolean integral = true;
+		switch (type) {
+		case OBJECT_RETURN:
+			if (!(value instanceof Number)) {
+				returnCount++;
+				changeCount++;
+				return;
+			}
+
+			if ((value instanceof Double) || (value instanceof Float)) {
+				integral = false;
+				doubleValue = ((Number) value).doubleValue();
+			} else {
+				longValue = ((Number) value).longValue();
+				doubleValue = longValue;
+			}
+			break;
+		case DOUBLE_RETURN:
+			integral = false;
+			doubleValue = Double.longBitsToDouble(bits);
+			break;
+		case FLOAT_RETURN:
+			integral = false;
+			doubleValue = Float.intBitsToFloat((int) bits);
+			break;
+		default:
+			longValue = bits;
+			doubleValue = bits;
+		}
+
+		if (numericReturnCount == 0) {
+			minLong = maxLong = longValue;
+			minDouble = maxDouble = doubleValue;
+		} else {
+			minLong = Math.min(minLong, longValue);
+			maxLong = Math.max(maxLong, longValue);
+			minDouble = Math.min(minDouble, doubleValue);
+			maxDouble = Math.max(maxDouble, doubleValue);
+		}
+
+		sumLong += longValue;
+		sumDouble += doubleValue;
+		integralReturns &= integral;
+		numericReturnCount++;
+		returnCount++;
+		changeCount++;
+	}
+
+	@Override
+	public List<MethodCall> getMethodCalls() {
+		int count = childCount;
+		if (count == 0)
+			return Collections.emptyList();
+
+		return new ArrayPrefixList<MethodCall>(children, count);
+	}
+
+	@Override
+	public boolean hasMethodCalls() {
+		return childCount != 0;
+	}
+
+	@Override
+	public void log(String message, Object[] values, int lineNumber) {
+		// logs of individual invocations are not stored
+	}
+
+	@Override
+	public boolean isRoot() {
+		return parent == null;
+	}
+
+	@Override
+	public int getIndex() {
+		return historyIndex;
+	}
+
+	@Override
+	public MethodCall getParent() {
+		return parent;
+	}
+
+	@Override
+	public int getMethodId() {
+		return methodId;
+	}
+
+	@Override
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public boolean isMarked() {
+		return isMarked;
+	}
+
+	@Override
+	public boolean hasReturnValue() {
+		return true;
+	}
+
+	@Override
+	public Object getReturnValue() {
+		return formatReturnValue();
+	}
+
+	@Override
+	public String formatReturnValue() {
+		long time = totalTime;
+		long bytes = totalAllocation;
+		long returns = returnCount;
+		long count = invocationCount;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(count).append((count == 1) ? " call" : " calls");
+		if ((returns != 0) && (numericReturnCount != 0)) {
+			if (integralReturns) {
+				sb.append(", min ").append(minLong).append(", max ").append(maxLong).append(", sum ").append(sumLong);
+			} else {
+				sb.append(", min ").append(minDouble).append(", max ").append(maxDouble).append(", sum ")
+						.append(sumDouble);
+			}
+		}
+
+		if (timedCount != 0)
+			sb.append(String.format(Locale.ROOT, ", %.3f ms", time / 1e6));
+
+		if (measuredCount != 0)
+			sb.append(", ").append(bytes).append(" B");
+
+		return sb.toString();
+	}
+
+	@Override
+	long getReturnValueVersion() {
+		return changeCount;
+	}
+
+	@Override
+	public boolean hasLogs() {
+		return false;
+	}
+
+	@Override
+	public List<LogRecord> getLogs(int childLimit) {
+		return Collections.emptyList();
+	}
+}
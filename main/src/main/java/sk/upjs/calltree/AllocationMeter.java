@@ -0,0 +1,112 @@
+package sk.upjs.calltree;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Meter of bytes allocated by a recording thread outside of call tree
+ * recording. Allocations between {@link #beginRecording()} and
+ * {@link #endRecording()}, and allocations of the meter itself, are excluded
+ * from measured values.
+ */
+class AllocationMeter {
+
+	/**
+	 * Number of samples used to calibrate allocations of a single reading.
+	 */
+	private static final int CALIBRATION_SAMPLES = 16;
+
+	/**
+	 * Bean that provides allocation counters of threads.
+	 */
+	private final com.sun.management.ThreadMXBean threadBean;
+
+	/**
+	 * Identifier of the measured thread.
+	 */
+	private final long threadId;
+
+	/**
+	 * Bytes allocated by a single reading of the allocation counter.
+	 */
+	private final long readingBytes;
+
+	/**
+	 * Bytes allocated by call tree recording since the meter was created.
+	 */
+	private long recordingBytes;
+
+	/**
+	 * Value of the allocation counter when the current recording started.
+	 */
+	private long recordingStart;
+
+	/**
+	 * Constructs a meter of the current thread.
+	 */
+	private AllocationMeter(com.sun.management.ThreadMXBean threadBean) {
+		this.threadBean = threadBean;
+		this.threadId = Thread.currentThread().getId();
+
+		// allocations of readings are calibrated as the smallest difference
+		// between two consecutive readings
+		long minDiff = Long.MAX_VALUE;
+		for (int i = 0; i < CALIBRATION_SAMPLES; i++) {
+			long first = read();
+			long second = read();
+			minDiff = Math.min(minDiff, second - first);
+		}
+
+		this.readingBytes = Math.max(minDiff, 0);
+		this.recordingBytes = read();
+	}
+
+	/**
+	 * Creates a meter of the current thread.
+	 *
+	 * @return the meter or null, if the running JVM does not measure
+	 *         allocations of threads.
+	 */
+	static AllocationMeter create() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (!(bean instanceof com.sun.management.ThreadMXBean))
+				return null;
+
+			com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+			if (!threadBean.isThreadAllocatedMemorySupported())
+				return null;
+
+			if (!threadBean.isThreadAllocatedMemoryEnabled())
+				threadBean.setThreadAllocatedMemoryEnabled(true);
+
+			return new AllocationMeter(threadBean);
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the allocation counter of the measured thread.
+	 */
+	private long read() {
+		return threadBean.getThreadAllocatedBytes(threadId);
+	}
+
+	/**
+	 * Marks start of call tree recording.
+	 *
+	 * @return bytes allocated by the thread outside of call tree recording.
+	 */
+	long beginRecording() {
+		recordingStart = read();
+		return recordingStart - recordingBytes;
+	}
+
+	/**
+	 * Marks end of call tree recording. Allocations since the matching
+	 * {@link #beginRecording()} are excluded from measured values.
+	 */
+	void endRecording() {
+		recordingBytes += read() - recordingStart + readingBytes;
+	}
+}
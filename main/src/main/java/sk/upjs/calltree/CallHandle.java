@@ -0,0 +1,16 @@
+package sk.upjs.calltree;
+
+/**
+ * Handle of a method call that was started by {@link CallTree#enter}. The
+ * handle identifies the method call when its execution is completed by
+ * {@link CallTree#exit}.
+ */
+public abstract class CallHandle {
+
+	/**
+	 * Constructs a new handle. Handles are created only by the library.
+	 */
+	CallHandle() {
+
+	}
+}
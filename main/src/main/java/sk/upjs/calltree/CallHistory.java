@@ -0,0 +1,82 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+
+/**
+ * Storage of all method calls recorded by a call tree builder in order in
+ * which they were created (invoked).
+ */
+abstract class CallHistory {
+
+	/**
+	 * Appends a new method call to the history and links it to its parent.
+	 * 
+	 * @param methodId
+	 *            identifier of the called method in the method registry
+	 * @param lineNumber
+	 *            line number in the calling method
+	 * @param marked
+	 *            true, if the method call was recorded as a result of a
+	 *            markCall
+	 * @param parent
+	 *            the parent method call or null, if the method call is a root
+	 * @return the created method call
+	 */
+	abstract MethodCall createCall(int methodId, int lineNumber, boolean marked, MethodCall parent);
+
+	/**
+	 * Returns the method call with given index in the history.
+	 */
+	abstract MethodCall get(int index);
+
+	/**
+	 * Returns the number of method calls in the history.
+	 */
+	abstract int size();
+
+	/**
+	 * Removes all method calls from the history.
+	 */
+	abstract void clear();
+
+	/**
+	 * Releases resources held by the history. Recorded method calls remain
+	 * readable, but no method calls can be recorded after the history is
+	 * closed.
+	 */
+	void close() {
+
+	}
+
+	/**
+	 * Returns the estimated number of bytes retained by recorded method
+	 * calls. Arguments, return values and logs stored as objects are not
+	 * included.
+	 */
+	abstract long estimateRetainedBytes();
+
+	/**
+	 * Completes a method call after it returned. The history can replace the
+	 * completed method call and all its descendants by a single method call
+	 * that shares an identical subtree recorded earlier. The completed method
+	 * call must be the last child of its parent and its descendants must form
+	 * the suffix of the history.
+	 * 
+	 * @return the completed method call or the method call that replaced it.
+	 */
+	MethodCall completeCall(MethodCall methodCall) {
+		return methodCall;
+	}
+
+	/**
+	 * Returns method calls with index greater than or equal to given index.
+	 */
+	List<MethodCall> getCalls(int fromIndex) {
+		int size = size();
+		List<MethodCall> result = new ArrayList<MethodCall>(Math.max(size - fromIndex, 0));
+		for (int i = fromIndex; i < size; i++)
+			result.add(get(i));
+
+		return result;
+	}
+}
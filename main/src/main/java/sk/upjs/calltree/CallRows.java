@@ -0,0 +1,163 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+
+import sk.upjs.calltree.MethodCall.LogRecord;
+
+/**
+ * Storage of method calls in rows identified by their index. Children of a
+ * method call form a linked list of rows. Method calls stored in rows are
+ * accessed through {@link RowMethodCall} views. Rows are changed only by the
+ * recording thread.
+ */
+abstract class CallRows {
+
+	/**
+	 * Index of a missing row.
+	 */
+	static final int NONE = -1;
+
+	/**
+	 * Appends a new row and links it to the row of its parent.
+	 * 
+	 * @return index of the new row
+	 */
+	abstract int addRow(int methodId, int lineNumber, boolean marked, int parent);
+
+	/**
+	 * Returns the number of used rows.
+	 */
+	abstract int size();
+
+	/**
+	 * Returns the row of the parent of a row or {@link #NONE}.
+	 */
+	abstract int getParent(int row);
+
+	/**
+	 * Returns the method identifier of a row.
+	 */
+	abstract int getMethodId(int row);
+
+	/**
+	 * Returns the line number of a row.
+	 */
+	abstract int getLineNumber(int row);
+
+	/**
+	 * Returns whether a row is marked.
+	 */
+	abstract boolean isMarked(int row);
+
+	/**
+	 * Returns whether a row has a child.
+	 */
+	abstract boolean hasChildren(int row);
+
+	/**
+	 * Returns the row of the first child of a row or {@link #NONE}.
+	 */
+	abstract int getFirstChild(int row);
+
+	/**
+	 * Returns the row of the next sibling of a row or {@link #NONE}.
+	 */
+	abstract int getNextSibling(int row);
+
+	/**
+	 * Returns the number of children of a row.
+	 */
+	int getChildCount(int row) {
+		int count = 0;
+		for (int child = getFirstChild(row); child != NONE; child = getNextSibling(child))
+			count++;
+
+		return count;
+	}
+
+	/**
+	 * Stores arguments of a row as an array of objects.
+	 */
+	abstract void setObjectArguments(int row, Object[] arguments);
+
+	/**
+	 * Stores arguments of a row in primitive slots.
+	 */
+	abstract void setPrimitiveArguments(int row, byte type, int count, long arg1, long arg2, long arg3);
+
+	/**
+	 * Returns arguments of a row. Primitive arguments are boxed.
+	 */
+	abstract Object[] getArguments(int row);
+
+	/**
+	 * Records a log of a row.
+	 */
+	abstract void log(int row, String message, Object[] values, int lineNumber);
+
+	/**
+	 * Returns whether a row has a log.
+	 */
+	abstract boolean hasLogs(int row);
+
+	/**
+	 * Returns logs of a row stored when the number of children did not exceed
+	 * given limit.
+	 */
+	abstract List<LogRecord> getLogs(int row, int childLimit);
+
+	/**
+	 * Stores the return value of a row.
+	 *
+	 * @return false, if the return value was already stored.
+	 */
+	abstract boolean storeReturn(int row, byte type, long bits, Object value);
+
+	/**
+	 * Returns whether a return value of a row was stored.
+	 */
+	abstract boolean hasReturnValue(int row);
+
+	/**
+	 * Returns the boxed return value of a row.
+	 */
+	abstract Object getReturnValue(int row);
+
+	/**
+	 * Returns the formatted return value of a row.
+	 */
+	abstract String formatReturnValue(int row);
+
+	/**
+	 * Stores the start time of a row.
+	 */
+	abstract void storeStartTime(int row, long time);
+
+	/**
+	 * Stores the end time of a row and computes its inclusive time.
+	 */
+	abstract void storeEndTime(int row, long time);
+
+	/**
+	 * Returns the inclusive time of a row or -1, if the row was not timed or
+	 * it has not returned yet.
+	 */
+	abstract long getInclusiveTime(int row);
+
+	/**
+	 * Stores the allocated bytes of a row when it started.
+	 */
+	abstract void storeStartAllocation(int row, long bytes);
+
+	/**
+	 * Stores the allocated bytes of a row when it returned and computes its
+	 * inclusive allocation.
+	 */
+	abstract void storeEndAllocation(int row, long bytes);
+
+	/**
+	 * Returns the inclusive allocation of a row or -1, if allocations of the
+	 * row were not measured or it has not returned yet.
+	 */
+	abstract long getInclusiveAllocation(int row);
+}
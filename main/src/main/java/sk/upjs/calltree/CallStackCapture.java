@@ -0,0 +1,209 @@
+package sk.upjs.calltree;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Engine that takes snapshots of the call stack of the current thread.
+ */
+abstract class CallStackCapture {
+
+	/**
+	 * Classes whose frames are artefacts of call tree recording and are
+	 * removed from the top of captured call stacks.
+	 */
+	private static final String[] INTERNAL_CLASSES = { CallTree.class.getName(), CallTreeBuilder.class.getName(),
+			CallStackCapture.class.getName() };
+
+	/**
+	 * Prefixes of names of nested classes declared in internal classes.
+	 */
+	private static final String[] INTERNAL_CLASS_PREFIXES = { CallTree.class.getName() + "$",
+			CallTreeBuilder.class.getName() + "$", CallStackCapture.class.getName() + "$" };
+
+	/**
+	 * Creates the most efficient capture engine supported by the running JVM.
+	 */
+	static CallStackCapture create() {
+		try {
+			Class.forName("java.lang.StackWalker");
+			return (CallStackCapture) Class.forName(CallStackCapture.class.getName() + "$StackWalkerCapture")
+					.getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			return new StackTraceCapture();
+		}
+	}
+
+	/**
+	 * Returns the current call stack without recording artefacts. The top of
+	 * the call stack has the highest index. Elements of the previous snapshot
+	 * taken by the engine can be shared by the returned call stack.
+	 */
+	abstract StackTraceElement[] capture();
+
+	/**
+	 * Returns whether a frame of given class is an artefact of call tree
+	 * recording.
+	 */
+	static boolean isInternalFrame(String className) {
+		for (int i = 0; i < INTERNAL_CLASSES.length; i++) {
+			if (className.equals(INTERNAL_CLASSES[i]) || className.startsWith(INTERNAL_CLASS_PREFIXES[i]))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Capture engine based on {@link Thread#getStackTrace()}. It materializes
+	 * the whole call stack for every snapshot.
+	 */
+	static final class StackTraceCapture extends CallStackCapture {
+
+		@Override
+		StackTraceElement[] capture() {
+			StackTraceElement[] stacktrace = Thread.currentThread().getStackTrace();
+
+			// skip frame of getStackTrace and all recording artefacts
+			int top = 0;
+			if ((top < stacktrace.length) && Thread.class.getName().equals(stacktrace[top].getClassName()))
+				top++;
+
+			while ((top < stacktrace.length) && isInternalFrame(stacktrace[top].getClassName()))
+				top++;
+
+			StackTraceElement[] result = new StackTraceElement[stacktrace.length - top];
+			int readIdx = stacktrace.length - 1;
+			for (int i = 0; i < result.length; i++) {
+				result[i] = stacktrace[readIdx];
+				readIdx--;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Capture engine based on {@link StackWalker}. Frames are walked without
+	 * filling in a stack trace of a throwable. The walk itself visits all
+	 * frames, however frames of the longest common prefix with the previous
+	 * snapshot, compared from the bottom of the call stack, are not converted
+	 * to stacktrace elements and elements of the previous snapshot are shared
+	 * instead. An engine keeps state of the last snapshot and it must be used
+	 * by a single builder.
+	 */
+	static final class StackWalkerCapture extends CallStackCapture {
+
+		/**
+		 * Stack walker that reports the same frames as
+		 * {@link Thread#getStackTrace()}.
+		 */
+		private final StackWalker walker = StackWalker.getInstance(StackWalker.Option.SHOW_REFLECT_FRAMES);
+
+		/**
+		 * Frames of the last walk, the top of call stack has index 0.
+		 */
+		private StackWalker.StackFrame[] frames = new StackWalker.StackFrame[64];
+
+		/**
+		 * Number of frames collected by the last walk.
+		 */
+		private int frameCount;
+
+		/**
+		 * The last returned snapshot.
+		 */
+		private StackTraceElement[] lastSnapshot;
+
+		/**
+		 * Bytecode indices of frames of the last returned snapshot. Frames with
+		 * equal class, method and bytecode index have equal stacktrace
+		 * elements.
+		 */
+		private int[] lastBytecodeIndices = new int[64];
+
+		/**
+		 * Number of stacktrace elements created by the last snapshot.
+		 */
+		int convertedFrames;
+
+		/**
+		 * Function that collects all frames that are not artefacts of
+		 * recording.
+		 */
+		private final Function<Stream<StackWalker.StackFrame>, Void> frameCollector = new Function<Stream<StackWalker.StackFrame>, Void>() {
+			public Void apply(Stream<StackWalker.StackFrame> stream) {
+				Iterator<StackWalker.StackFrame> it = stream.iterator();
+				boolean artefact = true;
+				while (it.hasNext()) {
+					StackWalker.StackFrame frame = it.next();
+					if (artefact) {
+						if (isInternalFrame(frame.getClassName()))
+							continue;
+
+						artefact = false;
+					}
+
+					if (frameCount == frames.length)
+						frames = Arrays.copyOf(frames, 2 * frames.length);
+
+					frames[frameCount] = frame;
+					frameCount++;
+				}
+				return null;
+			}
+		};
+
+		@Override
+		StackTraceElement[] capture() {
+			frameCount = 0;
+			walker.walk(frameCollector);
+
+			StackTraceElement[] previous = lastSnapshot;
+			if (lastBytecodeIndices.length < frameCount)
+				lastBytecodeIndices = Arrays.copyOf(lastBytecodeIndices,
+						Math.max(frameCount, 2 * lastBytecodeIndices.length));
+
+			StackTraceElement[] result = new StackTraceElement[frameCount];
+			try {
+				// an equal frame does not imply equal frames below it (e.g.,
+				// a helper method called from different callers), hence
+				// elements are shared only while all frames from the bottom
+				// are equal
+				int idx = 0;
+				if (previous != null) {
+					int limit = Math.min(frameCount, previous.length);
+					while ((idx < limit)
+							&& isSameFrame(frames[frameCount - 1 - idx], previous[idx], lastBytecodeIndices[idx])) {
+						result[idx] = previous[idx];
+						idx++;
+					}
+				}
+
+				convertedFrames = frameCount - idx;
+				while (idx < frameCount) {
+					StackWalker.StackFrame frame = frames[frameCount - 1 - idx];
+					result[idx] = frame.toStackTraceElement();
+					lastBytecodeIndices[idx] = frame.getByteCodeIndex();
+					idx++;
+				}
+			} finally {
+				Arrays.fill(frames, 0, frameCount, null);
+			}
+
+			lastSnapshot = result;
+			return result;
+		}
+
+		/**
+		 * Returns whether a frame is the frame of a stacktrace element of the
+		 * last snapshot. Frames are compared without creating stacktrace
+		 * elements.
+		 */
+		private static boolean isSameFrame(StackWalker.StackFrame frame, StackTraceElement element, int bytecodeIndex) {
+			return (frame.getByteCodeIndex() == bytecodeIndex) && frame.getMethodName().equals(element.getMethodName())
+					&& frame.getClassName().equals(element.getClassName());
+		}
+	}
+}
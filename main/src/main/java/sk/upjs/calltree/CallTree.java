@@ -1,7 +1,14 @@
 package sk.upjs.calltree;
 
 import java.awt.EventQueue;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Basic method for storing data required to visualize a call tree.
@@ -14,9 +21,124 @@ public class CallTree {
 	private static final Config config = new Config();
 
 	/**
-	 * Builder of call trees.
+	 * Builders of call trees of all threads that recorded a method call.
+	 * Builders retain recorded call trees after their threads terminate, so
+	 * that the trees can be displayed. In headless mode, recorded call trees
+	 * are never displayed and builders of terminated threads are removed when
+	 * a new thread starts recording.
 	 */
-	private static final CallTreeBuilder callTreeBuilder = new CallTreeBuilder();
+	private static final List<CallTreeBuilder> callTreeBuilders = new CopyOnWriteArrayList<CallTreeBuilder>();
+
+	/**
+	 * Builder of call trees of the current thread. Each thread records to its
+	 * own builder, so recording threads do not contend with each other.
+	 */
+	private static final ThreadLocal<CallTreeBuilder> callTreeBuilder = new ThreadLocal<CallTreeBuilder>() {
+		@Override
+		protected CallTreeBuilder initialValue() {
+			lockConfig();
+			String threadName = Thread.currentThread().getName();
+			CallHistory history;
+			if (recordingFile != null) {
+				history = new MappedCallHistory(
+						new File(recordingFile.getPath() + "-" + recordingThreadCounter.getAndIncrement()), threadName);
+			} else if (aggregatedHistory) {
+				history = new AggregatedCallHistory();
+			} else if (compactHistory) {
+				history = new ColumnarCallHistory();
+			} else {
+				// shared subtrees would lose measurements of duplicated
+				// method calls
+				history = new ObjectCallHistory(sharedSubtrees && !timing && !allocationAccounting);
+			}
+
+			CallTreeBuilder builder = new CallTreeBuilder(threadName, history, timing, allocationAccounting,
+					recordingStats);
+			builder.setRecordingThread(Thread.currentThread());
+			if (headless)
+				removeTerminatedBuilders();
+
+			callTreeBuilders.add(builder);
+			return builder;
+		}
+	};
+
+	/**
+	 * Indicates that the configuration was locked and the recording mode was
+	 * resolved.
+	 */
+	private static volatile boolean configLocked = false;
+
+	/**
+	 * Indicates that call trees are recorded without visualization.
+	 */
+	private static volatile boolean headless = false;
+
+	/**
+	 * Indicates that recorded method calls are stored in compact columns.
+	 */
+	private static volatile boolean compactHistory = false;
+
+	/**
+	 * Indicates that completed method calls with identical subtrees share a
+	 * single copy of the subtree.
+	 */
+	private static volatile boolean sharedSubtrees = false;
+
+	/**
+	 * Indicates that invocations along the same call path are aggregated.
+	 */
+	private static volatile boolean aggregatedHistory = false;
+
+	/**
+	 * Indicates that method calls are timed.
+	 */
+	private static volatile boolean timing = false;
+
+	/**
+	 * Indicates that bytes allocated by method calls are measured.
+	 */
+	private static volatile boolean allocationAccounting = false;
+
+	/**
+	 * Statistics of recording overhead or null, if statistics are not
+	 * collected.
+	 */
+	private static volatile RecordingStats recordingStats;
+
+	/**
+	 * Base name of recording files or null, if method calls are recorded in
+	 * the heap.
+	 */
+	private static volatile File recordingFile;
+
+	/**
+	 * Counter of threads that record method calls to recording files.
+	 */
+	private static final AtomicInteger recordingThreadCounter = new AtomicInteger();
+
+	/**
+	 * Minimal time in nanoseconds between two updates of the visualization.
+	 */
+	private static volatile long refreshInterval;
+
+	/**
+	 * Indicates that an update of the visualization is scheduled and not yet
+	 * realized.
+	 */
+	private static final AtomicBoolean updatePending = new AtomicBoolean(false);
+
+	/**
+	 * Time of the last update of the visualization. It is accessed only from
+	 * the event dispatch thread.
+	 */
+	private static long lastUpdateTime;
+
+	/**
+	 * Timer that realizes postponed updates of the visualization. It is
+	 * accessed only from the event dispatch thread.
+	 */
+	private static javax.swing.Timer updateTimer;
 
 	/**
 	 * Frame visualizing all recorded call trees.
@@ -29,7 +151,7 @@ public class CallTree {
 	 */
 	private static final Runnable updateCallTreeRunnable = new Runnable() {
 		public void run() {
-			updateCallTreeFrameInEDT();
+			scheduleUpdateInEDT();
 		}
 	};
 
@@ -50,13 +172,102 @@ public class CallTree {
 	 *            arguments to be associated with the started method call.
 	 */
 	public static void markCall(Object... args) {
-		if (args == null) {
-			args = new Object[1];
+		CallTreeBuilder builder = beginEvent();
+		try {
+			if (args == null) {
+				args = new Object[1];
+			}
+
+			builder.markCall(args);
+			completeEvent(builder);
+		} finally {
+			builder.endEvent();
 		}
+	}
 
-		callTreeBuilder.markCall(args);
-		updateCallTreeFrame();
-		waitForConfirmation();
+	/**
+	 * Marks that a new method call started. Unlike
+	 * {@link #markCall(Object...)}, the argument values are stored without
+	 * boxing. The method has a distinct name, so that calls of
+	 * {@link #markCall(Object...)} with arguments of other types are not
+	 * resolved to it.
+	 * 
+	 * @param arg
+	 *            the argument to be associated with the started method call.
+	 */
+	public static void markCallInt(int arg) {
+		CallTreeBuilder builder = beginEvent();
+		try {
+			builder.markCallInt(arg);
+			completeEvent(builder);
+		} finally {
+			builder.endEvent();
+		}
+	}
+
+	/**
+	 * Marks that a new method call started. Unlike
+	 * {@link #markCall(Object...)}, the argument values are stored without
+	 * boxing.
+	 * 
+	 * @param arg1
+	 *            the first argument to be associated with the started method
+	 *            call.
+	 * @param arg2
+	 *            the second argument to be associated with the started method
+	 *            call.
+	 */
+	public static void markCallInt(int arg1, int arg2) {
+		CallTreeBuilder builder = beginEvent();
+		try {
+			builder.markCallInt(arg1, arg2);
+			completeEvent(builder);
+		} finally {
+			builder.endEvent();
+		}
+	}
+
+	/**
+	 * Marks that a new method call started. Unlike
+	 * {@link #markCall(Object...)}, the argument values are stored without
+	 * boxing.
+	 * 
+	 * @param arg1
+	 *            the first argument to be associated with the started method
+	 *            call.
+	 * @param arg2
+	 *            the second argument to be associated with the started method
+	 *            call.
+	 * @param arg3
+	 *            the third argument to be associated with the started method
+	 *            call.
+	 */
+	public static void markCallInt(int arg1, int arg2, int arg3) {
+		CallTreeBuilder builder = beginEvent();
+		try {
+			builder.markCallInt(arg1, arg2, arg3);
+			completeEvent(builder);
+		} finally {
+			builder.endEvent();
+		}
+	}
+
+	/**
+	 * Marks that a new method call started. Unlike
+	 * {@link #markCall(Object...)}, the argument values are stored without
+	 * boxing.
+	 * 
+	 * @param arg
+	 *            the argument to be associated with the started method call.
+	 */
+	public static void markCallLong(long arg) {
+		CallTreeBuilder builder = beginEvent();
+		try {
+			builder.markCallLong(arg);
+			completeEvent(builder);
+		} finally {
+			builder.endEvent();
+		}
 	}
 
 	/**
@@ -66,8 +277,13 @@ public class CallTree {
 	 *            the log message
 	 */
 	public static void log(String message) {
-		callTreeBuilder.log(message, null);
-		updateCallTreeFrame();
+		CallTreeBuilder builder = beginEvent();
+		try {
+			builder.log(message, null);
+			updateCallTreeFrame();
+		} finally {
+			builder.endEvent();
+		}
 	}
 
 	/**
@@ -80,12 +296,17 @@ public class CallTree {
 	 *            arguments to be associated with the message
 	 */
 	public static void log(String message, Object... args) {
-		if (args == null) {
-			args = new Object[1];
-		}
+		CallTreeBuilder builder = beginEvent();
+		try {
+			if (args == null) {
+				args = new Object[1];
+			}
 
-		callTreeBuilder.log(message, args);
-		updateCallTreeFrame();
+			builder.log(message, args);
+			updateCallTreeFrame();
+		} finally {
+			builder.endEvent();
+		}
 	}
 
 	/**
@@ -96,9 +317,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static int markReturn(int value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.INT_RETURN, value, null);
 		return value;
 	}
 
@@ -110,9 +329,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static byte markReturn(byte value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.BYTE_RETURN, value, null);
 		return value;
 	}
 
@@ -124,9 +341,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static short markReturn(short value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.SHORT_RETURN, value, null);
 		return value;
 	}
 
@@ -138,9 +353,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static long markReturn(long value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.LONG_RETURN, value, null);
 		return value;
 	}
 
@@ -152,9 +365,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static char markReturn(char value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.CHAR_RETURN, value, null);
 		return value;
 	}
 
@@ -166,9 +377,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static boolean markReturn(boolean value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.BOOLEAN_RETURN, value ? 1 : 0, null);
 		return value;
 	}
 
@@ -182,9 +391,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static <T> T markReturn(T value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.OBJECT_RETURN, 0, value);
 		return value;
 	}
 
@@ -196,9 +403,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static double markReturn(double value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.DOUBLE_RETURN, Double.doubleToRawLongBits(value), null);
 		return value;
 	}
 
@@ -210,9 +415,7 @@ public class CallTree {
 	 * @return the value
 	 */
 	public static float markReturn(float value) {
-		callTreeBuilder.markReturn(value);
-		updateCallTreeFrame();
-		waitForConfirmation();
+		completeReturn(MethodCall.FLOAT_RETURN, Float.floatToRawIntBits(value), null);
 		return value;
 	}
 
@@ -220,25 +423,340 @@ public class CallTree {
 	 * Marks that method execution was completed.
 	 */
 	public static void markReturn() {
-		callTreeBuilder.markReturn();
+		completeReturn(CallTreeBuilder.NO_RETURN, 0, null);
+	}
+
+	/**
+	 * Marks that a new method call started and returns its handle. Unlike
+	 * {@link #markCall(Object...)}, the call stack is not inspected and the
+	 * started method call becomes a child of the last entered method call of
+	 * the current thread that was not completed by {@link #exit(CallHandle)}.
+	 * Messages logged by {@link #log(String, Object...)} are associated with
+	 * the last entered method call. Calls of this method must not be mixed
+	 * with {@link #markCall(Object...)} in the same call tree.
+	 * 
+	 * @param methodName
+	 *            name of the called method
+	 * @param args
+	 *            arguments to be associated with the started method call.
+	 * @return the handle of the started method call.
+	 */
+	public static CallHandle enter(String methodName, Object... args) {
+		CallTreeBuilder builder = beginEvent();
+		try {
+			if (args == null) {
+				args = new Object[1];
+			}
+
+			CallHandle handle = builder.enter(methodName, args);
+			completeEvent(builder);
+			return handle;
+		} finally {
+			builder.endEvent();
+		}
+	}
+
+	/**
+	 * Marks that execution of a method call started by
+	 * {@link #enter(String, Object...)} was completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 */
+	public static void exit(CallHandle handle) {
+		completeExit(handle, CallTreeBuilder.NO_RETURN, 0, null);
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param value
+	 *            return value
+	 * @return the value
+	 */
+	public static int exit(CallHandle handle, int value) {
+		completeExit(handle, MethodCall.INT_RETURN, value, null);
+		return value;
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param value
+	 *            return value
+	 * @return the value
+	 */
+	public static byte exit(CallHandle handle, byte value) {
+		completeExit(handle, MethodCall.BYTE_RETURN, value, null);
+		return value;
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param value
+	 *            return value
+	 * @return the value
+	 */
+	public static short exit(CallHandle handle, short value) {
+		completeExit(handle, MethodCall.SHORT_RETURN, value, null);
+		return value;
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param value
+	 *            return value
+	 * @return the value
+	 */
+	public static long exit(CallHandle handle, long value) {
+		completeExit(handle, MethodCall.LONG_RETURN, value, null);
+		return value;
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param value
+	 *            return value
+	 * @return the value
+	 */
+	public static char exit(CallHandle handle, char value) {
+		completeExit(handle, MethodCall.CHAR_RETURN, value, null);
+		return value;
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param value
+	 *            return value
+	 * @return the value
+	 */
+	public static boolean exit(CallHandle handle, boolean value) {
+		completeExit(handle, MethodCall.BOOLEAN_RETURN, value ? 1 : 0, null);
+		return value;
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param <T>
+	 *            the type of value.
+	 * @param value
+	 *            the return value
+	 * @return the value
+	 */
+	public static <T> T exit(CallHandle handle, T value) {
+		completeExit(handle, MethodCall.OBJECT_RETURN, 0, value);
+		return value;
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param value
+	 *            return value
+	 * @return the value
+	 */
+	public static double exit(CallHandle handle, double value) {
+		completeExit(handle, MethodCall.DOUBLE_RETURN, Double.doubleToRawLongBits(value), null);
+		return value;
+	}
+
+	/**
+	 * Stores return value returned by a method call started by
+	 * {@link #enter(String, Object...)} and marks that its execution was
+	 * completed.
+	 * 
+	 * @param handle
+	 *            the handle of the completed method call
+	 * @param value
+	 *            return value
+	 * @return the value
+	 */
+	public static float exit(CallHandle handle, float value) {
+		completeExit(handle, MethodCall.FLOAT_RETURN, Float.floatToRawIntBits(value), null);
+		return value;
+	}
+
+	/**
+	 * Records the return value of the current method call of the current
+	 * thread and completes the method call.
+	 */
+	private static void completeReturn(byte type, long bits, Object value) {
+		CallTreeBuilder builder = beginEvent();
+		try {
+			builder.completeReturn(type, bits, value);
+			completeEvent(builder);
+		} finally {
+			builder.endEvent();
+		}
+	}
+
+	/**
+	 * Records the return value of a method call started by
+	 * {@link #enter(String, Object...)} and completes the method call.
+	 */
+	private static void completeExit(CallHandle handle, byte type, long bits, Object value) {
+		CallTreeBuilder builder = beginEvent();
+		try {
+			builder.completeExit(toMethodCall(handle), type, bits, value);
+			completeEvent(builder);
+		} finally {
+			builder.endEvent();
+		}
+	}
+
+	/**
+	 * Removes builders of threads that terminated. Call trees recorded by
+	 * these threads and resources held by their histories are released.
+	 */
+	private static void removeTerminatedBuilders() {
+		for (CallTreeBuilder builder : callTreeBuilders) {
+			if (builder.isRecordingThreadTerminated()) {
+				callTreeBuilders.remove(builder);
+				builder.close();
+			}
+		}
+	}
+
+	/**
+	 * Displays call trees recorded to recording files by a thread of a
+	 * previous execution. The recording files are not loaded to the heap,
+	 * method calls are read from the memory-mapped files on demand. Tree nodes
+	 * are created only for a limited part of the displayed call tree, other
+	 * nodes are created when their collapsed parent is clicked.
+	 *
+	 * @param file
+	 *            the recording file without the suffix <code>.calls</code>
+	 *            or <code>.data</code>, e.g., <code>recording-0</code>.
+	 * @see Config#setRecordingFile(File)
+	 */
+	public static void openRecording(File file) {
+		MappedCallHistory history = new MappedCallHistory(file);
+		callTreeBuilders.add(new CallTreeBuilder(history.getThreadName(), history, false, false, null));
 		updateCallTreeFrame();
-		waitForConfirmation();
 	}
 
 	/**
 	 * Resets call tree builder and removes all recorded call trees.
 	 */
 	public static void reset() {
-		callTreeBuilder.reset();
+		for (CallTreeBuilder builder : callTreeBuilders)
+			builder.reset();
 		updateCallTreeFrame();
 	}
 
 	/**
-	 * Updates the call tree visualization.
+	 * Returns the method call identified by a handle.
+	 */
+	private static MethodCall toMethodCall(CallHandle handle) {
+		if (handle == null) {
+			throw new CallTreeMarkingException("Handle of a method call cannot be null.");
+		}
+
+		return (MethodCall) handle;
+	}
+
+	/**
+	 * Updates the call tree visualization. Updates requested before a
+	 * scheduled update is realized are merged with the scheduled update.
 	 */
 	private static void updateCallTreeFrame() {
-		config.lockChanges();
-		EventQueue.invokeLater(updateCallTreeRunnable);
+		lockConfig();
+		if (headless)
+			return;
+
+		if (updatePending.compareAndSet(false, true))
+			EventQueue.invokeLater(updateCallTreeRunnable);
+	}
+
+	/**
+	 * Locks the configuration and resolves the recording mode, if it was not
+	 * done yet.
+	 */
+	private static void lockConfig() {
+		if (configLocked)
+			return;
+
+		synchronized (config) {
+			if (!configLocked) {
+				config.lockChanges();
+				headless = config.isHeadless();
+				compactHistory = config.isCompactHistory();
+				recordingFile = config.getRecordingFile();
+				sharedSubtrees = config.isSharedSubtrees();
+				aggregatedHistory = config.isAggregatedHistory();
+				timing = config.isTiming();
+				allocationAccounting = config.isAllocationAccounting();
+				if (config.isRecordingStats())
+					recordingStats = RecordingStats.register(callTreeBuilders);
+				refreshInterval = config.getRefreshInterval() * 1000000L;
+				configLocked = true;
+			}
+		}
+	}
+
+	/**
+	 * Realizes a scheduled update of the call tree visualization in the event
+	 * dispatch thread or postpones it, if the last update is too recent.
+	 */
+	private static void scheduleUpdateInEDT() {
+		long now = System.nanoTime();
+		long delay = lastUpdateTime + refreshInterval - now;
+		if ((visualizationFrame != null) && (delay > 0)) {
+			if (updateTimer == null) {
+				updateTimer = new javax.swing.Timer(0, new ActionListener() {
+					public void actionPerformed(ActionEvent e) {
+						scheduleUpdateInEDT();
+					}
+				});
+				updateTimer.setRepeats(false);
+			}
+
+			updateTimer.setInitialDelay((int) Math.max(1, delay / 1000000L));
+			updateTimer.restart();
+			return;
+		}
+
+		// changes recorded after this moment require a new update
+		updatePending.set(false);
+		lastUpdateTime = now;
+		updateCallTreeFrameInEDT();
 	}
 
 	/**
@@ -251,15 +769,39 @@ public class CallTree {
 			visualizationFrame.setVisible(true);
 		}
 
-		visualizationFrame.updateState(callTreeBuilder.getState());
+		visualizationFrame.updateState(callTreeBuilders);
+	}
+
+	/**
+	 * Starts recording of an event by the current thread and returns the
+	 * builder of the thread. Allocations until the matching
+	 * {@link CallTreeBuilder#endEvent()} are excluded from allocations of
+	 * method calls. The event must be ended in a finally block.
+	 */
+	private static CallTreeBuilder beginEvent() {
+		CallTreeBuilder builder = callTreeBuilder.get();
+		builder.beginEvent();
+		return builder;
+	}
+
+	/**
+	 * Completes a successfully recorded event of the current thread. The
+	 * visualization is updated and the thread waits for permission to
+	 * continue execution.
+	 */
+	private static void completeEvent(CallTreeBuilder builder) {
+		updateCallTreeFrame();
+		waitForConfirmation(builder);
 	}
 
 	/**
 	 * Waits for permission to continue execution. If this method is invoked
-	 * from the event dispatch thread, it exits immediately.
+	 * from the event dispatch thread or in headless mode, it exits
+	 * immediately. The wait is excluded from times of method calls recorded
+	 * by the builder of the current thread.
 	 */
-	private static void waitForConfirmation() {
-		if (EventQueue.isDispatchThread())
+	private static void waitForConfirmation(CallTreeBuilder builder) {
+		if (headless || EventQueue.isDispatchThread())
 			return;
 
 		final Semaphore semaphore = new Semaphore(0);
@@ -274,10 +816,17 @@ public class CallTree {
 			}
 		});
 
+		long start = System.nanoTime();
 		try {
 			semaphore.acquire();
 		} catch (InterruptedException ignore) {
 
 		}
+
+		long wait = System.nanoTime() - start;
+		builder.recordConfirmationWait(wait);
+		RecordingStats stats = recordingStats;
+		if (stats != null)
+			stats.recordConfirmationWait(wait);
 	}
 }
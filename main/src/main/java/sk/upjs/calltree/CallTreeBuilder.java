@@ -1,40 +1,78 @@
 package sk.upjs.calltree;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 /**
- * Internal builder of call trees.
+ * Internal builder of call trees recorded by a single thread.
  */
 class CallTreeBuilder {
 
 	/**
-	 * A class representing a state of the call tree builder.
+	 * Type of the return value of a method call completed without a return
+	 * value.
 	 */
-	class CallTreeState {
-		final List<MethodCall> history;
+	static final byte NO_RETURN = -1;
+
+	/**
+	 * A class representing changes of the call tree builder state since a
+	 * previous state.
+	 */
+	class CallTreeChanges {
+		/**
+		 * Index in the history of the first method call in the list of new
+		 * method calls. Method calls with this or greater index that were
+		 * received earlier are not valid anymore.
+		 */
+		final int firstIndex;
+
+		/**
+		 * Method calls recorded since the previous state.
+		 */
+		final List<MethodCall> calls;
+
+		/**
+		 * The active method call, i.e., the top of the current call stack.
+		 */
 		final MethodCall activeCall;
 
-		CallTreeState(List<MethodCall> history, MethodCall activeCall) {
-			this.history = history;
+		CallTreeChanges(int firstIndex, List<MethodCall> calls, MethodCall activeCall) {
+			this.firstIndex = firstIndex;
+			this.calls = calls;
 			this.activeCall = activeCall;
 		}
 	}
 
 	/**
-	 * Synchronization lock used when arbitrary call tree is modified.
+	 * Name of the thread whose method calls are recorded by this builder.
 	 */
-	private final Object changeLock = new Object();
+	private final String threadName;
 
 	/**
-	 * Roots of all recorded call trees.
+	 * Weak reference to the thread whose method calls are recorded by this
+	 * builder or null, if the builder does not record method calls of a
+	 * running thread.
 	 */
-	private final List<MethodCall> roots;
+	private volatile WeakReference<Thread> recordingThread;
 
 	/**
-	 * List of all recorded method calls in order in which they were created
+	 * Synchronization lock used when arbitrary call tree is modified. The lock
+	 * is shared only by the recording thread and threads that read or reset
+	 * recorded call trees.
+	 */
+	private final Object changeLock = new Object();
+
+	/**
+	 * All recorded method calls in order in which they were created
 	 * (invoked).
 	 */
-	private final List<MethodCall> history;
+	private final CallHistory history;
+
+	/**
+	 * The smallest size of the history since the last request for changes.
+	 * History entries with smaller index were not changed since then.
+	 */
+	private int stableHistorySize;
 
 	/**
 	 * Last known executed method call.
@@ -56,13 +94,159 @@ class CallTreeBuilder {
 	 */
 	private final ArrayList<MethodCall> methodCallsOnStack;
 
+	/**
+	 * Method calls started by {@link #enter(String, Object[])} that were not
+	 * completed yet.
+	 */
+	private final ArrayList<MethodCall> shadowStack;
+
+	/**
+	 * Engine used to take snapshots of the call stack.
+	 */
+	private final CallStackCapture stackCapture;
+
+	/**
+	 * Indicates that start and return of method calls are timed.
+	 */
+	private final boolean timing;
+
+	/**
+	 * Meter of bytes allocated by the recording thread or null, if
+	 * allocations are not measured.
+	 */
+	private final AllocationMeter allocationMeter;
+
+	/**
+	 * Bytes allocated by the recording thread outside of call tree recording
+	 * when the current recording started.
+	 */
+	private long allocatedBytes;
+
+	/**
+	 * Indicates that the recording thread started an event by
+	 * {@link #beginEvent()} and allocations are already excluded.
+	 */
+	private boolean eventStarted;
+
+	/**
+	 * Total time in nanoseconds that the recording thread waited for
+	 * confirmation to continue. It is changed only by the recording thread.
+	 */
+	private long confirmationWaitTime;
+
+	/**
+	 * Statistics of recording or null, if statistics are not collected.
+	 */
+	private final RecordingStats stats;
+
+	/**
+	 * Time when the lock was acquired for the current recording.
+	 */
+	private long recordingStartTime;
+
 	/**
 	 * Constructs a new call tree builder.
+	 * 
+	 * @param threadName
+	 *            name of the thread whose method calls are recorded
+	 * @param history
+	 *            storage for recorded method calls
+	 * @param timing
+	 *            true, if start and return of method calls are timed
+	 * @param allocationAccounting
+	 *            true, if bytes allocated by method calls are measured. The
+	 *            builder must be constructed by the recording thread.
+	 * @param stats
+	 *            statistics of recording or null, if statistics are not
+	 *            collected
 	 */
-	public CallTreeBuilder() {
+	public CallTreeBuilder(String threadName, CallHistory history, boolean timing, boolean allocationAccounting,
+			RecordingStats stats) {
+		this(threadName, history, timing, allocationAccounting, stats, CallStackCapture.create());
+	}
+
+	/**
+	 * Constructs a new call tree builder that takes snapshots of the call
+	 * stack by given engine.
+	 */
+	CallTreeBuilder(String threadName, CallHistory history, boolean timing, boolean allocationAccounting,
+			RecordingStats stats, CallStackCapture stackCapture) {
+		this.threadName = threadName;
+		this.history = history;
+		this.timing = timing;
+		this.allocationMeter = allocationAccounting ? AllocationMeter.create() : null;
+		this.stats = stats;
 		methodCallsOnStack = new ArrayList<MethodCall>();
-		roots = new ArrayList<MethodCall>();
-		history = new ArrayList<MethodCall>();
+		this.stackCapture = stackCapture;
+		shadowStack = new ArrayList<MethodCall>();
+	}
+
+	/**
+	 * Returns name of the thread whose method calls are recorded by this
+	 * builder.
+	 */
+	public String getThreadName() {
+		return threadName;
+	}
+
+	/**
+	 * Sets the thread whose method calls are recorded by this builder. The
+	 * builder does not prevent the thread from being garbage collected.
+	 */
+	void setRecordingThread(Thread thread) {
+		recordingThread = new WeakReference<Thread>(thread);
+	}
+
+	/**
+	 * Returns whether the thread whose method calls are recorded by this
+	 * builder has terminated. Builders without a recording thread are never
+	 * terminated.
+	 */
+	boolean isRecordingThreadTerminated() {
+		WeakReference<Thread> reference = recordingThread;
+		if (reference == null)
+			return false;
+
+		Thread thread = reference.get();
+		return (thread == null) || !thread.isAlive();
+	}
+
+	/**
+	 * Returns whether the builder provides method calls stored in recording
+	 * files opened for reading. These method calls never change.
+	 */
+	boolean isOpenedRecording() {
+		return (history instanceof MappedCallHistory) && ((MappedCallHistory) history).isReadOnly();
+	}
+
+	/**
+	 * Returns roots of recorded call trees. A call tree recorded without
+	 * shared subtrees occupies a contiguous range of the history, hence the
+	 * next root follows the last descendant of the previous root and only
+	 * method calls on the rightmost paths of call trees are accessed.
+	 */
+	List<MethodCall> getRootCalls() {
+		synchronized (changeLock) {
+			List<MethodCall> roots = new ArrayList<MethodCall>();
+			int size = history.size();
+			int index = 0;
+			while (index < size) {
+				MethodCall root = history.get(index);
+				if (root.isRoot())
+					roots.add(root);
+
+				MethodCall last = root;
+				List<MethodCall> children = last.getMethodCalls();
+				while (!children.isEmpty()) {
+					last = children.get(children.size() - 1);
+					children = last.getMethodCalls();
+				}
+
+				index = Math.max(index, last.getIndex()) + 1;
+			}
+
+			return roots;
+		}
 	}
 
 	/**
@@ -70,15 +254,29 @@ class CallTreeBuilder {
 	 */
 	public void reset() {
 		synchronized (changeLock) {
-			roots.clear();
+			history.clear();
+			stableHistorySize = 0;
 			callstack = null;
 			activeMethod = null;
 			methodCallsOnStack.clear();
+			shadowStack.clear();
+		}
+	}
+
+	/**
+	 * Releases resources held by the history of the builder. Recorded call
+	 * trees remain readable.
+	 */
+	void close() {
+		synchronized (changeLock) {
+			history.close();
 		}
 	}
 
 	/**
-	 * Logs a message.
+	 * Logs a message. If a method call started by
+	 * {@link #enter(String, Object[])} was not completed, the message is
+	 * associated with the last entered method call.
 	 * 
 	 * @param message
 	 *            content of the logged message
@@ -86,16 +284,29 @@ class CallTreeBuilder {
 	 *            additional values to store as a part of the logged message
 	 */
 	public void log(String message, Object[] args) {
+		long requestTime = lockRequestTime();
 		synchronized (changeLock) {
-			StackTraceElement[] cs = getCallstack();
-			MethodCall mc = getCurrentMethodCall(cs);
-			if (mc == null) {
-				throw new CallTreeMarkingException(
-						"Invalid use of calls for building a call tree (maybe the current method call was not marked by markCall).");
-			}
+			beginRecording(requestTime);
+			try {
+				if (!shadowStack.isEmpty()) {
+					MethodCall mc = shadowStack.get(shadowStack.size() - 1);
+					mc.log(message, args, -1);
+					activeMethod = mc;
+					return;
+				}
 
-			mc.log(message, args, cs[cs.length - 1].getLineNumber());
-			activeMethod = mc;
+				StackTraceElement[] cs = getCallstack();
+				MethodCall mc = getCurrentMethodCall(cs);
+				if (mc == null) {
+					throw new CallTreeMarkingException(
+							"Invalid use of calls for building a call tree (maybe the current method call was not marked by markCall).");
+				}
+
+				mc.log(message, args, cs[cs.length - 1].getLineNumber());
+				activeMethod = mc;
+			} finally {
+				endRecording(RecordingStats.LOG);
+			}
 		}
 	}
 
@@ -106,104 +317,488 @@ class CallTreeBuilder {
 	 *            the return value to be recorded.
 	 */
 	public void markReturn(Object value) {
-		synchronized (changeLock) {
-			MethodCall mc = getCurrentMethodCall(getCallstack());
-			if (mc == null) {
-				throw new CallTreeMarkingException(
-						"Invalid use of calls for building a call tree (maybe the current method call was not marked by markCall).");
-			}
+		completeReturn(MethodCall.OBJECT_RETURN, 0, value);
+	}
 
-			mc.markReturn(value);
-			activeMethod = mc.getParent();
-		}
+	/**
+	 * Records the int return value of the current method call.
+	 */
+	public void markReturn(int value) {
+		completeReturn(MethodCall.INT_RETURN, value, null);
+	}
+
+	/**
+	 * Records the byte return value of the current method call.
+	 */
+	public void markReturn(byte value) {
+		completeReturn(MethodCall.BYTE_RETURN, value, null);
+	}
+
+	/**
+	 * Records the short return value of the current method call.
+	 */
+	public void markReturn(short value) {
+		completeReturn(MethodCall.SHORT_RETURN, value, null);
+	}
+
+	/**
+	 * Records the long return value of the current method call.
+	 */
+	public void markReturn(long value) {
+		completeReturn(MethodCall.LONG_RETURN, value, null);
+	}
+
+	/**
+	 * Records the char return value of the current method call.
+	 */
+	public void markReturn(char value) {
+		completeReturn(MethodCall.CHAR_RETURN, value, null);
+	}
+
+	/**
+	 * Records the boolean return value of the current method call.
+	 */
+	public void markReturn(boolean value) {
+		completeReturn(MethodCall.BOOLEAN_RETURN, value ? 1 : 0, null);
+	}
+
+	/**
+	 * Records the double return value of the current method call.
+	 */
+	public void markReturn(double value) {
+		completeReturn(MethodCall.DOUBLE_RETURN, Double.doubleToRawLongBits(value), null);
+	}
+
+	/**
+	 * Records the float return value of the current method call.
+	 */
+	public void markReturn(float value) {
+		completeReturn(MethodCall.FLOAT_RETURN, Float.floatToRawIntBits(value), null);
 	}
 
 	/**
 	 * Records the current method call is completed.
 	 */
 	public void markReturn() {
+		completeReturn(NO_RETURN, 0, null);
+	}
+
+	/**
+	 * Records the return value of the current method call and completes the
+	 * method call.
+	 * 
+	 * @param type
+	 *            type of the return value or {@link #NO_RETURN}
+	 * @param bits
+	 *            bits of a primitive return value
+	 * @param value
+	 *            an object return value
+	 */
+	void completeReturn(byte type, long bits, Object value) {
+		long requestTime = lockRequestTime();
 		synchronized (changeLock) {
-			MethodCall mc = getCurrentMethodCall(getCallstack());
-			if (mc == null) {
-				throw new CallTreeMarkingException(
-						"Invalid use of calls for building a call tree (maybe the current method call was not marked by markCall).");
+			beginRecording(requestTime);
+			try {
+				MethodCall mc = returningCall();
+				if (type != NO_RETURN)
+					mc.storeReturn(type, bits, value);
+
+				activeMethod = completeCall(mc).getParent();
+			} finally {
+				endRecording(RecordingStats.MARK_RETURN);
 			}
-			activeMethod = mc.getParent();
 		}
 	}
 
+	/**
+	 * Returns the method call that returns according to the current call
+	 * stack. The caller must hold the change lock.
+	 */
+	private MethodCall returningCall() {
+		MethodCall mc = getCurrentMethodCall(getCallstack());
+		if (mc == null) {
+			throw new CallTreeMarkingException(
+					"Invalid use of calls for building a call tree (maybe the current method call was not marked by markCall).");
+		}
+
+		return mc;
+	}
+
 	/**
 	 * Records a new call of a monitored method.
 	 */
 	public void markCall(Object[] args) {
-		// take snapshot of the current callstack and remove all "artefacts",
-		// the top of callstack has the highest index
-		StackTraceElement[] currentCallStack = getCallstack();
+		long requestTime = lockRequestTime();
+		synchronized (changeLock) {
+			beginRecording(requestTime);
+			try {
+				recordCall().setArguments(args);
+			} finally {
+				endRecording(RecordingStats.MARK_CALL);
+			}
+		}
+	}
 
+	/**
+	 * Records a new call of a monitored method with an int argument.
+	 */
+	public void markCallInt(int arg) {
+		long requestTime = lockRequestTime();
 		synchronized (changeLock) {
-			if (matchPreviousCallStack(currentCallStack)) {
-				// find the first difference
-				int branchIdx = branchIndex(currentCallStack);
-				if (branchIdx < callTreeRootIndex) {
-					throw new CallTreeMarkingException("Invalid use of calls for building a call tree.");
-				}
+			beginRecording(requestTime);
+			try {
+				recordCall().setArguments(arg);
+			} finally {
+				endRecording(RecordingStats.MARK_CALL);
+			}
+		}
+	}
 
-				// build tree elements for the new branch of method calls
-				MethodCall[] newBranch = buildSubtreeForBranch(branchIdx, currentCallStack);
-				if (newBranch.length == 0) {
-					throw new CallTreeMarkingException(
-							"Invalid use of calls for building a call tree (probably, markCall is not the first statement of method "
-									+ currentCallStack[branchIdx].getMethodName() + ")");
-				}
+	/**
+	 * Records a new call of a monitored method with two int arguments.
+	 */
+	public void markCallInt(int arg1, int arg2) {
+		long requestTime = lockRequestTime();
+		synchronized (changeLock) {
+			beginRecording(requestTime);
+			try {
+				recordCall().setArguments(arg1, arg2);
+			} finally {
+				endRecording(RecordingStats.MARK_CALL);
+			}
+		}
+	}
 
-				// update callstack records
-				methodCallsOnStack.subList(branchIdx + 1, methodCallsOnStack.size()).clear();
-				for (MethodCall mc : newBranch) {
-					methodCallsOnStack.add(mc);
-				}
-				callstack = currentCallStack;
-				activeMethod = methodCallsOnStack.get(methodCallsOnStack.size() - 1);
-			} else {
-				// start to build a new call tree
-				StackTraceElement current = currentCallStack[currentCallStack.length - 1];
-				StackTraceElement previous = (currentCallStack.length >= 2)
-						? currentCallStack[currentCallStack.length - 2] : null;
-
-				MethodCall mc = new MethodCall(current, previous, true, null, history.size());
-				roots.add(mc);
-				history.add(mc);
-
-				// update callstack records
-				callstack = currentCallStack;
-				methodCallsOnStack.clear();
-				for (int i = 0; i < currentCallStack.length - 1; i++)
-					methodCallsOnStack.add(null);
+	/**
+	 * Records a new call of a monitored method with three int arguments.
+	 */
+	public void markCallInt(int arg1, int arg2, int arg3) {
+		long requestTime = lockRequestTime();
+		synchronized (changeLock) {
+			beginRecording(requestTime);
+			try {
+				recordCall().setArguments(arg1, arg2, arg3);
+			} finally {
+				endRecording(RecordingStats.MARK_CALL);
+			}
+		}
+	}
+
+	/**
+	 * Records a new call of a monitored method with a long argument.
+	 */
+	public void markCallLong(long arg) {
+		long requestTime = lockRequestTime();
+		synchronized (changeLock) {
+			beginRecording(requestTime);
+			try {
+				recordCall().setArguments(arg);
+			} finally {
+				endRecording(RecordingStats.MARK_CALL);
+			}
+		}
+	}
+
+	/**
+	 * Records a new call of a monitored method according to the current call
+	 * stack and returns the method call. The caller must hold the change
+	 * lock.
+	 */
+	private MethodCall recordCall() {
+		// take snapshot of the current callstack and remove all
+		// "artefacts", the top of callstack has the highest index
+		StackTraceElement[] currentCallStack = getCallstack();
+
+		if (matchPreviousCallStack(currentCallStack)) {
+			// find the first difference
+			int branchIdx = branchIndex(currentCallStack);
+			if (branchIdx < callTreeRootIndex) {
+				throw new CallTreeMarkingException("Invalid use of calls for building a call tree.");
+			}
+
+			// build tree elements for the new branch of method calls
+			MethodCall[] newBranch = buildSubtreeForBranch(branchIdx, currentCallStack);
+			if (newBranch.length == 0) {
+				throw new CallTreeMarkingException(
+						"Invalid use of calls for building a call tree (probably, markCall is not the first statement of method "
+								+ currentCallStack[branchIdx].getMethodName() + ")");
+			}
+
+			// update callstack records
+			methodCallsOnStack.subList(branchIdx + 1, methodCallsOnStack.size()).clear();
+			for (MethodCall mc : newBranch) {
 				methodCallsOnStack.add(mc);
-				callTreeRootIndex = currentCallStack.length - 1;
+			}
+			callstack = currentCallStack;
+			activeMethod = methodCallsOnStack.get(methodCallsOnStack.size() - 1);
+		} else {
+			// start to build a new call tree
+			StackTraceElement current = currentCallStack[currentCallStack.length - 1];
+			StackTraceElement previous = (currentCallStack.length >= 2)
+					? currentCallStack[currentCallStack.length - 2] : null;
+
+			MethodCall mc = createCall(current, previous, true, null);
+
+			// update callstack records
+			callstack = currentCallStack;
+			methodCallsOnStack.clear();
+			for (int i = 0; i < currentCallStack.length - 1; i++)
+				methodCallsOnStack.add(null);
+			methodCallsOnStack.add(mc);
+			callTreeRootIndex = currentCallStack.length - 1;
+			activeMethod = mc;
+		}
+
+		return methodCallsOnStack.get(methodCallsOnStack.size() - 1);
+	}
+
+	/**
+	 * Records a new call of a method whose execution is completed by
+	 * {@link #exit(MethodCall)}. The parent of the method call is the last
+	 * entered method call that was not completed yet.
+	 * 
+	 * @param methodName
+	 *            name of the called method
+	 * @param args
+	 *            arguments of the method call
+	 * @return the recorded method call
+	 */
+	public MethodCall enter(String methodName, Object[] args) {
+		long requestTime = lockRequestTime();
+		synchronized (changeLock) {
+			beginRecording(requestTime);
+			try {
+				MethodCall parent = shadowStack.isEmpty() ? null : shadowStack.get(shadowStack.size() - 1);
+
+				MethodCall mc = history.createCall(MethodRegistry.register(null, methodName, null), -1, true, parent);
+				if (timing)
+					mc.storeStartTime(timestamp());
+
+				if (allocationMeter != null)
+					mc.storeStartAllocation(allocatedBytes);
+
+				shadowStack.add(mc);
+				mc.setArguments(args);
 				activeMethod = mc;
+				return mc;
+			} finally {
+				endRecording(RecordingStats.MARK_CALL);
 			}
+		}
+	}
+
+	/**
+	 * Records that a method call started by {@link #enter(String, Object[])}
+	 * is completed.
+	 * 
+	 * @param methodCall
+	 *            the completed method call
+	 */
+	public void exit(MethodCall methodCall) {
+		completeExit(methodCall, NO_RETURN, 0, null);
+	}
 
-			// set init arguments
-			methodCallsOnStack.get(methodCallsOnStack.size() - 1).setArguments(args);
+	/**
+	 * Records the return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 * 
+	 * @param methodCall
+	 *            the completed method call
+	 * @param value
+	 *            the return value to be recorded.
+	 */
+	public void exit(MethodCall methodCall, Object value) {
+		completeExit(methodCall, MethodCall.OBJECT_RETURN, 0, value);
+	}
+
+	/**
+	 * Records the int return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 */
+	public void exit(MethodCall methodCall, int value) {
+		completeExit(methodCall, MethodCall.INT_RETURN, value, null);
+	}
+
+	/**
+	 * Records the byte return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 */
+	public void exit(MethodCall methodCall, byte value) {
+		completeExit(methodCall, MethodCall.BYTE_RETURN, value, null);
+	}
+
+	/**
+	 * Records the short return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 */
+	public void exit(MethodCall methodCall, short value) {
+		completeExit(methodCall, MethodCall.SHORT_RETURN, value, null);
+	}
+
+	/**
+	 * Records the long return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 */
+	public void exit(MethodCall methodCall, long value) {
+		completeExit(methodCall, MethodCall.LONG_RETURN, value, null);
+	}
+
+	/**
+	 * Records the char return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 */
+	public void exit(MethodCall methodCall, char value) {
+		completeExit(methodCall, MethodCall.CHAR_RETURN, value, null);
+	}
+
+	/**
+	 * Records the boolean return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 */
+	public void exit(MethodCall methodCall, boolean value) {
+		completeExit(methodCall, MethodCall.BOOLEAN_RETURN, value ? 1 : 0, null);
+	}
+
+	/**
+	 * Records the double return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 */
+	public void exit(MethodCall methodCall, double value) {
+		completeExit(methodCall, MethodCall.DOUBLE_RETURN, Double.doubleToRawLongBits(value), null);
+	}
+
+	/**
+	 * Records the float return value of a method call started by
+	 * {@link #enter(String, Object[])} and records that the method call is
+	 * completed.
+	 */
+	public void exit(MethodCall methodCall, float value) {
+		completeExit(methodCall, MethodCall.FLOAT_RETURN, Float.floatToRawIntBits(value), null);
+	}
+
+	/**
+	 * Records the return value of a method call started by
+	 * {@link #enter(String, Object[])} and completes the method call.
+	 * 
+	 * @param methodCall
+	 *            the completed method call
+	 * @param type
+	 *            type of the return value or {@link #NO_RETURN}
+	 * @param bits
+	 *            bits of a primitive return value
+	 * @param value
+	 *            an object return value
+	 */
+	void completeExit(MethodCall methodCall, byte type, long bits, Object value) {
+		long requestTime = lockRequestTime();
+		synchronized (changeLock) {
+			beginRecording(requestTime);
+			try {
+				popShadowStack(methodCall);
+				if (type != NO_RETURN)
+					methodCall.storeReturn(type, bits, value);
+
+				activeMethod = completeCall(methodCall).getParent();
+			} finally {
+				endRecording(RecordingStats.MARK_RETURN);
+			}
+		}
+	}
+
+	/**
+	 * Returns changes of this call tree builder since the state that was
+	 * retrieved by the previous call of this method. Changes are designed for
+	 * a single consumer.
+	 * 
+	 * @param knownHistorySize
+	 *            the number of history entries that are known to the consumer
+	 */
+	public CallTreeChanges getChanges(int knownHistorySize) {
+		synchronized (changeLock) {
+			int firstIndex = Math.min(knownHistorySize, stableHistorySize);
+			stableHistorySize = history.size();
+			return new CallTreeChanges(firstIndex, history.getCalls(firstIndex), activeMethod);
+		}
+	}
+
+	/**
+	 * Returns the number of method calls in the history.
+	 */
+	public int getHistorySize() {
+		synchronized (changeLock) {
+			return history.size();
 		}
 	}
 
 	/**
-	 * Returns current state of this call tree builder.
+	 * Returns the estimated number of bytes retained by recorded method
+	 * calls.
 	 */
-	public CallTreeState getState() {
+	public long estimateRetainedBytes() {
 		synchronized (changeLock) {
-			return new CallTreeState(new ArrayList<MethodCall>(history), activeMethod);
+			return history.estimateRetainedBytes();
 		}
 	}
 
+	/**
+	 * Completes a method call that returned. The end time and allocated bytes
+	 * of the method call are stored, if they are measured. If the history
+	 * replaces the method call by a method call sharing an identical subtree,
+	 * records of the call stack are updated. The caller must hold the change
+	 * lock.
+	 * 
+	 * @return the completed method call or the method call that replaced it.
+	 */
+	private MethodCall completeCall(MethodCall methodCall) {
+		if (timing)
+			methodCall.storeEndTime(timestamp());
+
+		if (allocationMeter != null)
+			methodCall.storeEndAllocation(allocatedBytes);
+
+		MethodCall completed = history.completeCall(methodCall);
+		if (completed != methodCall) {
+			stableHistorySize = Math.min(stableHistorySize, completed.getIndex());
+			int idx = methodCallsOnStack.lastIndexOf(methodCall);
+			if (idx >= 0)
+				methodCallsOnStack.set(idx, completed);
+		}
+
+		return completed;
+	}
+
+	/**
+	 * Removes a method call and all method calls entered after it from the
+	 * shadow stack.
+	 */
+	private void popShadowStack(MethodCall methodCall) {
+		int idx = shadowStack.size() - 1;
+		while ((idx >= 0) && (shadowStack.get(idx) != methodCall))
+			idx--;
+
+		if (idx < 0) {
+			throw new CallTreeMarkingException(
+					"Invalid use of calls for building a call tree (the method call was not entered or it was already completed).");
+		}
+
+		shadowStack.subList(idx, shadowStack.size()).clear();
+	}
+
 	/**
 	 * Returns the current method call according to content of the callstack.
 	 */
 	private MethodCall getCurrentMethodCall(StackTraceElement[] currentCallStack) {
 		// check whether current callstack matches prefix of last recorded
 		// callstack
-		if (currentCallStack.length > callstack.length) {
+		if ((callstack == null) || (currentCallStack.length > callstack.length)) {
 			throw new CallTreeMarkingException(
 					"Invalid use of calls for building a call tree (the current method call was not marked by markCall).");
 		}
@@ -294,12 +889,9 @@ class CallTreeBuilder {
 
 		MethodCall parent = methodCallsOnStack.get(branchIndex);
 		for (int i = branchIndex + 1; i < currentCallStack.length; i++) {
-			MethodCall mc = new MethodCall(currentCallStack[i], currentCallStack[i - 1],
-					i == currentCallStack.length - 1, parent, history.size());
-
-			parent.addCall(mc);
+			MethodCall mc = createCall(currentCallStack[i], currentCallStack[i - 1], i == currentCallStack.length - 1,
+					parent);
 			parent = mc;
-			history.add(mc);
 			result[i - (branchIndex + 1)] = mc;
 		}
 
@@ -307,18 +899,121 @@ class CallTreeBuilder {
 	}
 
 	/**
-	 * Builds a callstack.
+	 * Appends a new method call of the method given by a stack trace element
+	 * to the history.
 	 */
-	private static StackTraceElement[] getCallstack() {
-		StackTraceElement[] stacktrace = Thread.currentThread().getStackTrace();
-		int artefactsCount = 4;
-		StackTraceElement[] result = new StackTraceElement[stacktrace.length - artefactsCount];
+	private MethodCall createCall(StackTraceElement ste, StackTraceElement callingSte, boolean marked,
+			MethodCall parent) {
+		int methodId = MethodRegistry.register(ste.getClassName(), ste.getMethodName(), ste.getFileName());
+		MethodCall mc = history.createCall(methodId, (callingSte != null) ? callingSte.getLineNumber() : -1, marked,
+				parent);
+		if (timing)
+			mc.storeStartTime(timestamp());
 
-		int readIdx = stacktrace.length - 1;
-		for (int i = 0; i < result.length; i++) {
-			result[i] = stacktrace[readIdx];
-			readIdx--;
+		if (allocationMeter != null)
+			mc.storeStartAllocation(allocatedBytes);
+
+		return mc;
+	}
+
+	/**
+	 * Marks start of an event recorded by the recording thread. Allocations
+	 * until the matching {@link #endEvent()}, including allocations outside
+	 * of this builder (e.g., requests for updates of the visualization), are
+	 * excluded from allocations of method calls.
+	 */
+	void beginEvent() {
+		if (allocationMeter != null) {
+			allocatedBytes = allocationMeter.beginRecording();
+			eventStarted = true;
+		}
+	}
+
+	/**
+	 * Marks end of an event started by {@link #beginEvent()}.
+	 */
+	void endEvent() {
+		if (eventStarted) {
+			allocationMeter.endRecording();
+			eventStarted = false;
+		}
+	}
+
+	/**
+	 * Returns the current time in nanoseconds for timing of method calls.
+	 * Times of all waits for confirmation are excluded, so that they are not
+	 * included in times of method calls.
+	 */
+	private long timestamp() {
+		return System.nanoTime() - confirmationWaitTime;
+	}
+
+	/**
+	 * Records that the recording thread waited for confirmation to continue.
+	 * The wait is excluded from times of method calls.
+	 * 
+	 * @param time
+	 *            duration of the wait in nanoseconds
+	 */
+	void recordConfirmationWait(long time) {
+		confirmationWaitTime += time;
+	}
+
+	/**
+	 * Returns the time when the lock is requested for recording of an event
+	 * or 0, if statistics are not collected.
+	 */
+	private long lockRequestTime() {
+		return (stats != null) ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Marks start of recording of an event after the lock was acquired.
+	 * Allocations realized by recording are excluded from allocations of
+	 * method calls.
+	 * 
+	 * @param requestTime
+	 *            the time when the lock was requested
+	 */
+	private void beginRecording(long requestTime) {
+		if (stats != null) {
+			recordingStartTime = System.nanoTime();
+			stats.recordLockWait(recordingStartTime - requestTime);
+		}
+
+		if ((allocationMeter != null) && !eventStarted)
+			allocatedBytes = allocationMeter.beginRecording();
+	}
+
+	/**
+	 * Marks end of recording of an event. It must be called in a finally
+	 * block, so that the allocation meter is stopped even if the event was
+	 * not recorded.
+	 * 
+	 * @param eventType
+	 *            type of the event in recording statistics
+	 */
+	private void endRecording(int eventType) {
+		if ((allocationMeter != null) && !eventStarted)
+			allocationMeter.endRecording();
+
+		if (stats != null) {
+			long time = System.nanoTime();
+			stats.recordEvent(eventType, time - recordingStartTime, time);
 		}
+	}
+
+	/**
+	 * Builds a callstack. Elements of the last captured callstack are reused
+	 * for frames that did not change.
+	 */
+	private StackTraceElement[] getCallstack() {
+		if (stats == null)
+			return stackCapture.capture();
+
+		long start = System.nanoTime();
+		StackTraceElement[] result = stackCapture.capture();
+		stats.recordCallstack(System.nanoTime() - start);
 		return result;
 	}
 
@@ -23,7 +23,7 @@ import java.awt.BorderLayout;
 import javax.swing.JCheckBox;
 import javax.swing.event.ChangeListener;
 
-import sk.upjs.calltree.CallTreeBuilder.CallTreeState;
+import sk.upjs.calltree.CallTreeBuilder.CallTreeChanges;
 
 import javax.swing.event.ChangeEvent;
 import java.awt.Toolkit;
@@ -35,10 +35,43 @@ import java.awt.Toolkit;
 class CallTreeFrame extends JFrame {
 
 	/**
-	 * List of all tree nodes in order in which they appear in the call tree
-	 * builder history.
+	 * Maximal number of tree nodes created at once for method calls of an
+	 * opened recording.
 	 */
-	private final List<TreeNode> nodes;
+	private static final int MAX_EXPANDED_NODES = 10000;
+
+	/**
+	 * Tree nodes of call trees recorded by a call tree builder.
+	 */
+	private static class RecordedCallTrees {
+		/**
+		 * List of all tree nodes in order in which they appear in the call
+		 * tree builder history.
+		 */
+		final List<TreeNode> nodes = new ArrayList<TreeNode>();
+
+		/**
+		 * List of all tree nodes that are roots of call trees.
+		 */
+		final List<TreeNode> roots = new ArrayList<TreeNode>();
+
+		/**
+		 * Tree nodes on the call stack ordered from the root.
+		 */
+		final List<TreeNode> callstack = new ArrayList<TreeNode>();
+
+		/**
+		 * Indicates that the call trees are stored in an opened recording.
+		 * Only roots are created in advance and tree nodes of their
+		 * descendants are created when they are displayed.
+		 */
+		boolean opened;
+	}
+
+	/**
+	 * Recorded call trees of all known call tree builders.
+	 */
+	private final Map<CallTreeBuilder, RecordedCallTrees> callTrees;
 
 	/**
 	 * List of all tree nodes that are roots of call trees.
@@ -46,9 +79,16 @@ class CallTreeFrame extends JFrame {
 	private final List<TreeNode> roots;
 
 	/**
-	 * List of all marked methods that appeared in the history.
+	 * Type indices of marked methods that appeared in the history indexed by
+	 * method identifiers. Zero denotes a method without type index, otherwise
+	 * the type index is increased by one.
+	 */
+	private int[] methodTypes;
+
+	/**
+	 * Number of assigned method type indices.
 	 */
-	private final List<String> methodTypes;
+	private int methodTypeCount;
 
 	/**
 	 * Queue of wait semaphores.
@@ -83,78 +123,80 @@ class CallTreeFrame extends JFrame {
 		callTreePanel.setPanels(callTreePreview, detailPanel);
 		callTreePreview.setSource(callTreePanel);
 		callTreePreview.setScroller(callTreeScrollPane);
+		callTreePanel.setNodeExpander(new CallTreePanel.NodeExpander() {
+			public void expand(TreeNode node) {
+				expandNode(node);
+			}
+		});
 
-		nodes = new ArrayList<TreeNode>();
+		callTrees = new HashMap<CallTreeBuilder, RecordedCallTrees>();
 		roots = new ArrayList<TreeNode>();
-		methodTypes = new ArrayList<String>();
+		methodTypes = new int[64];
 		semaphores = new LinkedList<Semaphore>();
 	}
 
 	/**
-	 * Updates visualization according to current state of a call tree builder.
+	 * Updates visualization according to changes of call tree builders since
+	 * the previous update.
 	 */
-	public void updateState(final CallTreeState state) {
-		// check whether received update corresponds to the previous update
-		if (state.history.size() < nodes.size()) {
-			deleteCallTrees();
-		}
-
-		boolean matchPreviousHistory = true;
-		for (int i = 0; i < nodes.size(); i++)
-			if (nodes.get(i).getMethodCall() != state.history.get(i)) {
-				matchPreviousHistory = false;
-				break;
-			}
-
-		if (!matchPreviousHistory) {
-			deleteCallTrees();
-		}
-
-		// create new tree nodes if necessary
+	public void updateState(final List<CallTreeBuilder> builders) {
 		TreeNode displayedRoot = callTreePanel.getRoot();
 		boolean refreshDisplayRoot = false;
-		boolean newRoots = false;
-		for (int i = nodes.size(); i < state.history.size(); i++) {
-			MethodCall mc = state.history.get(i);
-
-			// compute method type index for marked method calls
-			int methodTypeIndex = -1;
-			if (mc.isMarked()) {
-				String id = mc.getClassName() + "." + mc.getMethodName();
-				methodTypeIndex = methodTypes.indexOf(id);
-				if (methodTypeIndex == -1) {
-					methodTypeIndex = methodTypes.size();
-					methodTypes.add(id);
+		boolean rootsChanged = false;
+
+		for (CallTreeBuilder builder : builders) {
+			RecordedCallTrees trees = callTrees.get(builder);
+			if (trees == null) {
+				trees = new RecordedCallTrees();
+				callTrees.put(builder, trees);
+				if (builder.isOpenedRecording()) {
+					addOpenedRoots(builder, trees);
+					rootsChanged = true;
 				}
 			}
 
-			TreeNode tn = new TreeNode(mc, methodTypeIndex);
-			nodes.add(tn);
-			if (mc.isRoot()) {
-				roots.add(tn);
-				newRoots = true;
-			} else {
-				if (displayedRoot == roots.get(roots.size() - 1))
-					refreshDisplayRoot = true;
+			// opened recordings never change
+			if (trees.opened)
+				continue;
+
+			List<TreeNode> nodes = trees.nodes;
+			CallTreeChanges changes = builder.getChanges(nodes.size());
 
-				nodes.get(mc.getParent().getIndex()).addChild(tn);
+			// remove tree nodes of method calls that are not valid anymore
+			if (changes.firstIndex < nodes.size()) {
+				rootsChanged |= truncateCallTrees(trees, changes.firstIndex);
+				refreshDisplayRoot = true;
 			}
-		}
 
-		// set callstack flag for method calls that are on callstack
-		for (TreeNode node : nodes)
-			node.setOnCallstack(false);
+			// create new tree nodes
+			for (MethodCall mc : changes.calls) {
+				TreeNode tn = new TreeNode(mc, mc.isMarked() ? getMethodTypeIndex(mc.getMethodId()) : -1);
+				nodes.add(tn);
+				if (mc.isRoot()) {
+					tn.setThreadName(builder.getThreadName());
+					trees.roots.add(tn);
+					roots.add(tn);
+					rootsChanged = true;
+				} else {
+					if (displayedRoot == trees.roots.get(trees.roots.size() - 1))
+						refreshDisplayRoot = true;
+
+					nodes.get(mc.getParent().getIndex()).addChild(tn);
+				}
 
-		MethodCall nodePointer = state.activeCall;
-		while (nodePointer != null) {
-			nodes.get(nodePointer.getIndex()).setOnCallstack(true);
-			nodePointer = nodePointer.getParent();
+				if (mc.getSharedCall() != null)
+					addSharedSubtree(tn);
+			}
+
+			updateCallstack(trees, changes.activeCall);
 		}
 
-		// if there are new roots, update list of available call trees
-		if (newRoots) {
+		// if roots changed, update list of available call trees
+		if (rootsChanged) {
 			callTreeRootCombo.setModel(new DefaultComboBoxModel<TreeNode>(roots.toArray(new TreeNode[0])));
 			callTreeRootComboChanged();
+			if (roots.isEmpty())
+				callTreePanel.setRoot(null);
 		}
 
 		// refresh visual content
@@ -165,6 +207,121 @@ class CallTreeFrame extends JFrame {
 		detailPanel.refreshInfo();
 	}
 
+	/**
+	 * Creates collapsed tree nodes for roots of call trees stored in an
+	 * opened recording.
+	 */
+	private void addOpenedRoots(CallTreeBuilder builder, RecordedCallTrees trees) {
+		trees.opened = true;
+		for (MethodCall mc : builder.getRootCalls()) {
+			TreeNode tn = new TreeNode(mc, mc.isMarked() ? getMethodTypeIndex(mc.getMethodId()) : -1);
+			tn.setThreadName(builder.getThreadName());
+			tn.setCollapsed(mc.hasMethodCalls());
+			trees.roots.add(tn);
+			roots.add(tn);
+		}
+	}
+
+	/**
+	 * Creates tree nodes for descendants of a collapsed tree node. Nodes are
+	 * created level by level until the limit of created nodes is reached.
+	 * Nodes whose children were not all created stay collapsed.
+	 */
+	private void expandNode(TreeNode node) {
+		List<TreeNode> queue = new ArrayList<TreeNode>();
+		queue.add(node);
+		int created = 0;
+		for (int i = 0; (i < queue.size()) && (created < MAX_EXPANDED_NODES); i++) {
+			TreeNode parent = queue.get(i);
+			if (!parent.isCollapsed())
+				continue;
+
+			List<MethodCall> children = parent.getMethodCall().getMethodCalls();
+			int count = Math.min(children.size() - parent.childCount(), MAX_EXPANDED_NODES - created);
+			for (int j = 0; j < count; j++) {
+				MethodCall mc = children.get(parent.childCount());
+				TreeNode tn = new TreeNode(mc, mc.isMarked() ? getMethodTypeIndex(mc.getMethodId()) : -1);
+				tn.setCollapsed(mc.hasMethodCalls());
+				parent.addChild(tn);
+				queue.add(tn);
+			}
+
+			parent.setCollapsed(parent.childCount() < children.size());
+			created += count;
+		}
+	}
+
+	/**
+	 * Creates tree nodes for descendants of a method call that shares the
+	 * subtree of an earlier method call. Shared subtrees are displayed as
+	 * separate copies. Nodes are created level by level, hence each node is
+	 * appended to the right end of its row in the spatial index of the tree.
+	 */
+	private void addSharedSubtree(TreeNode node) {
+		List<TreeNode> queue = new ArrayList<TreeNode>();
+		queue.add(node);
+		for (int i = 0; i < queue.size(); i++) {
+			TreeNode parent = queue.get(i);
+			for (MethodCall mc : parent.getMethodCall().getMethodCalls()) {
+				TreeNode tn = new TreeNode(mc, mc.isMarked() ? getMethodTypeIndex(mc.getMethodId()) : -1);
+				parent.addChild(tn);
+				queue.add(tn);
+			}
+		}
+	}
+
+	/**
+	 * Returns type index of a method given by its identifier. A new type
+	 * index is assigned to methods that appear for the first time.
+	 */
+	private int getMethodTypeIndex(int methodId) {
+		if (methodId >= methodTypes.length)
+			methodTypes = Arrays.copyOf(methodTypes, Math.max(2 * methodTypes.length, methodId + 1));
+
+		if (methodTypes[methodId] == 0) {
+			methodTypeCount++;
+			methodTypes[methodId] = methodTypeCount;
+		}
+
+		return methodTypes[methodId] - 1;
+	}
+
+	/**
+	 * Updates callstack flags of tree nodes. Only flags of tree nodes in the
+	 * changed segment of the call stack are updated.
+	 */
+	private void updateCallstack(RecordedCallTrees trees, MethodCall activeCall) {
+		List<TreeNode> callstack = trees.callstack;
+
+		// collect tree nodes of new segment of the call stack
+		List<TreeNode> newSegment = new ArrayList<TreeNode>();
+		TreeNode junction = null;
+		MethodCall nodePointer = activeCall;
+		while (nodePointer != null) {
+			TreeNode node = trees.nodes.get(nodePointer.getIndex());
+			if (node.isOnCallstack()) {
+				junction = node;
+				break;
+			}
+
+			newSegment.add(node);
+			nodePointer = nodePointer.getParent();
+		}
+
+		// remove old segment of the call stack above the junction
+		int keptLength = (junction == null) ? 0 : junction.getDepth() + 1;
+		for (int i = keptLength; i < callstack.size(); i++)
+			callstack.get(i).setOnCallstack(false);
+		callstack.subList(keptLength, callstack.size()).clear();
+
+		// add new segment
+		for (int i = newSegment.size() - 1; i >= 0; i--) {
+			TreeNode node = newSegment.get(i);
+			node.setOnCallstack(true);
+			callstack.add(node);
+		}
+	}
+
 	public void addConfirmationRequest(Semaphore semaphore) {
 		semaphores.add(semaphore);
 		continueButton.setEnabled(!semaphores.isEmpty());
@@ -179,12 +336,29 @@ class CallTreeFrame extends JFrame {
 	}
 
 	/**
-	 * Removes all call trees
+	 * Removes tree nodes of call trees recorded by a call tree builder
+	 * starting from given index in the history. Removed tree nodes form a
+	 * suffix of the history, hence each removed node is the last child of its
+	 * parent.
+	 * 
+	 * @return true, if a root was removed, false otherwise.
 	 */
-	private void deleteCallTrees() {
-		nodes.clear();
-		roots.clear();
-		methodTypes.clear();
+	private boolean truncateCallTrees(RecordedCallTrees trees, int firstIndex) {
+		boolean rootRemoved = false;
+		List<TreeNode> nodes = trees.nodes;
+		for (int i = nodes.size() - 1; i >= firstIndex; i--) {
+			TreeNode tn = nodes.remove(i);
+			tn.setOnCallstack(false);
+			if (tn.getParent() == null) {
+				trees.roots.remove(trees.roots.size() - 1);
+				roots.remove(tn);
+				rootRemoved = true;
+			} else {
+				tn.getParent().removeLastChild();
+			}
+		}
+
+		return rootRemoved;
 	}
 
 	private void initComponents() {
@@ -296,7 +470,11 @@ class CallTreeFrame extends JFrame {
 	private void callTreeRootComboChanged() {
 		int idx = callTreeRootCombo.getSelectedIndex();
 		if ((idx >= 0) && (idx < roots.size())) {
-			callTreePanel.setRoot(roots.get(callTreeRootCombo.getSelectedIndex()));
+			TreeNode root = roots.get(idx);
+			if (root.isCollapsed())
+				expandNode(root);
+
+			callTreePanel.setRoot(root);
 		}
 	}
 
@@ -24,6 +24,17 @@ class CallTreePanel extends JPanel {
 	 */
 	private final Config config;
 
+	/**
+	 * Theme for painting call trees or null, if no call tree was laid out.
+	 */
+	private RenderTheme theme;
+
+	/**
+	 * Font metrics in which the displayed tree was measured and the theme was
+	 * built.
+	 */
+	private FontMetrics layoutMetrics;
+
 	/**
 	 * Root of the displayed tree.
 	 */
@@ -44,6 +55,22 @@ class CallTreePanel extends JPanel {
 	 */
 	private MethodCallDetailPanel detailPanel;
 
+	/**
+	 * Expander of collapsed tree nodes or null.
+	 */
+	private NodeExpander nodeExpander;
+
+	/**
+	 * Creates tree nodes for children of collapsed tree nodes.
+	 */
+	interface NodeExpander {
+
+		/**
+		 * Creates tree nodes for descendants of a collapsed tree node.
+		 */
+		void expand(TreeNode node);
+	}
+
 	/**
 	 * Create the panel.
 	 */
@@ -56,6 +83,11 @@ class CallTreePanel extends JPanel {
 			@Override
 			public void mousePressed(MouseEvent e) {
 				TreeNode node = getNodeAt(e.getX(), e.getY());
+				if ((node != null) && node.isCollapsed() && (nodeExpander != null)) {
+					nodeExpander.expand(node);
+					relayoutTree();
+				}
+
 				if ((node != null) && (node.getMethodCall().isMarked())) {
 					if (selectedNode != null) {
 						selectedNode.setSelected(false);
@@ -96,6 +128,14 @@ class CallTreePanel extends JPanel {
 		this.detailPanel = detailPanel;
 	}
 
+	/**
+	 * Sets expander that creates tree nodes of a collapsed tree node when it
+	 * is clicked.
+	 */
+	public void setNodeExpander(NodeExpander nodeExpander) {
+		this.nodeExpander = nodeExpander;
+	}
+
 	/**
 	 * Returns configuration settings used by this panel for visualizing a call
 	 * tree.
@@ -104,6 +144,14 @@ class CallTreePanel extends JPanel {
 		return config;
 	}
 
+	/**
+	 * Returns theme used by this panel for painting a call tree or null, if
+	 * no call tree was laid out.
+	 */
+	public RenderTheme getTheme() {
+		return theme;
+	}
+
 	/**
 	 * Sets root of visualized call tree.
 	 */
@@ -148,6 +196,13 @@ class CallTreePanel extends JPanel {
 
 		this.setFont(config.getFont());
 		FontMetrics fm = this.getGraphics().getFontMetrics();
+		if ((theme == null) || !fm.equals(layoutMetrics)) {
+			// row paints built for another font are not valid, trees
+			// measured in another font are invalidated by their measure pass
+			theme = new RenderTheme(config, fm, config.getGlobalPadding());
+			layoutMetrics = fm;
+		}
+
 		root.measure(fm, config);
 		root.layout(config.getGlobalPadding(), config.getGlobalPadding(), fm, config);
 		setPreferredSize(new Dimension(root.getWidth() + 2 * config.getGlobalPadding(),
@@ -175,10 +230,10 @@ class CallTreePanel extends JPanel {
 		g2.setPaint(Color.white);
 		g2.fill(clip);
 
-		if (root != null) {
+		if ((root != null) && (theme != null)) {
 			g2.setFont(config.getFont());
 			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-			root.paint(g2, config);
+			root.paint(g2, theme);
 		}
 	}
 
@@ -186,17 +241,9 @@ class CallTreePanel extends JPanel {
 	 * Returns tree node whose box is located at given coordinates.
 	 */
 	private TreeNode getNodeAt(int x, int y) {
-		TreeNode traversal = root;
-		while (traversal != null) {
-			if (!traversal.containsPointInTree(x, y))
-				return null;
-
-			if (traversal.containsPointInBox(x, y))
-				return traversal;
-
-			traversal = traversal.getChildContainingPoint(x, y);
-		}
+		if (root == null)
+			return null;
 
-		return null;
+		return root.findNodeAt(x, y);
 	}
 }
@@ -178,12 +178,13 @@ class CallTreePreviewPanel extends JPanel {
 
 		// call tree
 		TreeNode root = source.getRoot();
-		if (root != null) {
+		RenderTheme theme = source.getTheme();
+		if ((root != null) && (theme != null)) {
 			Graphics2D sg2 = (Graphics2D) g2.create();
 			sg2.translate(previewArea.x, previewArea.y);
 			sg2.scale(scale, scale);
 			try {
-				root.paintPreview(sg2, source.getConfig());
+				root.paintPreview(sg2, theme);
 			} finally {
 				sg2.dispose();
 			}
@@ -0,0 +1,613 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import sk.upjs.calltree.MethodCall.LogRecord;
+
+/**
+ * History that stores method calls in growable primitive columns, one row per
+ * method call. Method calls are represented by lightweight views over rows.
+ * Children of a method call form a linked list of rows given by the first
+ * child, the last child and the next sibling of each row. The number of
+ * children of each row is stored in a separate column.
+ */
+class ColumnarCallHistory extends CallHistory {
+
+	/**
+	 * Base-2 logarithm of the number of rows in a chunk of a column.
+	 */
+	private static final int CHUNK_BITS = 12;
+
+	/**
+	 * Number of rows in a chunk of a column.
+	 */
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	/**
+	 * Mask that extracts position of a row in its chunk.
+	 */
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * Flag of a marked method call.
+	 */
+	private static final int MARKED = 1;
+
+	/**
+	 * Flag of a method call with recorded return value.
+	 */
+	private static final int RETURN_STORED = 2;
+
+	/**
+	 * Position of the type of arguments in flags (2 bits).
+	 */
+	private static final int ARGUMENTS_TYPE_SHIFT = 2;
+
+	/**
+	 * Position of the number of primitive arguments in flags (2 bits).
+	 */
+	private static final int ARGUMENTS_COUNT_SHIFT = 4;
+
+	/**
+	 * Position of the type of return value in flags (4 bits).
+	 */
+	private static final int RETURN_TYPE_SHIFT = 8;
+
+	/**
+	 * Flag of a method call with recorded inclusive time.
+	 */
+	private static final int TIMED = 1 << 12;
+
+	/**
+	 * Flag of a method call with recorded inclusive allocation.
+	 */
+	private static final int ALLOCATION_MEASURED = 1 << 13;
+
+	/**
+	 * Columns with data of recorded method calls. Columns are replaced when
+	 * the history is cleared, so views of removed method calls never observe
+	 * rows of new method calls.
+	 * <p>
+	 * Columns consist of chunks of fixed size that are never moved, hence
+	 * stored values are never copied. Rows are changed only by the recording
+	 * thread. A new row is published by writing the volatile size and each
+	 * change of a row is published by writing its flags with volatile
+	 * semantics, hence other threads read rows without locking.
+	 */
+	static final class Columns extends CallRows {
+
+		/**
+		 * Number of published rows.
+		 */
+		private volatile int size;
+
+		/**
+		 * Row of the parent method call.
+		 */
+		private int[][] parents;
+
+		/**
+		 * Identifier of the called method in the method registry.
+		 */
+		private int[][] methodIds;
+
+		/**
+		 * Line number in the calling method.
+		 */
+		private int[][] lineNumbers;
+
+		/**
+		 * Row of the first child method call.
+		 */
+		private int[][] firstChildren;
+
+		/**
+		 * Row of the last child method call.
+		 */
+		private int[][] lastChildren;
+
+		/**
+		 * Row of the next method call invoked by the parent method call.
+		 */
+		private int[][] nextSiblings;
+
+		/**
+		 * Number of children. A changed number is published after the new
+		 * child row is published.
+		 */
+		private AtomicIntegerArray[] childCounts;
+
+		/**
+		 * Flags, type of arguments and type of return value.
+		 */
+		private AtomicIntegerArray[] flags;
+
+		/**
+		 * Primitive slots for arguments. Chunks are allocated when the first
+		 * primitive argument at their position is stored.
+		 */
+		private long[][] arguments1, arguments2, arguments3;
+
+		/**
+		 * Arguments that are not stored in primitive slots. Chunks are
+		 * allocated when the first such arguments are stored.
+		 */
+		private Object[][] objectArguments;
+
+		/**
+		 * Bits of primitive return values. Chunks are allocated when the
+		 * first primitive return value is stored.
+		 */
+		private long[][] returnBits;
+
+		/**
+		 * Object return values. Chunks are allocated when the first object
+		 * return value is stored.
+		 */
+		private Object[][] returnValues;
+
+		/**
+		 * Append-only arrays of log records. Chunks are allocated when the
+		 * first log is recorded. Elements below the number of published logs
+		 * are never changed, a full array is replaced by a copy with double
+		 * capacity.
+		 */
+		private Object[][] logs;
+
+		/**
+		 * Number of published log records of rows. Chunks are allocated
+		 * together with chunks of {@link #logs}.
+		 */
+		private AtomicIntegerArray[] logCounts;
+
+		/**
+		 * Start times that are replaced by inclusive times when method calls
+		 * return. Chunks are allocated when the first start time is stored.
+		 */
+		private long[][] times;
+
+		/**
+		 * Start allocations that are replaced by inclusive allocations when
+		 * method calls return. Chunks are allocated when the first start
+		 * allocation is stored.
+		 */
+		private long[][] allocations;
+
+		/**
+		 * Constructs empty columns.
+		 */
+		Columns() {
+			allocateDirectories(1);
+		}
+
+		/**
+		 * Allocates directories of chunks with given length and copies
+		 * current chunks to them.
+		 */
+		private void allocateDirectories(int length) {
+			parents = (parents == null) ? new int[length][] : Arrays.copyOf(parents, length);
+			methodIds = (methodIds == null) ? new int[length][] : Arrays.copyOf(methodIds, length);
+			lineNumbers = (lineNumbers == null) ? new int[length][] : Arrays.copyOf(lineNumbers, length);
+			firstChildren = (firstChildren == null) ? new int[length][] : Arrays.copyOf(firstChildren, length);
+			lastChildren = (lastChildren == null) ? new int[length][] : Arrays.copyOf(lastChildren, length);
+			nextSiblings = (nextSiblings == null) ? new int[length][] : Arrays.copyOf(nextSiblings, length);
+			childCounts = (childCounts == null) ? new AtomicIntegerArray[length] : Arrays.copyOf(childCounts, length);
+			flags = (flags == null) ? new AtomicIntegerArray[length] : Arrays.copyOf(flags, length);
+			arguments1 = (arguments1 == null) ? new long[length][] : Arrays.copyOf(arguments1, length);
+			arguments2 = (arguments2 == null) ? new long[length][] : Arrays.copyOf(arguments2, length);
+			arguments3 = (arguments3 == null) ? new long[length][] : Arrays.copyOf(arguments3, length);
+			objectArguments = (objectArguments == null) ? new Object[length][]
+					: Arrays.copyOf(objectArguments, length);
+			returnBits = (returnBits == null) ? new long[length][] : Arrays.copyOf(returnBits, length);
+			returnValues = (returnValues == null) ? new Object[length][] : Arrays.copyOf(returnValues, length);
+			logs = (logs == null) ? new Object[length][] : Arrays.copyOf(logs, length);
+			logCounts = (logCounts == null) ? new AtomicIntegerArray[length] : Arrays.copyOf(logCounts, length);
+			times = (times == null) ? new long[length][] : Arrays.copyOf(times, length);
+			allocations = (allocations == null) ? new long[length][] : Arrays.copyOf(allocations, length);
+		}
+
+		@Override
+		int addRow(int methodId, int lineNumber, boolean marked, int parent) {
+			int row = size;
+			int chunk = row >>> CHUNK_BITS;
+			int idx = row & CHUNK_MASK;
+			if (idx == 0) {
+				if (chunk == parents.length)
+					allocateDirectories(2 * chunk);
+
+				parents[chunk] = new int[CHUNK_SIZE];
+				methodIds[chunk] = new int[CHUNK_SIZE];
+				lineNumbers[chunk] = new int[CHUNK_SIZE];
+				firstChildren[chunk] = new int[CHUNK_SIZE];
+				lastChildren[chunk] = new int[CHUNK_SIZE];
+				nextSiblings[chunk] = new int[CHUNK_SIZE];
+				childCounts[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+				flags[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+			}
+
+			parents[chunk][idx] = parent;
+			methodIds[chunk][idx] = methodId;
+			lineNumbers[chunk][idx] = lineNumber;
+			firstChildren[chunk][idx] = NONE;
+			lastChildren[chunk][idx] = NONE;
+			nextSiblings[chunk][idx] = NONE;
+			flags[chunk].lazySet(idx, marked ? MARKED : 0);
+
+			if (parent != NONE) {
+				int lastChild = lastChildren[parent >>> CHUNK_BITS][parent & CHUNK_MASK];
+				if (lastChild == NONE)
+					firstChildren[parent >>> CHUNK_BITS][parent & CHUNK_MASK] = row;
+				else
+					nextSiblings[lastChild >>> CHUNK_BITS][lastChild & CHUNK_MASK] = row;
+
+				lastChildren[parent >>> CHUNK_BITS][parent & CHUNK_MASK] = row;
+			}
+
+			size = row + 1;
+
+			// the number of children is published after the child row
+			if (parent != NONE) {
+				AtomicIntegerArray parentCounts = childCounts[parent >>> CHUNK_BITS];
+				parentCounts.lazySet(parent & CHUNK_MASK, parentCounts.get(parent & CHUNK_MASK) + 1);
+			}
+
+			return row;
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the number of bytes of allocated chunks. References are
+		 * assumed to be compressed.
+		 */
+		long estimateBytes() {
+			int chunkCount = (size + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+			long result = 0;
+			for (int i = 0; i < chunkCount; i++) {
+				// parents, methods, line numbers, children, siblings, child
+				// counts, flags
+				result += 8L * 4 * CHUNK_SIZE;
+				result += 8L * CHUNK_SIZE * (countChunk(arguments1, i) + countChunk(arguments2, i)
+						+ countChunk(arguments3, i) + countChunk(returnBits, i) + countChunk(times, i)
+						+ countChunk(allocations, i));
+				result += 4L * CHUNK_SIZE
+						* (countChunk(objectArguments, i) + countChunk(returnValues, i) + 2 * countChunk(logs, i));
+			}
+
+			return result;
+		}
+
+		/**
+		 * Returns 1, if a chunk of a column is allocated, 0 otherwise.
+		 */
+		private int countChunk(Object[] column, int chunk) {
+			return (column[chunk] != null) ? 1 : 0;
+		}
+
+		/**
+		 * Returns flags of a row. The volatile read guarantees that all
+		 * published changes of the row are visible.
+		 */
+		private int getFlags(int row) {
+			return flags[row >>> CHUNK_BITS].get(row & CHUNK_MASK);
+		}
+
+		/**
+		 * Writes flags of a row and publishes all changes of the row.
+		 */
+		private void setFlags(int row, int value) {
+			flags[row >>> CHUNK_BITS].set(row & CHUNK_MASK, value);
+		}
+
+		@Override
+		int getParent(int row) {
+			return parents[row >>> CHUNK_BITS][row & CHUNK_MASK];
+		}
+
+		@Override
+		int getMethodId(int row) {
+			return methodIds[row >>> CHUNK_BITS][row & CHUNK_MASK];
+		}
+
+		@Override
+		int getLineNumber(int row) {
+			return lineNumbers[row >>> CHUNK_BITS][row & CHUNK_MASK];
+		}
+
+		@Override
+		boolean isMarked(int row) {
+			return (getFlags(row) & MARKED) != 0;
+		}
+
+		@Override
+		boolean hasChildren(int row) {
+			return getChildCount(row) != 0;
+		}
+
+		@Override
+		int getFirstChild(int row) {
+			// links to rows that are not published yet are ignored
+			int child = firstChildren[row >>> CHUNK_BITS][row & CHUNK_MASK];
+			return (child < size) ? child : NONE;
+		}
+
+		@Override
+		int getNextSibling(int row) {
+			int sibling = nextSiblings[row >>> CHUNK_BITS][row & CHUNK_MASK];
+			return (sibling < size) ? sibling : NONE;
+		}
+
+		@Override
+		int getChildCount(int row) {
+			return childCounts[row >>> CHUNK_BITS].get(row & CHUNK_MASK);
+		}
+
+		@Override
+		void setObjectArguments(int row, Object[] arguments) {
+			int chunk = row >>> CHUNK_BITS;
+			if ((objectArguments[chunk] == null) && (arguments != null))
+				objectArguments[chunk] = new Object[CHUNK_SIZE];
+
+			if (objectArguments[chunk] != null)
+				objectArguments[chunk][row & CHUNK_MASK] = (arguments != null) ? arguments.clone() : null;
+
+			setFlags(row, getFlags(row) & ~((3 << ARGUMENTS_TYPE_SHIFT) | (3 << ARGUMENTS_COUNT_SHIFT)));
+		}
+
+		@Override
+		void setPrimitiveArguments(int row, byte type, int count, long arg1, long arg2, long arg3) {
+			int chunk = row >>> CHUNK_BITS;
+			int idx = row & CHUNK_MASK;
+			if (objectArguments[chunk] != null)
+				objectArguments[chunk][idx] = null;
+
+			if (arguments1[chunk] == null)
+				arguments1[chunk] = new long[CHUNK_SIZE];
+			arguments1[chunk][idx] = arg1;
+
+			if (count >= 2) {
+				if (arguments2[chunk] == null)
+					arguments2[chunk] = new long[CHUNK_SIZE];
+				arguments2[chunk][idx] = arg2;
+			}
+
+			if (count >= 3) {
+				if (arguments3[chunk] == null)
+					arguments3[chunk] = new long[CHUNK_SIZE];
+				arguments3[chunk][idx] = arg3;
+			}
+
+			setFlags(row, (getFlags(row) & ~((3 << ARGUMENTS_TYPE_SHIFT) | (3 << ARGUMENTS_COUNT_SHIFT)))
+					| (type << ARGUMENTS_TYPE_SHIFT) | (count << ARGUMENTS_COUNT_SHIFT));
+		}
+
+		@Override
+		Object[] getArguments(int row) {
+			int flags = getFlags(row);
+			int chunk = row >>> CHUNK_BITS;
+			int idx = row & CHUNK_MASK;
+			byte type = (byte) ((flags >> ARGUMENTS_TYPE_SHIFT) & 3);
+			if (type == MethodCall.OBJECT_ARGUMENTS)
+				return (objectArguments[chunk] != null) ? (Object[]) objectArguments[chunk][idx] : null;
+
+			int count = (flags >> ARGUMENTS_COUNT_SHIFT) & 3;
+			return MethodCall.boxArguments(type, count, arguments1[chunk][idx],
+					(count >= 2) ? arguments2[chunk][idx] : 0, (count >= 3) ? arguments3[chunk][idx] : 0);
+		}
+
+		@Override
+		void log(int row, String message, Object[] values, int lineNumber) {
+			LogRecord logRecord = new LogRecord();
+			logRecord.message = message;
+			logRecord.numberOfChildren = getChildCount(row);
+			logRecord.values = values;
+			logRecord.lineNumber = lineNumber;
+
+			int chunk = row >>> CHUNK_BITS;
+			int idx = row & CHUNK_MASK;
+			if (logs[chunk] == null) {
+				logs[chunk] = new Object[CHUNK_SIZE];
+				logCounts[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+			}
+
+			int count = logCounts[chunk].get(idx);
+			LogRecord[] rowLogs = (LogRecord[]) logs[chunk][idx];
+			if (rowLogs == null) {
+				rowLogs = new LogRecord[2];
+				logs[chunk][idx] = rowLogs;
+			} else if (count == rowLogs.length) {
+				rowLogs = Arrays.copyOf(rowLogs, 2 * count);
+				logs[chunk][idx] = rowLogs;
+			}
+
+			rowLogs[count] = logRecord;
+			logCounts[chunk].set(idx, count + 1);
+		}
+
+		/**
+		 * Returns the number of published log records of a row.
+		 */
+		private int getLogCount(int row) {
+			AtomicIntegerArray chunk = logCounts[row >>> CHUNK_BITS];
+			return (chunk != null) ? chunk.get(row & CHUNK_MASK) : 0;
+		}
+
+		@Override
+		boolean hasLogs(int row) {
+			return getLogCount(row) != 0;
+		}
+
+		@Override
+		List<LogRecord> getLogs(int row, int childLimit) {
+			int count = getLogCount(row);
+			if (count == 0)
+				return Collections.emptyList();
+
+			LogRecord[] rowLogs = (LogRecord[]) logs[row >>> CHUNK_BITS][row & CHUNK_MASK];
+			return MethodCall.selectLogs(rowLogs, count, childLimit);
+		}
+
+		@Override
+		boolean storeReturn(int row, byte type, long bits, Object value) {
+			int flags = getFlags(row);
+			if ((flags & RETURN_STORED) != 0)
+				return false;
+
+			int chunk = row >>> CHUNK_BITS;
+			if (type == MethodCall.OBJECT_RETURN) {
+				if ((returnValues[chunk] == null) && (value != null))
+					returnValues[chunk] = new Object[CHUNK_SIZE];
+
+				if (returnValues[chunk] != null)
+					returnValues[chunk][row & CHUNK_MASK] = value;
+			} else {
+				if (returnBits[chunk] == null)
+					returnBits[chunk] = new long[CHUNK_SIZE];
+
+				returnBits[chunk][row & CHUNK_MASK] = bits;
+			}
+
+			setFlags(row, (flags & ~(15 << RETURN_TYPE_SHIFT)) | (type << RETURN_TYPE_SHIFT) | RETURN_STORED);
+			return true;
+		}
+
+		@Override
+		boolean hasReturnValue(int row) {
+			return (getFlags(row) & RETURN_STORED) != 0;
+		}
+
+		@Override
+		Object getReturnValue(int row) {
+			int flags = getFlags(row);
+			if ((flags & RETURN_STORED) == 0)
+				return null;
+
+			byte type = (byte) ((flags >> RETURN_TYPE_SHIFT) & 15);
+			return MethodCall.boxReturnValue(type, getReturnBits(row, type), getReturnObject(row, type));
+		}
+
+		@Override
+		String formatReturnValue(int row) {
+			int flags = getFlags(row);
+			if ((flags & RETURN_STORED) == 0)
+				return null;
+
+			byte type = (byte) ((flags >> RETURN_TYPE_SHIFT) & 15);
+			return MethodCall.formatReturnValue(type, getReturnBits(row, type), getReturnObject(row, type));
+		}
+
+		@Override
+		void storeStartTime(int row, long time) {
+			int chunk = row >>> CHUNK_BITS;
+			if (times[chunk] == null)
+				times[chunk] = new long[CHUNK_SIZE];
+
+			times[chunk][row & CHUNK_MASK] = time;
+		}
+
+		@Override
+		void storeEndTime(int row, long time) {
+			int flags = getFlags(row);
+			long[] chunk = times[row >>> CHUNK_BITS];
+			if ((chunk == null) || ((flags & TIMED) != 0))
+				return;
+
+			chunk[row & CHUNK_MASK] = time - chunk[row & CHUNK_MASK];
+			setFlags(row, flags | TIMED);
+		}
+
+		@Override
+		long getInclusiveTime(int row) {
+			if ((getFlags(row) & TIMED) == 0)
+				return -1;
+
+			return times[row >>> CHUNK_BITS][row & CHUNK_MASK];
+		}
+
+		@Override
+		void storeStartAllocation(int row, long bytes) {
+			int chunk = row >>> CHUNK_BITS;
+			if (allocations[chunk] == null)
+				allocations[chunk] = new long[CHUNK_SIZE];
+
+			allocations[chunk][row & CHUNK_MASK] = bytes;
+		}
+
+		@Override
+		void storeEndAllocation(int row, long bytes) {
+			int flags = getFlags(row);
+			long[] chunk = allocations[row >>> CHUNK_BITS];
+			if ((chunk == null) || ((flags & ALLOCATION_MEASURED) != 0))
+				return;
+
+			chunk[row & CHUNK_MASK] = bytes - chunk[row & CHUNK_MASK];
+			setFlags(row, flags | ALLOCATION_MEASURED);
+		}
+
+		@Override
+		long getInclusiveAllocation(int row) {
+			if ((getFlags(row) & ALLOCATION_MEASURED) == 0)
+				return -1;
+
+			return allocations[row >>> CHUNK_BITS][row & CHUNK_MASK];
+		}
+
+		/**
+		 * Returns bits of a primitive return value of a row.
+		 */
+		private long getReturnBits(int row, byte type) {
+			return (type != MethodCall.OBJECT_RETURN) ? returnBits[row >>> CHUNK_BITS][row & CHUNK_MASK] : 0;
+		}
+
+		/**
+		 * Returns an object return value of a row.
+		 */
+		private Object getReturnObject(int row, byte type) {
+			if (type != MethodCall.OBJECT_RETURN)
+				return null;
+
+			Object[] chunk = returnValues[row >>> CHUNK_BITS];
+			return (chunk != null) ? chunk[row & CHUNK_MASK] : null;
+		}
+	}
+
+	/**
+	 * Current columns of the history.
+	 */
+	private volatile Columns columns = new Columns();
+
+	@Override
+	MethodCall createCall(int methodId, int lineNumber, boolean marked, MethodCall parent) {
+		Columns columns = this.columns;
+		int parentRow = (parent != null) ? ((RowMethodCall) parent).row : CallRows.NONE;
+		return new RowMethodCall(columns, columns.addRow(methodId, lineNumber, marked, parentRow));
+	}
+
+	@Override
+	MethodCall get(int index) {
+		Columns columns = this.columns;
+		if ((index < 0) || (index >= columns.size()))
+			throw new IndexOutOfBoundsException("Index: " + index);
+
+		return new RowMethodCall(columns, index);
+	}
+
+	@Override
+	int size() {
+		return columns.size();
+	}
+
+	@Override
+	void clear() {
+		columns = new Columns();
+	}
+
+	@Override
+	long estimateRetainedBytes() {
+		return columns.estimateBytes();
+	}
+}
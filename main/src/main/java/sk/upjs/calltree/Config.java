@@ -1,6 +1,7 @@
 package sk.upjs.calltree;
 
 import java.awt.*;
+import java.io.File;
 
 /**
  * Configuration settings for call tree visualization. Any changes of
@@ -65,6 +66,67 @@ public class Config {
 	 */
 	private Color returnValueColor;
 
+	/**
+	 * Indicates that call trees are recorded without visualization.
+	 */
+	private boolean headless = Boolean.getBoolean("calltree.headless") || GraphicsEnvironment.isHeadless();
+
+	/**
+	 * Minimal time in milliseconds between two updates of the visualization.
+	 */
+	private int refreshInterval = 16;
+
+	/**
+	 * Indicates that recorded method calls are stored in compact columns.
+	 */
+	private boolean compactHistory = Boolean.getBoolean("calltree.compactHistory");
+
+	/**
+	 * Indicates that completed method calls with identical subtrees share a
+	 * single copy of the subtree.
+	 */
+	private boolean sharedSubtrees = Boolean.getBoolean("calltree.sharedSubtrees");
+
+	/**
+	 * Indicates that invocations along the same call path are aggregated into
+	 * a single node of a calling context tree.
+	 */
+	private boolean aggregatedHistory = Boolean.getBoolean("calltree.aggregatedHistory");
+
+	/**
+	 * Indicates that start and return of method calls are timed.
+	 */
+	private boolean timing = Boolean.getBoolean("calltree.timing");
+
+	/**
+	 * Indicates that bytes allocated by method calls are measured.
+	 */
+	private boolean allocationAccounting = Boolean.getBoolean("calltree.allocationAccounting");
+
+	/**
+	 * Indicates that statistics of recording overhead are collected and
+	 * exposed through JMX.
+	 */
+	private boolean recordingStats = Boolean.getBoolean("calltree.recordingStats");
+
+	/**
+	 * Indicates that boxes of timed method calls are colored according to
+	 * their inclusive time.
+	 */
+	private boolean heatColoring = false;
+
+	/**
+	 * Colors used for heat coloring from the coolest to the hottest.
+	 */
+	private final ColorCollection[] heatColors;
+
+	/**
+	 * Base name of files to which method calls are recorded or null, if
+	 * method calls are recorded in the heap.
+	 */
+	private File recordingFile = (System.getProperty("calltree.recordingFile") != null)
+			? new File(System.getProperty("calltree.recordingFile")) : null;
+
 	/**
 	 * Indicates that configuration changes are not allowed.
 	 */
@@ -74,6 +136,12 @@ public class Config {
 	 * Constructs default configuration.
 	 */
 	public Config() {
+		heatColors = new ColorCollection[16];
+		for (int i = 0; i < heatColors.length; i++) {
+			float heat = i / (float) (heatColors.length - 1);
+			heatColors[i] = new ColorCollection(Color.getHSBColor(0.17f * (1 - heat), 0.1f + 0.8f * heat, 1f));
+		}
+
 		setReturnValueColor(Color.blue);
 		setSelectedColor(Color.GRAY);
 		setMethodColors(new Color[] { new Color(244, 244, 244), new Color(222, 184, 135), new Color(255, 246, 143),
@@ -286,6 +354,275 @@ public class Config {
 		this.returnValueColor = c;
 	}
 
+	/**
+	 * Returns whether call trees are recorded in headless mode, i.e., without
+	 * visualization and without suspending the recording threads. By default,
+	 * the headless mode is enabled if the system property
+	 * <code>calltree.headless</code> is set to true or the JVM runs in
+	 * headless mode.
+	 * 
+	 * @return true, if the headless mode is enabled, false otherwise.
+	 */
+	public synchronized boolean isHeadless() {
+		return headless;
+	}
+
+	/**
+	 * Sets whether call trees are recorded in headless mode.
+	 * 
+	 * @param headless
+	 *            true to record call trees without visualization, false
+	 *            otherwise.
+	 */
+	public synchronized void setHeadless(boolean headless) {
+		checkLock();
+		this.headless = headless;
+	}
+
+	/**
+	 * Returns minimal time between two updates of the visualization. Changes
+	 * of call trees recorded in the meantime are displayed together by a
+	 * single update.
+	 * 
+	 * @return the refresh interval in milliseconds.
+	 */
+	public synchronized int getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	/**
+	 * Sets minimal time between two updates of the visualization.
+	 * 
+	 * @param refreshInterval
+	 *            the desired refresh interval in milliseconds.
+	 */
+	public synchronized void setRefreshInterval(int refreshInterval) {
+		if (refreshInterval < 0) {
+			throw new RuntimeException("Refresh interval cannot be negative.");
+		}
+
+		checkLock();
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Returns whether recorded method calls are stored in compact primitive
+	 * columns instead of separate objects. The compact history requires
+	 * significantly less memory for very large recordings. By default, the
+	 * compact history is used if the system property
+	 * <code>calltree.compactHistory</code> is set to true.
+	 * 
+	 * @return true, if the compact history is used, false otherwise.
+	 */
+	public synchronized boolean isCompactHistory() {
+		return compactHistory;
+	}
+
+	/**
+	 * Sets whether recorded method calls are stored in compact primitive
+	 * columns.
+	 * 
+	 * @param compactHistory
+	 *            true to store method calls in compact columns, false
+	 *            otherwise.
+	 */
+	public synchronized void setCompactHistory(boolean compactHistory) {
+		checkLock();
+		this.compactHistory = compactHistory;
+	}
+
+	/**
+	 * Returns whether completed method calls with identical subtrees share a
+	 * single copy of the subtree. Two completed method calls are identical if
+	 * they invoked the same method with equal arguments, returned equal
+	 * values, recorded equal logs and their child method calls are
+	 * identical. Only method calls whose arguments, return values and logged
+	 * values are strings, boxed primitive values or null are shared. Repetitive
+	 * recursions require memory proportional only to the number of distinct
+	 * subproblems. Shared subtrees are displayed as separate subtrees, hence
+	 * memory is saved only in the headless mode. Sharing is not applied to
+	 * the compact history, to recording files and if method calls are timed
+	 * or their allocations are measured. By default, sharing is enabled if
+	 * the system property <code>calltree.sharedSubtrees</code> is set to true.
+	 * 
+	 * @return true, if identical subtrees are shared, false otherwise.
+	 */
+	public synchronized boolean isSharedSubtrees() {
+		return sharedSubtrees;
+	}
+
+	/**
+	 * Sets whether completed method calls with identical subtrees share a
+	 * single copy of the subtree.
+	 * 
+	 * @param sharedSubtrees
+	 *            true to share identical subtrees, false otherwise.
+	 */
+	public synchronized void setSharedSubtrees(boolean sharedSubtrees) {
+		checkLock();
+		this.sharedSubtrees = sharedSubtrees;
+	}
+
+	/**
+	 * Returns whether all invocations along the same call path are aggregated
+	 * into a single node of a calling context tree. Aggregated nodes store the
+	 * number of invocations and the minimum, maximum and sum of numeric
+	 * return values instead of arguments, logs and individual return values,
+	 * hence memory is bounded by the number of distinct call paths. The
+	 * aggregated history is not applied to recording files. By default,
+	 * aggregation is enabled if the system property
+	 * <code>calltree.aggregatedHistory</code> is set to true.
+	 * 
+	 * @return true, if invocations are aggregated, false otherwise.
+	 */
+	public synchronized boolean isAggregatedHistory() {
+		return aggregatedHistory;
+	}
+
+	/**
+	 * Sets whether all invocations along the same call path are aggregated
+	 * into a single node of a calling context tree.
+	 * 
+	 * @param aggregatedHistory
+	 *            true to aggregate invocations, false otherwise.
+	 */
+	public synchronized void setAggregatedHistory(boolean aggregatedHistory) {
+		checkLock();
+		this.aggregatedHistory = aggregatedHistory;
+	}
+
+	/**
+	 * Returns whether method calls are timed. The start time is taken when a
+	 * method call is recorded by markCall or enter and the end time is taken
+	 * by the matching markReturn or exit. Method calls that are not completed
+	 * by markReturn or exit have no recorded time. Time spent waiting for
+	 * confirmation to continue is excluded. Times still include the overhead
+	 * of recording nested method calls (mainly snapshots of the call stack)
+	 * and of scheduling updates of the visualization, hence times of method
+	 * calls with many nested recorded method calls are overestimated. By
+	 * default, timing is enabled if the system property
+	 * <code>calltree.timing</code> is set to true.
+	 * 
+	 * @return true, if method calls are timed, false otherwise.
+	 */
+	public synchronized boolean isTiming() {
+		return timing;
+	}
+
+	/**
+	 * Sets whether method calls are timed.
+	 * 
+	 * @param timing
+	 *            true to time method calls, false otherwise.
+	 */
+	public synchronized void setTiming(boolean timing) {
+		checkLock();
+		this.timing = timing;
+	}
+
+	/**
+	 * Returns whether bytes allocated by the recording thread during method
+	 * calls are measured. Allocations are read from the allocation counter of
+	 * the thread at the start and the matching return of a method call as in
+	 * the case of timing. Allocations realized by call tree recording itself
+	 * are measured and excluded. Allocation accounting is ignored, if the
+	 * running JVM does not count allocated bytes of threads. By default,
+	 * allocation accounting is enabled if the system property
+	 * <code>calltree.allocationAccounting</code> is set to true.
+	 * 
+	 * @return true, if allocations are measured, false otherwise.
+	 */
+	public synchronized boolean isAllocationAccounting() {
+		return allocationAccounting;
+	}
+
+	/**
+	 * Sets whether bytes allocated during method calls are measured.
+	 * 
+	 * @param allocationAccounting
+	 *            true to measure allocations, false otherwise.
+	 */
+	public synchronized void setAllocationAccounting(boolean allocationAccounting) {
+		checkLock();
+		this.allocationAccounting = allocationAccounting;
+	}
+
+	/**
+	 * Returns whether statistics of recording overhead are collected and
+	 * exposed through JMX as {@link RecordingStatsMBean} with the name
+	 * <code>sk.upjs.calltree:type=RecordingStats</code>. By default,
+	 * statistics are collected if the system property
+	 * <code>calltree.recordingStats</code> is set to true.
+	 * 
+	 * @return true, if statistics are collected, false otherwise.
+	 */
+	public synchronized boolean isRecordingStats() {
+		return recordingStats;
+	}
+
+	/**
+	 * Sets whether statistics of recording overhead are collected and exposed
+	 * through JMX.
+	 * 
+	 * @param recordingStats
+	 *            true to collect statistics, false otherwise.
+	 */
+	public synchronized void setRecordingStats(boolean recordingStats) {
+		checkLock();
+		this.recordingStats = recordingStats;
+	}
+
+	/**
+	 * Returns whether boxes of timed method calls are colored according to
+	 * their share of the inclusive time of the displayed call tree.
+	 * 
+	 * @return true, if heat coloring is enabled, false otherwise.
+	 */
+	public synchronized boolean isHeatColoring() {
+		return heatColoring;
+	}
+
+	/**
+	 * Sets whether boxes of timed method calls are colored according to their
+	 * share of the inclusive time of the displayed call tree.
+	 * 
+	 * @param heatColoring
+	 *            true to enable heat coloring, false otherwise.
+	 */
+	public synchronized void setHeatColoring(boolean heatColoring) {
+		checkLock();
+		this.heatColoring = heatColoring;
+	}
+
+	/**
+	 * Returns base name of recording files to which method calls are recorded
+	 * outside of the heap. Method calls of each thread are recorded to a pair
+	 * of memory-mapped files whose names consist of the base name, the
+	 * sequential number of the recording thread and the suffix
+	 * <code>.calls</code> or <code>.data</code>. Object values are recorded as
+	 * their string representations. By default, the base name is given by the
+	 * system property <code>calltree.recordingFile</code>.
+	 * 
+	 * @return the base name of recording files or null, if method calls are
+	 *         recorded in the heap.
+	 */
+	public synchronized File getRecordingFile() {
+		return recordingFile;
+	}
+
+	/**
+	 * Sets base name of recording files to which method calls are recorded
+	 * outside of the heap.
+	 * 
+	 * @param recordingFile
+	 *            the base name of recording files or null to record method
+	 *            calls in the heap.
+	 */
+	public synchronized void setRecordingFile(File recordingFile) {
+		checkLock();
+		this.recordingFile = recordingFile;
+	}
+
 	/**
 	 * Creates a background paint for box of a method call with given
 	 * "category".
@@ -303,6 +640,45 @@ public class Config {
 		}
 	}
 
+	/**
+	 * Creates a background paint for box of a method call with given share
+	 * of the inclusive time.
+	 * 
+	 * @param heat
+	 *            the share of the inclusive time between 0 and 1.
+	 * @return the paint.
+	 */
+	synchronized Paint createHeatBgPaint(double heat, Rectangle methodCallBox) {
+		ColorCollection cc = heatColors[heatIndex(heat)];
+		return new GradientPaint(0, methodCallBox.y, cc.lighter, 0, methodCallBox.y + methodCallBox.height,
+				cc.darker);
+	}
+
+	/**
+	 * Creates a background paint for box of a method call with given share
+	 * of the inclusive time for preview drawing.
+	 * 
+	 * @return the paint.
+	 */
+	synchronized Paint createHeatBgPreviewPaint(double heat) {
+		return heatColors[heatIndex(heat)].basicColor;
+	}
+
+	/**
+	 * Returns the number of heat colors.
+	 */
+	int getHeatColorCount() {
+		return heatColors.length;
+	}
+
+	/**
+	 * Returns index of the heat color for given share of the inclusive time.
+	 */
+	int heatIndex(double heat) {
+		int idx = (int) Math.round(heat * (heatColors.length - 1));
+		return Math.max(0, Math.min(heatColors.length - 1, idx));
+	}
+
 	/**
 	 * Creates a background paint for box of a method call with given "category"
 	 * for preview drawing.
@@ -0,0 +1,130 @@
+package sk.upjs.calltree;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds that can be updated by several
+ * threads without locking. Each power of two is split into
+ * {@link #SUB_BUCKETS} buckets, hence percentiles are estimated with error
+ * below 25 percent.
+ */
+class LatencyHistogram {
+
+	/**
+	 * Base-2 logarithm of the number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 2;
+
+	/**
+	 * Number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Number of recorded durations in each bucket.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+	/**
+	 * Number of recorded durations.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Sum of recorded durations.
+	 */
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * Returns index of the bucket that contains given duration.
+	 */
+	private static int bucketIndex(long nanos) {
+		if (nanos < SUB_BUCKETS)
+			return (int) Math.max(nanos, 0);
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest duration in a bucket.
+	 */
+	private static long bucketLimit(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+
+		int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Records a duration.
+	 */
+	void record(long nanos) {
+		buckets.incrementAndGet(bucketIndex(nanos));
+		sum.addAndGet(nanos);
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of recorded durations.
+	 */
+	long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the sum of recorded durations.
+	 */
+	long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * Returns the average of recorded durations or 0, if no duration was
+	 * recorded.
+	 */
+	long getAverage() {
+		long n = count.get();
+		return (n != 0) ? sum.get() / n : 0;
+	}
+
+	/**
+	 * Returns an upper estimate of a percentile of recorded durations.
+	 *
+	 * @param percentile
+	 *            the percentile between 0 and 100.
+	 */
+	long getPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < buckets.length(); i++)
+			total += buckets.get(i);
+
+		if (total == 0)
+			return 0;
+
+		long threshold = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= threshold)
+				return bucketLimit(i);
+		}
+
+		return bucketLimit(buckets.length() - 1);
+	}
+
+	/**
+	 * Removes all recorded durations.
+	 */
+	void reset() {
+		for (int i = 0; i < buckets.length(); i++)
+			buckets.set(i, 0);
+
+		sum.set(0);
+		count.set(0);
+	}
+}
@@ -0,0 +1,884 @@
+package sk.upjs.calltree;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import sk.upjs.calltree.MethodCall.LogRecord;
+
+/**
+ * History that stores method calls outside of the heap in memory-mapped
+ * recording files. Each method call is stored as a fixed-layout record in the
+ * calls file. Variable-length data (logs, object values and names of methods)
+ * are stored in the data file. The number of records in the header of the
+ * calls file is updated after each method call is completed, hence a
+ * recording interrupted by a crash remains readable up to the last completed
+ * method call.
+ * <p>
+ * Records are written only by the recording thread and they are read by
+ * other threads without locking. Each change of records is published by
+ * writing the volatile number of published records.
+ * <p>
+ * Records of a cleared history are not overwritten. Records of method calls
+ * recorded after the history was cleared are appended to the recording files
+ * and the header stores the index of the first of them. Views of method calls
+ * recorded before the history was cleared remain valid.
+ * <p>
+ * Object values (arguments, return values and logged values) are stored as
+ * their string representations.
+ */
+class MappedCallHistory extends CallHistory {
+
+	/**
+	 * Suffix of the calls file.
+	 */
+	static final String CALLS_SUFFIX = ".calls";
+
+	/**
+	 * Suffix of the data file.
+	 */
+	static final String DATA_SUFFIX = ".data";
+
+	/**
+	 * Base-2 logarithm of the size of mapped segments.
+	 */
+	private static final int SEGMENT_BITS = 26;
+
+	/**
+	 * Identification of the recording file format.
+	 */
+	private static final int MAGIC = 0x43544c47;
+
+	/**
+	 * Version of the recording file format.
+	 */
+	private static final int VERSION = 3;
+
+	/**
+	 * Size of the header and of each record in the calls file.
+	 */
+	private static final int RECORD_SIZE = 88;
+
+	/**
+	 * Offsets of header fields.
+	 */
+	private static final int HEADER_MAGIC = 0;
+	private static final int HEADER_VERSION = 4;
+	private static final int HEADER_ROW_COUNT = 8;
+	private static final int HEADER_FIRST_ROW = 12;
+	private static final int HEADER_DATA_SIZE = 16;
+	private static final int HEADER_METHODS = 24;
+	private static final int HEADER_THREAD_NAME = 32;
+
+	/**
+	 * Offsets of record fields.
+	 */
+	private static final int PARENT = 0;
+	private static final int METHOD_ID = 4;
+	private static final int LINE_NUMBER = 8;
+	private static final int FIRST_CHILD = 12;
+	private static final int LAST_CHILD = 16;
+	private static final int NEXT_SIBLING = 20;
+	private static final int FLAGS = 24;
+	private static final int CHILD_COUNT = 28;
+	private static final int ARGUMENT1 = 32;
+	private static final int ARGUMENT2 = 40;
+	private static final int ARGUMENT3 = 48;
+	private static final int RETURN_BITS = 56;
+	private static final int LAST_LOG = 64;
+	private static final int TIME = 72;
+	private static final int ALLOCATION = 80;
+
+	/**
+	 * Flags of records.
+	 */
+	private static final int MARKED = 1;
+	private static final int RETURN_STORED = 2;
+	private static final int OBJECT_ARGUMENTS_STORED = 4;
+	private static final int ARGUMENTS_TYPE_SHIFT = 3;
+	private static final int ARGUMENTS_COUNT_SHIFT = 5;
+	private static final int RETURN_TYPE_SHIFT = 8;
+	private static final int TIMED = 1 << 12;
+	private static final int ALLOCATION_MEASURED = 1 << 13;
+
+	/**
+	 * Records of method calls stored in recording files. Records are replaced
+	 * when the history is cleared.
+	 */
+	static final class Records extends CallRows {
+
+		/**
+		 * Base name of the recording files.
+		 */
+		private final File file;
+
+		/**
+		 * The calls file.
+		 */
+		private final MappedFile calls;
+
+		/**
+		 * The data file.
+		 */
+		private final MappedFile data;
+
+		/**
+		 * Indicates that records are only read from existing recording files.
+		 */
+		private final boolean readOnly;
+
+		/**
+		 * Name of the recording thread.
+		 */
+		private final String threadName;
+
+		/**
+		 * Index of the first record in the calls file.
+		 */
+		private final int firstRow;
+
+		/**
+		 * Number of stored records.
+		 */
+		private int rowCount;
+
+		/**
+		 * Number of published records. Writing the number publishes all
+		 * preceding changes of records.
+		 */
+		private volatile int size;
+
+		/**
+		 * Indicates that the recording files are closed and the records
+		 * cannot be changed.
+		 */
+		private boolean closed;
+
+		/**
+		 * Next free position in the data file.
+		 */
+		private long dataSize;
+
+		/**
+		 * Identifiers of methods whose descriptors are stored in the data file.
+		 */
+		private final BitSet storedMethods = new BitSet();
+
+		/**
+		 * Mapping of method identifiers stored in read-only recording files to
+		 * identifiers in the method registry.
+		 */
+		private final Map<Integer, Integer> methodIds = new HashMap<Integer, Integer>();
+
+		/**
+		 * Creates new recording files.
+		 */
+		Records(File file, String threadName) throws IOException {
+			this.file = file;
+			calls = new MappedFile(new File(file.getPath() + CALLS_SUFFIX), true, SEGMENT_BITS);
+			data = new MappedFile(new File(file.getPath() + DATA_SUFFIX), true, SEGMENT_BITS);
+			readOnly = false;
+			this.threadName = threadName;
+			firstRow = 0;
+			dataSize = 8;
+			calls.putInt(HEADER_MAGIC, MAGIC);
+			calls.putInt(HEADER_VERSION, VERSION);
+			calls.putInt(HEADER_FIRST_ROW, firstRow);
+			calls.putLong(HEADER_METHODS, 0);
+			calls.putLong(HEADER_THREAD_NAME, writeString(threadName));
+			updateHeader();
+		}
+
+		/**
+		 * Opens existing recording files for reading.
+		 */
+		Records(File file) throws IOException {
+			this.file = file;
+			calls = new MappedFile(new File(file.getPath() + CALLS_SUFFIX), false, SEGMENT_BITS);
+			data = new MappedFile(new File(file.getPath() + DATA_SUFFIX), false, SEGMENT_BITS);
+			readOnly = true;
+			if ((calls.size() < RECORD_SIZE) || (calls.getInt(HEADER_MAGIC) != MAGIC)
+					|| (calls.getInt(HEADER_VERSION) != VERSION))
+				throw new IOException("File " + file + " is not a call tree recording.");
+
+			rowCount = calls.getInt(HEADER_ROW_COUNT);
+			size = rowCount;
+			firstRow = calls.getInt(HEADER_FIRST_ROW);
+			dataSize = calls.getLong(HEADER_DATA_SIZE);
+			threadName = readString(calls.getLong(HEADER_THREAD_NAME));
+
+			long methodPosition = calls.getLong(HEADER_METHODS);
+			while (methodPosition != 0) {
+				int id = data.getInt(methodPosition + 8);
+				long position = methodPosition + 16;
+				String className = readString(position);
+				position = skipString(position);
+				String methodName = readString(position);
+				position = skipString(position);
+				String filename = readString(position);
+				methodIds.put(id, MethodRegistry.register(className, methodName, filename));
+				methodPosition = data.getLong(methodPosition);
+			}
+		}
+
+		/**
+		 * Opens the recording files of cleared records. New records are
+		 * appended after the cleared records.
+		 */
+		Records(Records clearedRecords) throws IOException {
+			file = clearedRecords.file;
+			readOnly = clearedRecords.readOnly;
+			calls = new MappedFile(new File(file.getPath() + CALLS_SUFFIX), !readOnly, SEGMENT_BITS);
+			data = new MappedFile(new File(file.getPath() + DATA_SUFFIX), !readOnly, SEGMENT_BITS);
+			threadName = clearedRecords.threadName;
+			synchronized (clearedRecords) {
+				firstRow = clearedRecords.firstRow + clearedRecords.rowCount;
+				dataSize = clearedRecords.dataSize;
+				storedMethods.or(clearedRecords.storedMethods);
+				methodIds.putAll(clearedRecords.methodIds);
+			}
+
+			if (!readOnly) {
+				// a recording interrupted between these writes contains no
+				// records
+				calls.putInt(HEADER_ROW_COUNT, 0);
+				calls.putInt(HEADER_FIRST_ROW, firstRow);
+				updateHeader();
+			}
+		}
+
+		/**
+		 * Returns name of the recording thread.
+		 */
+		String getThreadName() {
+			return threadName;
+		}
+
+		/**
+		 * Returns whether records are only read from existing recording files.
+		 */
+		boolean isReadOnly() {
+			return readOnly;
+		}
+
+		/**
+		 * Stores the number of records and the size of the data file in the
+		 * header.
+		 */
+		private void updateHeader() {
+			calls.putLong(HEADER_DATA_SIZE, dataSize);
+			calls.putInt(HEADER_ROW_COUNT, rowCount);
+		}
+
+		/**
+		 * Stores the header after a method call was completed.
+		 */
+		synchronized void completeRecord() {
+			if (!readOnly && !closed)
+				updateHeader();
+		}
+
+		/**
+		 * Publishes all changes of records to reading threads.
+		 */
+		private void publish() {
+			size = rowCount;
+		}
+
+		/**
+		 * Returns position of a record.
+		 */
+		private long position(int row) {
+			return (long) (firstRow + row + 1) * RECORD_SIZE;
+		}
+
+		/**
+		 * Returns position of a published record. Reading the number of
+		 * published records makes all published changes of the record
+		 * visible.
+		 */
+		private long readPosition(int row) {
+			if (row >= size)
+				throw new IndexOutOfBoundsException("Row: " + row);
+
+			return position(row);
+		}
+
+		/**
+		 * Checks that records can be changed.
+		 */
+		private void checkWritable() {
+			if (readOnly)
+				throw new CallTreeMarkingException("Recording opened from a file cannot be changed.");
+
+			if (closed)
+				throw new CallTreeMarkingException("Recording was cleared or closed and it cannot be changed.");
+		}
+
+		/**
+		 * Closes the recording files. Stored records remain readable.
+		 */
+		synchronized void close() {
+			if (closed)
+				return;
+
+			if (!readOnly)
+				updateHeader();
+
+			calls.mapBefore(position(rowCount));
+			data.mapBefore(dataSize);
+			calls.close();
+			data.close();
+			closed = true;
+		}
+
+		@Override
+		synchronized int addRow(int methodId, int lineNumber, boolean marked, int parent) {
+			checkWritable();
+			storeMethod(methodId);
+
+			int row = rowCount;
+			long position = position(row);
+			calls.putInt(position + PARENT, parent);
+			calls.putInt(position + METHOD_ID, methodId);
+			calls.putInt(position + LINE_NUMBER, lineNumber);
+			calls.putInt(position + FIRST_CHILD, NONE);
+			calls.putInt(position + LAST_CHILD, NONE);
+			calls.putInt(position + NEXT_SIBLING, NONE);
+			calls.putInt(position + FLAGS, marked ? MARKED : 0);
+			calls.putInt(position + CHILD_COUNT, 0);
+			calls.putLong(position + LAST_LOG, 0);
+
+			if (parent != NONE) {
+				long parentPosition = position(parent);
+				int lastChild = calls.getInt(parentPosition + LAST_CHILD);
+				if (lastChild == NONE)
+					calls.putInt(parentPosition + FIRST_CHILD, row);
+				else
+					calls.putInt(position(lastChild) + NEXT_SIBLING, row);
+
+				calls.putInt(parentPosition + LAST_CHILD, row);
+				calls.putInt(parentPosition + CHILD_COUNT, calls.getInt(parentPosition + CHILD_COUNT) + 1);
+			}
+
+			rowCount++;
+			publish();
+			return row;
+		}
+
+		/**
+		 * Stores descriptor of a method in the data file, if it is not stored
+		 * yet.
+		 */
+		private void storeMethod(int methodId) {
+			if (storedMethods.get(methodId))
+				return;
+
+			MethodRegistry.MethodDescriptor descriptor = MethodRegistry.get(methodId);
+			long methodPosition = dataSize;
+			long position = methodPosition + 16;
+			position = writeString(position, descriptor.className);
+			position = writeString(position, descriptor.methodName);
+			position = writeString(position, descriptor.filename);
+			data.putLong(methodPosition, calls.getLong(HEADER_METHODS));
+			data.putInt(methodPosition + 8, methodId);
+			dataSize = align(position);
+			calls.putLong(HEADER_METHODS, methodPosition);
+			storedMethods.set(methodId);
+		}
+
+		@Override
+		int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the number of bytes used in recording files.
+		 */
+		synchronized long getUsedBytes() {
+			return position(rowCount) + dataSize;
+		}
+
+		@Override
+		int getParent(int row) {
+			return calls.getInt(readPosition(row) + PARENT);
+		}
+
+		@Override
+		int getMethodId(int row) {
+			int methodId = calls.getInt(readPosition(row) + METHOD_ID);
+			return readOnly ? methodIds.get(methodId) : methodId;
+		}
+
+		@Override
+		int getLineNumber(int row) {
+			return calls.getInt(readPosition(row) + LINE_NUMBER);
+		}
+
+		@Override
+		boolean isMarked(int row) {
+			return (calls.getInt(readPosition(row) + FLAGS) & MARKED) != 0;
+		}
+
+		@Override
+		boolean hasChildren(int row) {
+			return getFirstChild(row) != NONE;
+		}
+
+		@Override
+		int getFirstChild(int row) {
+			return validChild(calls.getInt(readPosition(row) + FIRST_CHILD));
+		}
+
+		@Override
+		int getNextSibling(int row) {
+			return validChild(calls.getInt(readPosition(row) + NEXT_SIBLING));
+		}
+
+		/**
+		 * Returns a linked child row or {@link #NONE}, if the row is beyond
+		 * the last published record. It happens, if the child is being added
+		 * or recording was interrupted while the child was added.
+		 */
+		private int validChild(int child) {
+			return (child < size) ? child : NONE;
+		}
+
+		/**
+		 * Returns the stored number of children, if the last child is
+		 * published. Otherwise, published children are counted.
+		 */
+		@Override
+		int getChildCount(int row) {
+			long position = readPosition(row);
+			int count = calls.getInt(position + CHILD_COUNT);
+			int lastChild = calls.getInt(position + LAST_CHILD);
+			if (validChild(lastChild) != lastChild)
+				return super.getChildCount(row);
+
+			return count;
+		}
+
+		@Override
+		synchronized void setObjectArguments(int row, Object[] arguments) {
+			checkWritable();
+			long position = position(row);
+			int flags = calls.getInt(position + FLAGS)
+					& ~((3 << ARGUMENTS_TYPE_SHIFT) | (3 << ARGUMENTS_COUNT_SHIFT) | OBJECT_ARGUMENTS_STORED);
+			if (arguments != null) {
+				calls.putLong(position + ARGUMENT1, writeValues(arguments));
+				flags |= OBJECT_ARGUMENTS_STORED;
+			}
+
+			calls.putInt(position + FLAGS, flags);
+			publish();
+		}
+
+		@Override
+		synchronized void setPrimitiveArguments(int row, byte type, int count, long arg1, long arg2, long arg3) {
+			checkWritable();
+			long position = position(row);
+			calls.putLong(position + ARGUMENT1, arg1);
+			calls.putLong(position + ARGUMENT2, arg2);
+			calls.putLong(position + ARGUMENT3, arg3);
+			int flags = calls.getInt(position + FLAGS)
+					& ~((3 << ARGUMENTS_TYPE_SHIFT) | (3 << ARGUMENTS_COUNT_SHIFT) | OBJECT_ARGUMENTS_STORED);
+			calls.putInt(position + FLAGS,
+					flags | (type << ARGUMENTS_TYPE_SHIFT) | (count << ARGUMENTS_COUNT_SHIFT));
+			publish();
+		}
+
+		@Override
+		Object[] getArguments(int row) {
+			long position = readPosition(row);
+			int flags = calls.getInt(position + FLAGS);
+			byte type = (byte) ((flags >> ARGUMENTS_TYPE_SHIFT) & 3);
+			if (type == MethodCall.OBJECT_ARGUMENTS) {
+				if ((flags & OBJECT_ARGUMENTS_STORED) == 0)
+					return null;
+
+				return readValues(calls.getLong(position + ARGUMENT1));
+			}
+
+			int count = (flags >> ARGUMENTS_COUNT_SHIFT) & 3;
+			return MethodCall.boxArguments(type, count, calls.getLong(position + ARGUMENT1),
+					calls.getLong(position + ARGUMENT2), calls.getLong(position + ARGUMENT3));
+		}
+
+		@Override
+		synchronized void log(int row, String message, Object[] values, int lineNumber) {
+			checkWritable();
+			long position = position(row);
+			long logPosition = dataSize;
+			long valuesPosition = writeString(logPosition + 16, message);
+			long end = writeValues(valuesPosition, values);
+			data.putLong(logPosition, calls.getLong(position + LAST_LOG));
+			data.putInt(logPosition + 8, calls.getInt(position + CHILD_COUNT));
+			data.putInt(logPosition + 12, lineNumber);
+			dataSize = align(end);
+			calls.putLong(position + LAST_LOG, logPosition);
+			publish();
+		}
+
+		@Override
+		boolean hasLogs(int row) {
+			return calls.getLong(readPosition(row) + LAST_LOG) != 0;
+		}
+
+		@Override
+		List<LogRecord> getLogs(int row, int childLimit) {
+			long logPosition = calls.getLong(readPosition(row) + LAST_LOG);
+			if (logPosition == 0)
+				return Collections.emptyList();
+
+			List<LogRecord> logs = new ArrayList<LogRecord>();
+			while (logPosition != 0) {
+				LogRecord logRecord = new LogRecord();
+				logRecord.numberOfChildren = data.getInt(logPosition + 8);
+				logRecord.lineNumber = data.getInt(logPosition + 12);
+				logRecord.message = readString(logPosition + 16);
+				logRecord.values = readValues(skipString(logPosition + 16));
+				logs.add(logRecord);
+				logPosition = data.getLong(logPosition);
+			}
+
+			Collections.reverse(logs);
+			return MethodCall.selectLogs(logs.toArray(new LogRecord[logs.size()]), logs.size(), childLimit);
+		}
+
+		@Override
+		synchronized boolean storeReturn(int row, byte type, long bits, Object value) {
+			checkWritable();
+			long position = position(row);
+			int flags = calls.getInt(position + FLAGS);
+			if ((flags & RETURN_STORED) != 0)
+				return false;
+
+			if (type == MethodCall.OBJECT_RETURN)
+				bits = (value != null) ? writeString(String.valueOf(value)) : 0;
+
+			calls.putLong(position + RETURN_BITS, bits);
+			calls.putInt(position + FLAGS,
+					(flags & ~(15 << RETURN_TYPE_SHIFT)) | (type << RETURN_TYPE_SHIFT) | RETURN_STORED);
+			publish();
+			return true;
+		}
+
+		@Override
+		boolean hasReturnValue(int row) {
+			return (calls.getInt(readPosition(row) + FLAGS) & RETURN_STORED) != 0;
+		}
+
+		@Override
+		Object getReturnValue(int row) {
+			long position = readPosition(row);
+			int flags = calls.getInt(position + FLAGS);
+			if ((flags & RETURN_STORED) == 0)
+				return null;
+
+			byte type = (byte) ((flags >> RETURN_TYPE_SHIFT) & 15);
+			long bits = calls.getLong(position + RETURN_BITS);
+			if (type == MethodCall.OBJECT_RETURN)
+				return (bits != 0) ? readString(bits) : null;
+
+			return MethodCall.boxReturnValue(type, bits, null);
+		}
+
+		@Override
+		String formatReturnValue(int row) {
+			long position = readPosition(row);
+			int flags = calls.getInt(position + FLAGS);
+			if ((flags & RETURN_STORED) == 0)
+				return null;
+
+			byte type = (byte) ((flags >> RETURN_TYPE_SHIFT) & 15);
+			long bits = calls.getLong(position + RETURN_BITS);
+			if (type == MethodCall.OBJECT_RETURN)
+				return (bits != 0) ? readString(bits) : String.valueOf((Object) null);
+
+			return MethodCall.formatReturnValue(type, bits, null);
+		}
+
+		@Override
+		synchronized void storeStartTime(int row, long time) {
+			checkWritable();
+			calls.putLong(position(row) + TIME, time);
+			publish();
+		}
+
+		@Override
+		synchronized void storeEndTime(int row, long time) {
+			checkWritable();
+			long position = position(row);
+			int flags = calls.getInt(position + FLAGS);
+			if ((flags & TIMED) != 0)
+				return;
+
+			calls.putLong(position + TIME, time - calls.getLong(position + TIME));
+			calls.putInt(position + FLAGS, flags | TIMED);
+			publish();
+		}
+
+		@Override
+		long getInclusiveTime(int row) {
+			long position = readPosition(row);
+			if ((calls.getInt(position + FLAGS) & TIMED) == 0)
+				return -1;
+
+			return calls.getLong(position + TIME);
+		}
+
+		@Override
+		synchronized void storeStartAllocation(int row, long bytes) {
+			checkWritable();
+			calls.putLong(position(row) + ALLOCATION, bytes);
+			publish();
+		}
+
+		@Override
+		synchronized void storeEndAllocation(int row, long bytes) {
+			checkWritable();
+			long position = position(row);
+			int flags = calls.getInt(position + FLAGS);
+			if ((flags & ALLOCATION_MEASURED) != 0)
+				return;
+
+			calls.putLong(position + ALLOCATION, bytes - calls.getLong(position + ALLOCATION));
+			calls.putInt(position + FLAGS, flags | ALLOCATION_MEASURED);
+			publish();
+		}
+
+		@Override
+		long getInclusiveAllocation(int row) {
+			long position = readPosition(row);
+			if ((calls.getInt(position + FLAGS) & ALLOCATION_MEASURED) == 0)
+				return -1;
+
+			return calls.getLong(position + ALLOCATION);
+		}
+
+		/**
+		 * Appends a string to the data file.
+		 *
+		 * @return position of the string
+		 */
+		private long writeString(String s) {
+			long position = dataSize;
+			dataSize = align(writeString(position, s));
+			return position;
+		}
+
+		/**
+		 * Appends string representations of values to the data file.
+		 *
+		 * @return position of the values
+		 */
+		private long writeValues(Object[] values) {
+			long position = dataSize;
+			dataSize = align(writeValues(position, values));
+			return position;
+		}
+
+		/**
+		 * Writes a string at given position of the data file.
+		 *
+		 * @return position after the written string
+		 */
+		private long writeString(long position, String s) {
+			if (s == null) {
+				data.putInt(position, -1);
+				return position + 4;
+			}
+
+			data.putInt(position, s.length());
+			position += 4;
+			for (int i = 0; i < s.length(); i++) {
+				data.putChar(position, s.charAt(i));
+				position += 2;
+			}
+
+			return (position + 3) & ~3L;
+		}
+
+		/**
+		 * Writes string representations of values at given position of the
+		 * data file.
+		 *
+		 * @return position after the written values
+		 */
+		private long writeValues(long position, Object[] values) {
+			if (values == null) {
+				data.putInt(position, -1);
+				return position + 4;
+			}
+
+			data.putInt(position, values.length);
+			position += 4;
+			for (Object value : values)
+				position = writeString(position, (value != null) ? value.toString() : null);
+
+			return position;
+		}
+
+		/**
+		 * Reads a string stored at given position of the data file.
+		 */
+		private String readString(long position) {
+			int length = data.getInt(position);
+			if (length < 0)
+				return null;
+
+			char[] chars = new char[length];
+			position += 4;
+			for (int i = 0; i < length; i++) {
+				chars[i] = data.getChar(position);
+				position += 2;
+			}
+
+			return new String(chars);
+		}
+
+		/**
+		 * Returns position after a string stored at given position of the data
+		 * file.
+		 */
+		private long skipString(long position) {
+			int length = data.getInt(position);
+			if (length < 0)
+				return position + 4;
+
+			return (position + 4 + 2L * length + 3) & ~3L;
+		}
+
+		/**
+		 * Reads values stored at given position of the data file.
+		 */
+		private Object[] readValues(long position) {
+			int count = data.getInt(position);
+			if (count < 0)
+				return null;
+
+			Object[] values = new Object[count];
+			position += 4;
+			for (int i = 0; i < count; i++) {
+				values[i] = readString(position);
+				position = skipString(position);
+			}
+
+			return values;
+		}
+
+		/**
+		 * Aligns a position of the data file to 8 bytes.
+		 */
+		private static long align(long position) {
+			return (position + 7) & ~7L;
+		}
+	}
+
+	/**
+	 * Current records of the history.
+	 */
+	private volatile Records records;
+
+	/**
+	 * Constructs a history that records method calls to new recording files.
+	 *
+	 * @param file
+	 *            base name of the recording files
+	 * @param threadName
+	 *            name of the recording thread
+	 */
+	MappedCallHistory(File file, String threadName) {
+		try {
+			records = new Records(file, threadName);
+		} catch (IOException e) {
+			throw new RuntimeException("Recording file " + file + " cannot be created.", e);
+		}
+	}
+
+	/**
+	 * Constructs a read-only history of method calls stored in existing
+	 * recording files.
+	 *
+	 * @param file
+	 *            base name of the recording files
+	 */
+	MappedCallHistory(File file) {
+		try {
+			records = new Records(file);
+		} catch (IOException e) {
+			throw new RuntimeException("Recording file " + file + " cannot be opened.", e);
+		}
+	}
+
+	/**
+	 * Returns name of the thread that recorded the history.
+	 */
+	String getThreadName() {
+		return records.getThreadName();
+	}
+
+	/**
+	 * Returns whether the history was opened from existing recording files.
+	 */
+	boolean isReadOnly() {
+		return records.isReadOnly();
+	}
+
+	@Override
+	MethodCall createCall(int methodId, int lineNumber, boolean marked, MethodCall parent) {
+		Records records = this.records;
+		int parentRow = (parent != null) ? ((RowMethodCall) parent).row : CallRows.NONE;
+		return new RowMethodCall(records, records.addRow(methodId, lineNumber, marked, parentRow));
+	}
+
+	@Override
+	MethodCall get(int index) {
+		Records records = this.records;
+		if ((index < 0) || (index >= records.size()))
+			throw new IndexOutOfBoundsException("Index: " + index);
+
+		return new RowMethodCall(records, index);
+	}
+
+	@Override
+	int size() {
+		return records.size();
+	}
+
+	/**
+	 * Stores the header of the calls file, hence the completed method call is
+	 * readable after a crash.
+	 */
+	@Override
+	MethodCall completeCall(MethodCall methodCall) {
+		records.completeRecord();
+		return methodCall;
+	}
+
+	@Override
+	void clear() {
+		Records clearedRecords = records;
+		try {
+			records = new Records(clearedRecords);
+		} catch (IOException e) {
+			throw new RuntimeException("Recording file cannot be reopened.", e);
+		}
+		clearedRecords.close();
+	}
+
+	@Override
+	void close() {
+		records.close();
+	}
+
+	/**
+	 * Returns the number of bytes used in recording files. Method calls are
+	 * not retained in the heap.
+	 */
+	@Override
+	long estimateRetainedBytes() {
+		return records.getUsedBytes();
+	}
+}
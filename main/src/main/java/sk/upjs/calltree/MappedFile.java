@@ -0,0 +1,179 @@
+package sk.upjs.calltree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * File accessed through memory-mapped segments of equal size. Segments are
+ * mapped when they are accessed for the first time. Values are accessed at
+ * positions aligned to their size, hence a value never spans two segments.
+ * Mapped segments are published without locking, hence a file can be read
+ * by other threads while it is written. Visibility of written values must be
+ * ensured by the caller.
+ */
+class MappedFile {
+
+	/**
+	 * Base-2 logarithm of the segment size.
+	 */
+	private final int segmentBits;
+
+	/**
+	 * Indicates that the file is mapped for writing.
+	 */
+	private final boolean writable;
+
+	/**
+	 * Channel of the file.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Mapped segments of the file, null for segments that were not mapped
+	 * yet. The array is replaced by a copy when a segment is mapped.
+	 */
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[16];
+
+	/**
+	 * Opens a file.
+	 *
+	 * @param file
+	 *            the file
+	 * @param writable
+	 *            true to open the file for reading and writing, false to
+	 *            open it only for reading
+	 * @param segmentBits
+	 *            base-2 logarithm of the segment size
+	 */
+	MappedFile(File file, boolean writable, int segmentBits) throws IOException {
+		this.writable = writable;
+		this.segmentBits = segmentBits;
+		channel = new RandomAccessFile(file, writable ? "rw" : "r").getChannel();
+	}
+
+	/**
+	 * Returns the segment that contains given position.
+	 */
+	private MappedByteBuffer segment(long position) {
+		int idx = (int) (position >>> segmentBits);
+		MappedByteBuffer[] segments = this.segments;
+		if ((idx < segments.length) && (segments[idx] != null))
+			return segments[idx];
+
+		return mapSegment(idx, position);
+	}
+
+	/**
+	 * Maps a segment that was not mapped yet.
+	 */
+	private synchronized MappedByteBuffer mapSegment(int idx, long position) {
+		MappedByteBuffer[] segments = this.segments;
+		MappedByteBuffer segment = (idx < segments.length) ? segments[idx] : null;
+		if (segment == null) {
+			long start = (long) idx << segmentBits;
+			try {
+				if (writable) {
+					segment = channel.map(FileChannel.MapMode.READ_WRITE, start, 1L << segmentBits);
+				} else {
+					long length = Math.min(1L << segmentBits, channel.size() - start);
+					if (length <= 0)
+						throw new IndexOutOfBoundsException("Position " + position + " is beyond end of file.");
+
+					segment = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Mapping of recording file failed.", e);
+			}
+
+			segments = Arrays.copyOf(segments, Math.max(segments.length, idx + 1));
+			segments[idx] = segment;
+			this.segments = segments;
+		}
+
+		return segment;
+	}
+
+	/**
+	 * Returns offset of a position in its segment.
+	 */
+	private int offset(long position) {
+		return (int) (position & ((1L << segmentBits) - 1));
+	}
+
+	/**
+	 * Reads an int at given position.
+	 */
+	int getInt(long position) {
+		return segment(position).getInt(offset(position));
+	}
+
+	/**
+	 * Writes an int at given position.
+	 */
+	void putInt(long position, int value) {
+		segment(position).putInt(offset(position), value);
+	}
+
+	/**
+	 * Reads a long at given position.
+	 */
+	long getLong(long position) {
+		return segment(position).getLong(offset(position));
+	}
+
+	/**
+	 * Writes a long at given position.
+	 */
+	void putLong(long position, long value) {
+		segment(position).putLong(offset(position), value);
+	}
+
+	/**
+	 * Reads a char at given position.
+	 */
+	char getChar(long position) {
+		return segment(position).getChar(offset(position));
+	}
+
+	/**
+	 * Writes a char at given position.
+	 */
+	void putChar(long position, char value) {
+		segment(position).putChar(offset(position), value);
+	}
+
+	/**
+	 * Maps all segments that contain positions before given position.
+	 */
+	void mapBefore(long position) {
+		for (long start = 0; start < position; start += 1L << segmentBits)
+			segment(start);
+	}
+
+	/**
+	 * Closes the file. Mapped segments remain accessible after the file is
+	 * closed, but segments that were not mapped cannot be mapped anymore.
+	 */
+	synchronized void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Recording file cannot be closed.", e);
+		}
+	}
+
+	/**
+	 * Returns the size of the file in bytes.
+	 */
+	long size() {
+		try {
+			return channel.size();
+		} catch (IOException e) {
+			throw new RuntimeException("Size of recording file cannot be read.", e);
+		}
+	}
+}
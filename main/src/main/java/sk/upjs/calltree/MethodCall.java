@@ -4,10 +4,11 @@ import java.util.*;
 
 /**
  * A method call (and underlying execution) including its position in a call
- * tree.
- * 
+ * tree. Method calls are views on data stored in a {@link CallHistory}. The
+ * state of method calls is changed only by the recording thread and it can be
+ * read by other threads without locking.
  */
-class MethodCall {
+abstract class MethodCall extends CallHandle {
 
 	/**
 	 * Log record and data values attached to it.
@@ -36,246 +37,266 @@ class MethodCall {
 	}
 
 	/**
-	 * Fully qualified name of the class containing a method whose invocation is
-	 * represented by this method call.
+	 * Types of arguments: arguments stored as an array of objects.
 	 */
-	private final String className;
+	static final byte OBJECT_ARGUMENTS = 0;
 
 	/**
-	 * Name of the method whose invocation is represented by this method call.
+	 * Type of arguments stored in primitive slots: int arguments.
 	 */
-	private final String methodName;
+	static final byte INT_ARGUMENTS = 1;
 
 	/**
-	 * Name of the source file containing the method whose invocation is
-	 * represented by this method call.
+	 * Type of arguments stored in primitive slots: long arguments.
 	 */
-	private final String filename;
+	static final byte LONG_ARGUMENTS = 2;
 
 	/**
-	 * Line number in the calling method that caused this method call.
+	 * Types of return values.
 	 */
-	private final int lineNumber;
+	static final byte OBJECT_RETURN = 0;
+	static final byte INT_RETURN = 1;
+	static final byte BYTE_RETURN = 2;
+	static final byte SHORT_RETURN = 3;
+	static final byte LONG_RETURN = 4;
+	static final byte CHAR_RETURN = 5;
+	static final byte BOOLEAN_RETURN = 6;
+	static final byte DOUBLE_RETURN = 7;
+	static final byte FLOAT_RETURN = 8;
 
 	/**
-	 * Indicates whether this method call is marked.
+	 * Sets arguments of this method call.
 	 */
-	private final boolean isMarked;
+	public abstract void setArguments(Object[] arguments);
 
 	/**
-	 * Index of this method call in the history log.
+	 * Sets an int argument of this method call.
 	 */
-	private final int historyIndex;
+	public void setArguments(int arg) {
+		setPrimitiveArguments(INT_ARGUMENTS, 1, arg, 0, 0);
+	}
 
 	/**
-	 * Parent of this method call in the call tree.
+	 * Sets two int arguments of this method call.
 	 */
-	private final MethodCall parent;
+	public void setArguments(int arg1, int arg2) {
+		setPrimitiveArguments(INT_ARGUMENTS, 2, arg1, arg2, 0);
+	}
 
 	/**
-	 * List of method calls that were realized by this method call.
+	 * Sets three int arguments of this method call.
 	 */
-	private List<MethodCall> children;
+	public void setArguments(int arg1, int arg2, int arg3) {
+		setPrimitiveArguments(INT_ARGUMENTS, 3, arg1, arg2, arg3);
+	}
 
 	/**
-	 * Arguments of the method call.
+	 * Sets a long argument of this method call.
 	 */
-	private Object[] arguments;
+	public void setArguments(long arg) {
+		setPrimitiveArguments(LONG_ARGUMENTS, 1, arg, 0, 0);
+	}
 
 	/**
-	 * List of recorded logs.
+	 * Stores arguments of this method call in primitive slots.
 	 */
-	private List<LogRecord> logs;
+	abstract void setPrimitiveArguments(byte type, int count, long arg1, long arg2, long arg3);
 
 	/**
-	 * Indicates whether return value was stored.
+	 * Returns arguments of this method call. Arguments stored in primitive
+	 * slots are boxed by each call of this method.
 	 */
-	private boolean returnValueStored;
+	public abstract Object[] getArguments();
 
 	/**
-	 * Value that was returned by this method call.
+	 * Returns list of all method calls that were initiated by this method call.
+	 * The returned list is a read-only view of the stored method calls. Its
+	 * size does not change, hence method calls initiated after the list was
+	 * returned are not included. The last method call of the view can be
+	 * replaced by a method call sharing its subtree, when it is completed
+	 * (see {@link CallHistory#completeCall(MethodCall)}).
 	 */
-	private Object returnValue;
+	public abstract List<MethodCall> getMethodCalls();
 
 	/**
-	 * Constructs a new method call.
+	 * Returns whether this method call invoked another method.
 	 */
-	public MethodCall(StackTraceElement ste, StackTraceElement callingSte, boolean marked, MethodCall parent,
-			int index) {
-		this.className = ste.getClassName();
-		this.methodName = ste.getMethodName();
-		this.filename = ste.getFileName();
-		this.lineNumber = (callingSte != null) ? callingSte.getLineNumber() : -1;
-		this.isMarked = marked;
-		this.parent = parent;
-		this.historyIndex = index;
-	}
+	public abstract boolean hasMethodCalls();
 
 	/**
-	 * Sets arguments of this method call.
+	 * Records a bundle of values for this method call.
+	 * 
+	 * @param name
+	 *            name of the bundle
+	 * @param values
+	 *            values in the bundle
 	 */
-	public synchronized void setArguments(Object[] arguments) {
-		if (arguments != null)
-			this.arguments = arguments.clone();
-		else
-			this.arguments = null;
-	}
+	public abstract void log(String message, Object[] values, int lineNumber);
 
 	/**
-	 * Returns arguments of this method call.
+	 * Records return value of the method call.
 	 */
-	public synchronized Object[] getArguments() {
-		return arguments;
+	public void markReturn(Object value) {
+		storeReturn(OBJECT_RETURN, 0, value);
 	}
 
 	/**
-	 * Adds a child method call that is a result of method invocation in this
-	 * method call.
+	 * Records int return value of the method call without boxing.
 	 */
-	public synchronized void addCall(MethodCall methodCall) {
-		if (methodCall == null)
-			return;
-
-		if (children == null)
-			children = new LinkedList<MethodCall>();
-
-		children.add(methodCall);
+	public void markReturn(int value) {
+		storeReturn(INT_RETURN, value, null);
 	}
 
 	/**
-	 * Returns list of all method calls that were initiated by this method call.
+	 * Records byte return value of the method call without boxing.
 	 */
-	public synchronized List<MethodCall> getMethodCalls() {
-		if (children == null) {
-			return Collections.emptyList();
-		} else {
-			return new ArrayList<MethodCall>(children);
-		}
+	public void markReturn(byte value) {
+		storeReturn(BYTE_RETURN, value, null);
 	}
 
 	/**
-	 * Returns whether this method call invoked another method.
+	 * Records short return value of the method call without boxing.
 	 */
-	public synchronized boolean hasMethodCalls() {
-		return (children != null);
+	public void markReturn(short value) {
+		storeReturn(SHORT_RETURN, value, null);
 	}
 
 	/**
-	 * Records a bundle of values for this method call.
-	 * 
-	 * @param name
-	 *            name of the bundle
-	 * @param values
-	 *            values in the bundle
+	 * Records long return value of the method call without boxing.
 	 */
-	public synchronized void log(String message, Object[] values, int lineNumber) {
-		LogRecord logRecord = new LogRecord();
-		logRecord.message = message;
-		logRecord.numberOfChildren = (children != null) ? children.size() : 0;
-		logRecord.values = values;
-		logRecord.lineNumber = lineNumber;
+	public void markReturn(long value) {
+		storeReturn(LONG_RETURN, value, null);
+	}
 
-		if (this.logs == null)
-			this.logs = new ArrayList<LogRecord>();
+	/**
+	 * Records char return value of the method call without boxing.
+	 */
+	public void markReturn(char value) {
+		storeReturn(CHAR_RETURN, value, null);
+	}
 
-		this.logs.add(logRecord);
+	/**
+	 * Records boolean return value of the method call without boxing.
+	 */
+	public void markReturn(boolean value) {
+		storeReturn(BOOLEAN_RETURN, value ? 1 : 0, null);
 	}
 
 	/**
-	 * Records return value of the method call.
+	 * Records double return value of the method call without boxing.
 	 */
-	public synchronized void markReturn(Object value) {
-		if (returnValueStored)
-			throw new CallTreeMarkingException(
-					"Duplicated recording of the return value for method " + methodName + ".");
+	public void markReturn(double value) {
+		storeReturn(DOUBLE_RETURN, Double.doubleToRawLongBits(value), null);
+	}
 
-		returnValue = value;
-		returnValueStored = true;
+	/**
+	 * Records float return value of the method call without boxing.
+	 */
+	public void markReturn(float value) {
+		storeReturn(FLOAT_RETURN, Float.floatToRawIntBits(value), null);
 	}
 
+	/**
+	 * Stores the return value given by its type, bits of a primitive value
+	 * and an object value.
+	 * 
+	 * @throws CallTreeMarkingException
+	 *             if a return value was already recorded.
+	 */
+	abstract void storeReturn(byte type, long bits, Object value);
+
 	/**
 	 * Returns whether this method call is the root of a call tree.
 	 */
-	public boolean isRoot() {
-		return parent == null;
-	}
+	public abstract boolean isRoot();
 
 	/**
 	 * Returns index of this method call in the recorded history of method
 	 * calls.
 	 */
-	public int getIndex() {
-		return historyIndex;
-	}
+	public abstract int getIndex();
 
 	/**
 	 * Method call that caused invocation of this method call.
 	 */
-	public MethodCall getParent() {
-		return parent;
-	}
+	public abstract MethodCall getParent();
+
+	/**
+	 * Returns identifier of the method in the method registry.
+	 */
+	public abstract int getMethodId();
 
 	/**
 	 * Returns class name of the method.
 	 */
 	public String getClassName() {
-		return className;
+		return MethodRegistry.get(getMethodId()).className;
 	}
 
 	/**
 	 * Returns name of the method.
 	 */
 	public String getMethodName() {
-		return methodName;
+		return MethodRegistry.get(getMethodId()).methodName;
 	}
 
 	/**
 	 * Returns file name that stores class with the method.
 	 */
 	public String getFileName() {
-		return filename;
+		return MethodRegistry.get(getMethodId()).filename;
 	}
 
 	/**
 	 * Line number of the method call (in the method that caused execution of
 	 * this method call).
 	 */
-	public int getLineNumber() {
-		return lineNumber;
-	}
+	public abstract int getLineNumber();
 
 	/**
 	 * Returns whether this method was recorded as a result of a markCall.
 	 */
-	public boolean isMarked() {
-		return isMarked;
-	}
+	public abstract boolean isMarked();
 
 	/**
 	 * Returns whether a return value was recorded for this method call.
 	 * 
 	 * @return true, if a return value was recorded, false otherwise.
 	 */
-	public synchronized boolean hasReturnValue() {
-		return returnValueStored;
-	}
+	public abstract boolean hasReturnValue();
 
 	/**
-	 * Returns the recorded return value.
+	 * Returns the recorded return value. Primitive return values are boxed by
+	 * each call of this method.
 	 * 
 	 * @return recorded return value or null, if the value was not recorded.
 	 */
-	public synchronized Object getReturnValue() {
-		return returnValue;
+	public abstract Object getReturnValue();
+
+	/**
+	 * Returns the recorded return value formatted as a string without boxing
+	 * primitive return values.
+	 * 
+	 * @return the formatted return value or null, if the value was not
+	 *         recorded.
+	 */
+	public abstract String formatReturnValue();
+
+	/**
+	 * Returns a number that changes whenever the formatted return value of
+	 * this method call changes. A return value of a method call is recorded
+	 * only once, hence the number only indicates whether the value was
+	 * recorded.
+	 */
+	long getReturnValueVersion() {
+		return hasReturnValue() ? 1 : 0;
 	}
 
 	/**
 	 * Returns whether there is a log associated with this method call
 	 * (execution).
 	 */
-	public synchronized boolean hasLogs() {
-		return (logs != null);
-	}
+	public abstract boolean hasLogs();
 
 	/**
 	 * Returns list of log records.
@@ -283,15 +304,242 @@ class MethodCall {
 	 * @param childLimit
 	 *            limit for number of children at time when log was recorded.
 	 */
-	public synchronized List<LogRecord> getLogs(int childLimit) {
-		if (logs == null)
-			return Collections.emptyList();
+	public abstract List<LogRecord> getLogs(int childLimit);
+
+	/**
+	 * Stores the time when this method call started.
+	 * 
+	 * @param time
+	 *            the time in nanoseconds given by {@link System#nanoTime()}
+	 */
+	abstract void storeStartTime(long time);
+
+	/**
+	 * Stores the time when this method call returned.
+	 * 
+	 * @param time
+	 *            the time in nanoseconds given by {@link System#nanoTime()}
+	 */
+	abstract void storeEndTime(long time);
+
+	/**
+	 * Returns inclusive time of this method call, i.e., the time between its
+	 * start and return including the time of all nested method calls.
+	 * 
+	 * @return the inclusive time in nanoseconds or -1, if the method call was
+	 *         not timed or it has not returned yet.
+	 */
+	public abstract long getInclusiveTime();
+
+	/**
+	 * Returns exclusive (self) time of this method call, i.e., the inclusive
+	 * time without inclusive times of child method calls. Child method calls
+	 * without recorded time are considered as a part of this method call.
+	 * 
+	 * @return the exclusive time in nanoseconds or -1, if the method call was
+	 *         not timed or it has not returned yet.
+	 */
+	public long getExclusiveTime() {
+		long time = getInclusiveTime();
+		if (time < 0)
+			return -1;
+
+		for (MethodCall child : getMethodCalls()) {
+			long childTime = child.getInclusiveTime();
+			if (childTime > 0)
+				time -= childTime;
+		}
+
+		return Math.max(time, 0);
+	}
+
+	/**
+	 * Stores the number of bytes allocated by the recording thread when this
+	 * method call started.
+	 */
+	abstract void storeStartAllocation(long bytes);
+
+	/**
+	 * Stores the number of bytes allocated by the recording thread when this
+	 * method call returned.
+	 */
+	abstract void storeEndAllocation(long bytes);
+
+	/**
+	 * Returns the number of bytes allocated by this method call including
+	 * allocations of all nested method calls. Allocations realized by call
+	 * tree recording are not included.
+	 * 
+	 * @return the allocated bytes or -1, if allocations were not measured or
+	 *         the method call has not returned yet.
+	 */
+	public abstract long getInclusiveAllocation();
 
-		List<LogRecord> result = new ArrayList<LogRecord>(logs.size());
-		for (LogRecord log : logs)
-			if (log.numberOfChildren <= childLimit)
-				result.add(log);
+	/**
+	 * Returns the number of bytes allocated by this method call without
+	 * allocations of child method calls. Child method calls without measured
+	 * allocations are considered as a part of this method call.
+	 * 
+	 * @return the allocated bytes or -1, if allocations were not measured or
+	 *         the method call has not returned yet.
+	 */
+	public long getExclusiveAllocation() {
+		long bytes = getInclusiveAllocation();
+		if (bytes < 0)
+			return -1;
+
+		for (MethodCall child : getMethodCalls()) {
+			long childBytes = child.getInclusiveAllocation();
+			if (childBytes > 0)
+				bytes -= childBytes;
+		}
+
+		return Math.max(bytes, 0);
+	}
+
+	/**
+	 * Returns the earlier method call whose subtree is shared by this method
+	 * call.
+	 * 
+	 * @return the shared method call or null, if this method call stores its
+	 *         own subtree.
+	 */
+	MethodCall getSharedCall() {
+		return null;
+	}
+
+	/**
+	 * Creates an exception reporting duplicated recording of the return value.
+	 */
+	CallTreeMarkingException duplicatedReturnException() {
+		return new CallTreeMarkingException(
+				"Duplicated recording of the return value for method " + getMethodName() + ".");
+	}
+
+	/**
+	 * Boxes arguments stored in primitive slots.
+	 */
+	static Object[] boxArguments(byte type, int count, long arg1, long arg2, long arg3) {
+		long[] slots = { arg1, arg2, arg3 };
+		Object[] result = new Object[count];
+		for (int i = 0; i < result.length; i++) {
+			if (type == INT_ARGUMENTS)
+				result[i] = Integer.valueOf((int) slots[i]);
+			else
+				result[i] = Long.valueOf(slots[i]);
+		}
 
 		return result;
 	}
+
+	/**
+	 * Boxes a return value given by its type, bits of a primitive value and an
+	 * object value.
+	 */
+	static Object boxReturnValue(byte type, long bits, Object value) {
+		switch (type) {
+		case INT_RETURN:
+			return Integer.valueOf((int) bits);
+		case BYTE_RETURN:
+			return Byte.valueOf((byte) bits);
+		case SHORT_RETURN:
+			return Short.valueOf((short) bits);
+		case LONG_RETURN:
+			return Long.valueOf(bits);
+		case CHAR_RETURN:
+			return Character.valueOf((char) bits);
+		case BOOLEAN_RETURN:
+			return Boolean.valueOf(bits != 0);
+		case DOUBLE_RETURN:
+			return Double.valueOf(Double.longBitsToDouble(bits));
+		case FLOAT_RETURN:
+			return Float.valueOf(Float.intBitsToFloat((int) bits));
+		default:
+			return value;
+		}
+	}
+
+	/**
+	 * Formats a return value given by its type, bits of a primitive value and
+	 * an object value.
+	 */
+	static String formatReturnValue(byte type, long bits, Object value) {
+		switch (type) {
+		case INT_RETURN:
+		case BYTE_RETURN:
+		case SHORT_RETURN:
+		case LONG_RETURN:
+			return Long.toString(bits);
+		case CHAR_RETURN:
+			return String.valueOf((char) bits);
+		case BOOLEAN_RETURN:
+			return String.valueOf(bits != 0);
+		case DOUBLE_RETURN:
+			return String.valueOf(Double.longBitsToDouble(bits));
+		case FLOAT_RETURN:
+			return String.valueOf(Float.intBitsToFloat((int) bits));
+		default:
+			return String.valueOf(value);
+		}
+	}
+
+	/**
+	 * Selects log records stored when the number of children did not exceed
+	 * given limit. Log records are ordered by the number of children, hence
+	 * the selected records form a prefix of the array and they are returned
+	 * without copying.
+	 * 
+	 * @param logs
+	 *            the array of log records or null
+	 * @param count
+	 *            the number of log records in the array
+	 */
+	static List<LogRecord> selectLogs(LogRecord[] logs, int count, int childLimit) {
+		int selected = 0;
+		while ((selected < count) && (logs[selected].numberOfChildren <= childLimit))
+			selected++;
+
+		if (selected == 0)
+			return Collections.emptyList();
+
+		return new ArrayPrefixList<LogRecord>(logs, selected);
+	}
+
+	/**
+	 * Read-only list view of a prefix of an array. The prefix must not be
+	 * changed after the view is created.
+	 */
+	static final class ArrayPrefixList<E> extends AbstractList<E> implements RandomAccess {
+
+		/**
+		 * The array.
+		 */
+		private final E[] array;
+
+		/**
+		 * Length of the prefix.
+		 */
+		private final int size;
+
+		/**
+		 * Constructs a view of a prefix of an array.
+		 */
+		ArrayPrefixList(E[] array, int size) {
+			this.array = array;
+			this.size = size;
+		}
+
+		@Override
+		public E get(int index) {
+			if ((index < 0) || (index >= size))
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+			return array[index];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
 }
@@ -9,6 +9,7 @@ import javax.swing.SwingConstants;
 import java.awt.Font;
 import javax.swing.JScrollPane;
 import javax.swing.JTextPane;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
@@ -16,7 +17,9 @@ import javax.swing.text.StyleConstants;
 import sk.upjs.calltree.MethodCall.LogRecord;
 
 import java.awt.Color;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Panel visualizing details of a method call.
@@ -139,14 +142,111 @@ class MethodCallDetailPanel extends JPanel {
 			// return
 			if (nodeCall.hasReturnValue()) {
 				doc.insertString(doc.getLength(), "return", returnStyle);
-				doc.insertString(doc.getLength(), " " + nodeCall.getReturnValue(), valuesStyle);
+				doc.insertString(doc.getLength(), " " + nodeCall.formatReturnValue(), valuesStyle);
 			}
 
+			// time and allocations
+			boolean timed = nodeCall.getInclusiveTime() >= 0;
+			boolean measured = nodeCall.getInclusiveAllocation() >= 0;
+			if (timed) {
+				doc.insertString(doc.getLength(), "\n\nTime:", infoStyle);
+				doc.insertString(doc.getLength(), " inclusive " + formatTime(nodeCall.getInclusiveTime()) + ", self "
+						+ formatTime(nodeCall.getExclusiveTime()), valuesStyle);
+			}
+
+			if (measured) {
+				doc.insertString(doc.getLength(), timed ? "\nAllocated:" : "\n\nAllocated:", infoStyle);
+				doc.insertString(doc.getLength(), " inclusive " + nodeCall.getInclusiveAllocation() + " B, self "
+						+ nodeCall.getExclusiveAllocation() + " B", valuesStyle);
+			}
+
+			if (timed || measured)
+				printMethodTotals(doc, nodeCall, infoStyle, valuesStyle);
+
 		} catch (Exception ignore) {
 
 		}
 	}
 
+	/**
+	 * Prints total times and allocations of all calls of the method in the
+	 * call tree that contains given method call.
+	 */
+	private void printMethodTotals(Document doc, MethodCall methodCall, SimpleAttributeSet infoStyle,
+			SimpleAttributeSet valuesStyle) throws BadLocationException {
+		MethodCall root = methodCall;
+		while (!root.isRoot())
+			root = root.getParent();
+
+		int methodId = methodCall.getMethodId();
+		long calls = 0;
+		long timedCalls = 0;
+		long selfTime = 0;
+		long inclusiveTime = 0;
+		long maxTime = 0;
+		long measuredCalls = 0;
+		long selfAllocation = 0;
+		long inclusiveAllocation = 0;
+
+		// inclusive values of recursive calls are counted only for the
+		// outermost calls of the method
+		List<MethodCall> stack = new ArrayList<MethodCall>();
+		List<Boolean> nested = new ArrayList<Boolean>();
+		stack.add(root);
+		nested.add(false);
+		while (!stack.isEmpty()) {
+			MethodCall mc = stack.remove(stack.size() - 1);
+			boolean isNested = nested.remove(nested.size() - 1);
+			boolean isMethod = mc.getMethodId() == methodId;
+			if (isMethod) {
+				calls++;
+				long time = mc.getInclusiveTime();
+				if (time >= 0) {
+					timedCalls++;
+					selfTime += mc.getExclusiveTime();
+					maxTime = Math.max(maxTime, time);
+					if (!isNested)
+						inclusiveTime += time;
+				}
+
+				long bytes = mc.getInclusiveAllocation();
+				if (bytes >= 0) {
+					measuredCalls++;
+					selfAllocation += mc.getExclusiveAllocation();
+					if (!isNested)
+						inclusiveAllocation += bytes;
+				}
+			}
+
+			for (MethodCall child : mc.getMethodCalls()) {
+				stack.add(child);
+				nested.add(isNested || isMethod);
+			}
+		}
+
+		doc.insertString(doc.getLength(), "\nMethod " + methodCall.getMethodName() + ":", infoStyle);
+		StringBuilder sb = new StringBuilder();
+		sb.append(' ').append(calls).append(" calls");
+		if (timedCalls != 0) {
+			sb.append(", time inclusive ").append(formatTime(inclusiveTime)).append(", self ")
+					.append(formatTime(selfTime)).append(", max ").append(formatTime(maxTime));
+		}
+
+		if (measuredCalls != 0) {
+			sb.append(", allocated inclusive ").append(inclusiveAllocation).append(" B, self ")
+					.append(selfAllocation).append(" B");
+		}
+
+		doc.insertString(doc.getLength(), sb.toString(), valuesStyle);
+	}
+
+	/**
+	 * Formats time given in nanoseconds.
+	 */
+	private String formatTime(long nanos) {
+		return String.format(Locale.ROOT, "%.3f ms", nanos / 1e6);
+	}
+
 	/**
 	 * Formats array of objects.
 	 */
@@ -0,0 +1,180 @@
+package sk.upjs.calltree;
+
+import java.util.Arrays;
+
+/**
+ * Registry that assigns a unique integer identifier to each distinct method
+ * whose calls are recorded.
+ */
+final class MethodRegistry {
+
+	/**
+	 * Descriptor of a method.
+	 */
+	static final class MethodDescriptor {
+		/**
+		 * Fully qualified name of the class containing the method.
+		 */
+		final String className;
+
+		/**
+		 * Name of the method.
+		 */
+		final String methodName;
+
+		/**
+		 * Name of the source file containing the method.
+		 */
+		final String filename;
+
+		/**
+		 * Identifier of the method.
+		 */
+		final int id;
+
+		MethodDescriptor(String className, String methodName, String filename, int id) {
+			this.className = className;
+			this.methodName = methodName;
+			this.filename = filename;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Entry of a chain of registered descriptors with the same slot in the
+	 * lookup table.
+	 */
+	private static final class Entry {
+		/**
+		 * Hash code of the registered method.
+		 */
+		final int hash;
+
+		/**
+		 * Descriptor of the registered method.
+		 */
+		final MethodDescriptor descriptor;
+
+		/**
+		 * Next entry in the chain or null.
+		 */
+		final Entry next;
+
+		Entry(int hash, MethodDescriptor descriptor, Entry next) {
+			this.hash = hash;
+			this.descriptor = descriptor;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * Lookup table of registered descriptors. Entries are read without
+	 * locking and modified only while holding the lock of the table.
+	 */
+	private static volatile Entry[] table = new Entry[64];
+
+	/**
+	 * Registered descriptors indexed by their identifiers.
+	 */
+	private static volatile MethodDescriptor[] descriptorsById = new MethodDescriptor[64];
+
+	/**
+	 * Number of registered descriptors.
+	 */
+	private static int count;
+
+	/**
+	 * Lock of the lookup table.
+	 */
+	private static final Object lock = new Object();
+
+	private MethodRegistry() {
+
+	}
+
+	/**
+	 * Returns identifier of a method. If the method is not registered, it is
+	 * registered with a new identifier. Registered methods are found without
+	 * allocating any objects.
+	 */
+	static int register(String className, String methodName, String filename) {
+		int hash = hash(className, methodName, filename);
+		MethodDescriptor descriptor = find(table, hash, className, methodName, filename);
+		if (descriptor != null)
+			return descriptor.id;
+
+		synchronized (lock) {
+			Entry[] entries = table;
+			descriptor = find(entries, hash, className, methodName, filename);
+			if (descriptor != null)
+				return descriptor.id;
+
+			descriptor = new MethodDescriptor(className, methodName, filename, count);
+			MethodDescriptor[] byId = descriptorsById;
+			if (count == byId.length)
+				byId = Arrays.copyOf(byId, 2 * byId.length);
+
+			byId[count] = descriptor;
+			count++;
+			descriptorsById = byId;
+
+			// keep at most one descriptor per slot on average
+			if (count > entries.length) {
+				Entry[] newEntries = new Entry[2 * entries.length];
+				for (Entry entry : entries) {
+					for (Entry e = entry; e != null; e = e.next) {
+						int slot = e.hash & (newEntries.length - 1);
+						newEntries[slot] = new Entry(e.hash, e.descriptor, newEntries[slot]);
+					}
+				}
+				entries = newEntries;
+			}
+
+			int slot = hash & (entries.length - 1);
+			entries[slot] = new Entry(hash, descriptor, entries[slot]);
+			table = entries;
+			return descriptor.id;
+		}
+	}
+
+	/**
+	 * Returns the registered descriptor of a method in a lookup table or
+	 * null, if the table does not contain the method.
+	 */
+	private static MethodDescriptor find(Entry[] entries, int hash, String className, String methodName,
+			String filename) {
+		for (Entry e = entries[hash & (entries.length - 1)]; e != null; e = e.next) {
+			MethodDescriptor descriptor = e.descriptor;
+			if ((e.hash == hash) && equalsStrings(className, descriptor.className)
+					&& equalsStrings(methodName, descriptor.methodName)
+					&& equalsStrings(filename, descriptor.filename))
+				return descriptor;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns hash code of a method.
+	 */
+	private static int hash(String className, String methodName, String filename) {
+		int result = (className == null) ? 0 : className.hashCode();
+		result = 31 * result + ((methodName == null) ? 0 : methodName.hashCode());
+		result = 31 * result + ((filename == null) ? 0 : filename.hashCode());
+		return result ^ (result >>> 16);
+	}
+
+	/**
+	 * Returns whether two strings are equal or both are null.
+	 */
+	private static boolean equalsStrings(String s1, String s2) {
+		return (s1 == null) ? (s2 == null) : s1.equals(s2);
+	}
+
+	/**
+	 * Returns descriptor of a registered method.
+	 */
+	static MethodDescriptor get(int id) {
+		return descriptorsById[id];
+	}
+}
@@ -0,0 +1,289 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+
+import sk.upjs.calltree.MethodCall.LogRecord;
+
+/**
+ * History that stores each method call as a separate object. Optionally,
+ * completed method calls with identical subtrees share a single copy of the
+ * subtree, hence repetitive recursions are stored as a directed acyclic graph.
+ */
+class ObjectCallHistory extends CallHistory {
+
+	/**
+	 * Estimated size in bytes of a method call including its references in
+	 * the history and in the parent.
+	 */
+	private static final int ESTIMATED_CALL_BYTES = 160;
+
+	/**
+	 * Identity of a completed subtree given by the method, the arguments, the
+	 * return value, the logs and the shared subtrees of child method calls.
+	 * Only subtrees whose stored values are immutable can be shared, since a
+	 * change of a mutable value would change the identity.
+	 */
+	private static final class SubtreeKey {
+
+		/**
+		 * Identifier of the invoked method.
+		 */
+		final int methodId;
+
+		/**
+		 * Line number of the invocation.
+		 */
+		final int lineNumber;
+
+		/**
+		 * Indicates that the method call was marked.
+		 */
+		final boolean marked;
+
+		/**
+		 * Arguments of the method call.
+		 */
+		final Object[] arguments;
+
+		/**
+		 * Indicates that the method call stored a return value.
+		 */
+		final boolean hasReturnValue;
+
+		/**
+		 * Return value of the method call.
+		 */
+		final Object returnValue;
+
+		/**
+		 * Logs of the method call.
+		 */
+		final List<LogRecord> logs;
+
+		/**
+		 * Shared method calls whose subtrees are subtrees of child method
+		 * calls.
+		 */
+		final MethodCall[] children;
+
+		/**
+		 * Precomputed hash code.
+		 */
+		final int hash;
+
+		/**
+		 * Indicates that all stored values are immutable.
+		 */
+		final boolean immutable;
+
+		/**
+		 * Constructs the identity of a completed method call.
+		 */
+		SubtreeKey(MethodCall mc, MethodCall[] children) {
+			this.methodId = mc.getMethodId();
+			this.lineNumber = mc.getLineNumber();
+			this.marked = mc.isMarked();
+			this.arguments = mc.getArguments();
+			this.hasReturnValue = mc.hasReturnValue();
+			this.returnValue = mc.getReturnValue();
+			this.logs = mc.getLogs(Integer.MAX_VALUE);
+			this.children = children;
+
+			boolean immutableLogs = true;
+			for (LogRecord log : logs)
+				immutableLogs = immutableLogs && areImmutable(log.values);
+			this.immutable = immutableLogs && areImmutable(arguments) && isImmutable(returnValue);
+
+			int h = methodId;
+			h = 31 * h + lineNumber;
+			h = 31 * h + Arrays.deepHashCode(arguments);
+			h = 31 * h + ((returnValue != null) ? returnValue.hashCode() : 0);
+			h = 31 * h + logs.size();
+			for (MethodCall child : children)
+				h = 31 * h + System.identityHashCode(child);
+			this.hash = h;
+		}
+
+		/**
+		 * Returns whether a value is null, a string or a boxed primitive
+		 * value.
+		 */
+		static boolean isImmutable(Object value) {
+			return (value == null) || (value instanceof String) || (value instanceof Integer)
+					|| (value instanceof Long) || (value instanceof Double) || (value instanceof Boolean)
+					|| (value instanceof Character) || (value instanceof Byte) || (value instanceof Short)
+					|| (value instanceof Float);
+		}
+
+		/**
+		 * Returns whether all values of an array are immutable.
+		 */
+		static boolean areImmutable(Object[] values) {
+			if (values != null) {
+				for (Object value : values)
+					if (!isImmutable(value))
+						return false;
+			}
+
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+
+			if (!(obj instanceof SubtreeKey))
+				return false;
+
+			SubtreeKey other = (SubtreeKey) obj;
+			if ((hash != other.hash) || (methodId != other.methodId) || (lineNumber != other.lineNumber)
+					|| (marked != other.marked) || (hasReturnValue != other.hasReturnValue))
+				return false;
+
+			if (children.length != other.children.length)
+				return false;
+
+			for (int i = 0; i < children.length; i++)
+				if (children[i] != other.children[i])
+					return false;
+
+			if (!Arrays.deepEquals(arguments, other.arguments))
+				return false;
+
+			if ((returnValue == null) ? (other.returnValue != null) : !returnValue.equals(other.returnValue))
+				return false;
+
+			if (logs.size() != other.logs.size())
+				return false;
+
+			for (int i = 0; i < logs.size(); i++) {
+				LogRecord log = logs.get(i);
+				LogRecord otherLog = other.logs.get(i);
+				if ((log.numberOfChildren != otherLog.numberOfChildren) || (log.lineNumber != otherLog.lineNumber))
+					return false;
+
+				if ((log.message == null) ? (otherLog.message != null) : !log.message.equals(otherLog.message))
+					return false;
+
+				if (!Arrays.deepEquals(log.values, otherLog.values))
+					return false;
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Recorded method calls.
+	 */
+	private final List<MethodCall> calls = new ArrayList<MethodCall>();
+
+	/**
+	 * Completed method calls whose subtrees are shared by identical method
+	 * calls or null, if subtrees are not shared.
+	 */
+	private final Map<SubtreeKey, MethodCall> sharedSubtrees;
+
+	/**
+	 * Constructs a new history.
+	 *
+	 * @param shareSubtrees
+	 *            true, if completed method calls with identical subtrees
+	 *            share a single copy of the subtree, false otherwise.
+	 */
+	ObjectCallHistory(boolean shareSubtrees) {
+		sharedSubtrees = shareSubtrees ? new HashMap<SubtreeKey, MethodCall>() : null;
+	}
+
+	@Override
+	MethodCall createCall(int methodId, int lineNumber, boolean marked, MethodCall parent) {
+		if (parent instanceof SharedMethodCall) {
+			throw new CallTreeMarkingException("Invalid use of calls for building a call tree (method "
+					+ parent.getMethodName() + " already returned).");
+		}
+
+		ObjectMethodCall mc = new ObjectMethodCall(methodId, lineNumber, marked, parent, calls.size());
+		if (parent != null)
+			((ObjectMethodCall) parent).addCall(mc);
+
+		calls.add(mc);
+		return mc;
+	}
+
+	@Override
+	MethodCall completeCall(MethodCall methodCall) {
+		if ((sharedSubtrees == null) || !(methodCall instanceof ObjectMethodCall) || methodCall.isRoot())
+			return methodCall;
+
+		ObjectMethodCall mc = (ObjectMethodCall) methodCall;
+		ObjectMethodCall parent = (ObjectMethodCall) mc.getParent();
+		if (parent.getLastCall() != mc)
+			return mc;
+
+		// a subtree can be shared only if subtrees of all children are
+		// shareable
+		List<MethodCall> children = mc.getMethodCalls();
+		MethodCall[] sharedChildren = new MethodCall[children.size()];
+		for (int i = 0; i < sharedChildren.length; i++) {
+			MethodCall child = children.get(i);
+			if (child instanceof SharedMethodCall) {
+				sharedChildren[i] = child.getSharedCall();
+			} else if (((ObjectMethodCall) child).shareable) {
+				sharedChildren[i] = child;
+			} else {
+				return mc;
+			}
+		}
+
+		SubtreeKey key = new SubtreeKey(mc, sharedChildren);
+		if (!key.immutable)
+			return mc;
+
+		MethodCall sharedCall = sharedSubtrees.get(key);
+		if (sharedCall == null) {
+			sharedSubtrees.put(key, mc);
+			mc.shareable = true;
+			return mc;
+		}
+
+		// replace the subtree by a method call sharing the identical subtree
+		SharedMethodCall result = new SharedMethodCall(sharedCall, mc);
+		calls.subList(mc.getIndex(), calls.size()).clear();
+		parent.replaceLastCall(result);
+		calls.add(result);
+		return result;
+	}
+
+	@Override
+	MethodCall get(int index) {
+		return calls.get(index);
+	}
+
+	@Override
+	int size() {
+		return calls.size();
+	}
+
+	@Override
+	void clear() {
+		calls.clear();
+		if (sharedSubtrees != null)
+			sharedSubtrees.clear();
+	}
+
+	@Override
+	long estimateRetainedBytes() {
+		return (long) calls.size() * ESTIMATED_CALL_BYTES;
+	}
+
+	@Override
+	List<MethodCall> getCalls(int fromIndex) {
+		return new ArrayList<MethodCall>(calls.subList(fromIndex, calls.size()));
+	}
+}
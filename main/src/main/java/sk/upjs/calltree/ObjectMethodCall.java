@@ -0,0 +1,347 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+
+/**
+ * A method call stored as a separate object in a graph of method calls.
+ * Children and logs are stored in append-only arrays. Each change is
+ * published by a write of a volatile field, hence readers see a consistent
+ * state without locking.
+ */
+class ObjectMethodCall extends MethodCall {
+
+	/**
+	 * Identifier of the method, whose invocation is represented by this method
+	 * call, in the method registry.
+	 */
+	private final int methodId;
+
+	/**
+	 * Line number in the calling method that caused this method call.
+	 */
+	private final int lineNumber;
+
+	/**
+	 * Indicates whether this method call is marked.
+	 */
+	private final boolean isMarked;
+
+	/**
+	 * Index of this method call in the history log.
+	 */
+	private final int historyIndex;
+
+	/**
+	 * Parent of this method call in the call tree.
+	 */
+	private final MethodCall parent;
+
+	/**
+	 * Method calls that were realized by this method call. Elements below
+	 * {@link #childCount} are never changed, the array is replaced by a
+	 * larger copy when it is full.
+	 */
+	private MethodCall[] children;
+
+	/**
+	 * Number of published method calls in {@link #children}.
+	 */
+	private volatile int childCount;
+
+	/**
+	 * Arguments of the method call, if they are not stored in primitive
+	 * slots.
+	 */
+	private Object[] arguments;
+
+	/**
+	 * Type of arguments stored in primitive slots or
+	 * {@link #OBJECT_ARGUMENTS}, if primitive slots are not used. Arguments
+	 * are published by writing this field.
+	 */
+	private volatile byte primitiveArgumentsType;
+
+	/**
+	 * Number of arguments stored in primitive slots.
+	 */
+	private byte primitiveArgumentsCount;
+
+	/**
+	 * Primitive slots for arguments of the method call.
+	 */
+	private long argument1, argument2, argument3;
+
+	/**
+	 * Recorded logs. Elements below {@link #logCount} are never changed, the
+	 * array is replaced by a larger copy when it is full.
+	 */
+	private LogRecord[] logs;
+
+	/**
+	 * Number of published logs in {@link #logs}.
+	 */
+	private volatile int logCount;
+
+	/**
+	 * Indicates whether return value was stored. The return value is
+	 * published by writing this field.
+	 */
+	private volatile boolean returnValueStored;
+
+	/**
+	 * Type of the primitive return value or {@link #OBJECT_RETURN}, if the
+	 * return value is an object.
+	 */
+	private byte returnType;
+
+	/**
+	 * Value that was returned by this method call, if it is an object.
+	 */
+	private Object returnValue;
+
+	/**
+	 * Bits of the primitive value that was returned by this method call.
+	 */
+	private long returnBits;
+
+	/**
+	 * Time when this method call started.
+	 */
+	private long startTime;
+
+	/**
+	 * Inclusive time of this method call or -1, if it was not timed or it
+	 * has not returned yet.
+	 */
+	private volatile long inclusiveTime = -1;
+
+	/**
+	 * Bytes allocated by the recording thread when this method call started.
+	 */
+	private long startAllocation;
+
+	/**
+	 * Bytes allocated by this method call or -1, if allocations were not
+	 * measured or it has not returned yet.
+	 */
+	private volatile long inclusiveAllocation = -1;
+
+	/**
+	 * Indicates that this method call is completed and its subtree can be
+	 * shared by identical method calls. It is accessed only by the recording
+	 * thread.
+	 */
+	boolean shareable;
+
+	/**
+	 * Constructs a new method call of a method that is given by its
+	 * identifier in the method registry.
+	 */
+	public ObjectMethodCall(int methodId, int lineNumber, boolean marked, MethodCall parent, int index) {
+		this.methodId = methodId;
+		this.lineNumber = lineNumber;
+		this.isMarked = marked;
+		this.parent = parent;
+		this.historyIndex = index;
+	}
+
+	@Override
+	public void setArguments(Object[] arguments) {
+		if (arguments != null)
+			this.arguments = arguments.clone();
+		else
+			this.arguments = null;
+
+		primitiveArgumentsType = OBJECT_ARGUMENTS;
+	}
+
+	@Override
+	void setPrimitiveArguments(byte type, int count, long arg1, long arg2, long arg3) {
+		this.arguments = null;
+		this.primitiveArgumentsCount = (byte) count;
+		this.argument1 = arg1;
+		this.argument2 = arg2;
+		this.argument3 = arg3;
+		this.primitiveArgumentsType = type;
+	}
+
+	@Override
+	public Object[] getArguments() {
+		byte type = primitiveArgumentsType;
+		if (type == OBJECT_ARGUMENTS)
+			return arguments;
+
+		return boxArguments(type, primitiveArgumentsCount, argument1, argument2, argument3);
+	}
+
+	/**
+	 * Adds a child method call that is a result of method invocation in this
+	 * method call. Only the recording thread can add method calls.
+	 */
+	public void addCall(MethodCall methodCall) {
+		if (methodCall == null)
+			return;
+
+		int count = childCount;
+		if (children == null)
+			children = new MethodCall[4];
+		else if (count == children.length)
+			children = Arrays.copyOf(children, 2 * count);
+
+		children[count] = methodCall;
+		childCount = count + 1;
+	}
+
+	/**
+	 * Replaces the last child method call. Only the recording thread can
+	 * replace method calls.
+	 */
+	void replaceLastCall(MethodCall methodCall) {
+		int count = childCount;
+		children[count - 1] = methodCall;
+		childCount = count;
+	}
+
+	/**
+	 * Returns the last child method call or null, if there is no child.
+	 */
+	MethodCall getLastCall() {
+		int count = childCount;
+		return (count != 0) ? children[count - 1] : null;
+	}
+
+	@Override
+	public List<MethodCall> getMethodCalls() {
+		int count = childCount;
+		if (count == 0)
+			return Collections.emptyList();
+
+		return new ArrayPrefixList<MethodCall>(children, count);
+	}
+
+	@Override
+	public boolean hasMethodCalls() {
+		return childCount != 0;
+	}
+
+	@Override
+	public void log(String message, Object[] values, int lineNumber) {
+		LogRecord logRecord = new LogRecord();
+		logRecord.message = message;
+		logRecord.numberOfChildren = childCount;
+		logRecord.values = values;
+		logRecord.lineNumber = lineNumber;
+
+		int count = logCount;
+		if (logs == null)
+			logs = new LogRecord[2];
+		else if (count == logs.length)
+			logs = Arrays.copyOf(logs, 2 * count);
+
+		logs[count] = logRecord;
+		logCount = count + 1;
+	}
+
+	@Override
+	void storeReturn(byte type, long bits, Object value) {
+		if (returnValueStored)
+			throw duplicatedReturnException();
+
+		returnValue = value;
+		returnBits = bits;
+		returnType = type;
+		returnValueStored = true;
+	}
+
+	@Override
+	void storeStartTime(long time) {
+		startTime = time;
+	}
+
+	@Override
+	void storeEndTime(long time) {
+		inclusiveTime = time - startTime;
+	}
+
+	@Override
+	public long getInclusiveTime() {
+		return inclusiveTime;
+	}
+
+	@Override
+	void storeStartAllocation(long bytes) {
+		startAllocation = bytes;
+	}
+
+	@Override
+	void storeEndAllocation(long bytes) {
+		inclusiveAllocation = bytes - startAllocation;
+	}
+
+	@Override
+	public long getInclusiveAllocation() {
+		return inclusiveAllocation;
+	}
+
+	@Override
+	public boolean isRoot() {
+		return parent == null;
+	}
+
+	@Override
+	public int getIndex() {
+		return historyIndex;
+	}
+
+	@Override
+	public MethodCall getParent() {
+		return parent;
+	}
+
+	@Override
+	public int getMethodId() {
+		return methodId;
+	}
+
+	@Override
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public boolean isMarked() {
+		return isMarked;
+	}
+
+	@Override
+	public boolean hasReturnValue() {
+		return returnValueStored;
+	}
+
+	@Override
+	public Object getReturnValue() {
+		if (!returnValueStored)
+			return null;
+
+		return boxReturnValue(returnType, returnBits, returnValue);
+	}
+
+	@Override
+	public String formatReturnValue() {
+		if (!returnValueStored)
+			return null;
+
+		return formatReturnValue(returnType, returnBits, returnValue);
+	}
+
+	@Override
+	public boolean hasLogs() {
+		return logCount != 0;
+	}
+
+	@Override
+	public List<LogRecord> getLogs(int childLimit) {
+		int count = logCount;
+		return selectLogs(logs, count, childLimit);
+	}
+}
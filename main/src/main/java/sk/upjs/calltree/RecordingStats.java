@@ -0,0 +1,295 @@
+package sk.upjs.calltree;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Statistics of call tree recording that are updated by recording threads
+ * and exposed through JMX.
+ */
+class RecordingStats implements RecordingStatsMBean {
+
+	/**
+	 * Name under which the statistics are registered in the platform MBean
+	 * server.
+	 */
+	static final String OBJECT_NAME = "sk.upjs.calltree:type=RecordingStats";
+
+	/**
+	 * Type of events that start a method call.
+	 */
+	static final int MARK_CALL = 0;
+
+	/**
+	 * Type of events that complete a method call.
+	 */
+	static final int MARK_RETURN = 1;
+
+	/**
+	 * Type of log events.
+	 */
+	static final int LOG = 2;
+
+	/**
+	 * Minimal time in nanoseconds of waiting for a lock that is considered as
+	 * a contention. Acquisition of a free lock is much faster.
+	 */
+	private static final long CONTENTION_NANOS = 1000;
+
+	/**
+	 * Number of nanoseconds in a second.
+	 */
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	/**
+	 * Builders whose method calls are counted.
+	 */
+	private final List<CallTreeBuilder> builders;
+
+	/**
+	 * Number of recorded events.
+	 */
+	private final AtomicLong eventCount = new AtomicLong();
+
+	/**
+	 * Second since the start of the statistics whose events are counted in
+	 * {@link #currentSecondEvents}.
+	 */
+	private final AtomicLong currentSecond = new AtomicLong();
+
+	/**
+	 * Number of events recorded in the current second.
+	 */
+	private final AtomicLong currentSecondEvents = new AtomicLong();
+
+	/**
+	 * Number of events recorded in the second before the current second.
+	 */
+	private volatile long previousSecondEvents;
+
+	/**
+	 * Durations of call stack snapshots.
+	 */
+	private final LatencyHistogram callstackTimes = new LatencyHistogram();
+
+	/**
+	 * Durations of recording of started method calls.
+	 */
+	private final LatencyHistogram markCallTimes = new LatencyHistogram();
+
+	/**
+	 * Durations of recording of returns.
+	 */
+	private final LatencyHistogram markReturnTimes = new LatencyHistogram();
+
+	/**
+	 * Total time of waiting for confirmation.
+	 */
+	private final AtomicLong confirmationWait = new AtomicLong();
+
+	/**
+	 * Number of contended lock acquisitions.
+	 */
+	private final AtomicLong lockContentions = new AtomicLong();
+
+	/**
+	 * Total time of waiting for locks.
+	 */
+	private final AtomicLong lockWait = new AtomicLong();
+
+	/**
+	 * Time when the statistics were created or reset.
+	 */
+	private volatile long startTime = System.nanoTime();
+
+	/**
+	 * Constructs statistics of given builders.
+	 */
+	private RecordingStats(List<CallTreeBuilder> builders) {
+		this.builders = builders;
+	}
+
+	/**
+	 * Creates statistics of given builders and registers them in the
+	 * platform MBean server.
+	 */
+	static RecordingStats register(List<CallTreeBuilder> builders) {
+		RecordingStats stats = new RecordingStats(builders);
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer()
+						.registerMBean(new StandardMBean(stats, RecordingStatsMBean.class), name);
+			}
+		} catch (JMException e) {
+			throw new RuntimeException("Registration of recording statistics failed.", e);
+		}
+
+		return stats;
+	}
+
+	/**
+	 * Records time spent by taking a snapshot of the call stack.
+	 */
+	void recordCallstack(long nanos) {
+		callstackTimes.record(nanos);
+	}
+
+	/**
+	 * Records time spent by waiting for a lock.
+	 */
+	void recordLockWait(long nanos) {
+		if (nanos >= CONTENTION_NANOS) {
+			lockContentions.incrementAndGet();
+			lockWait.addAndGet(nanos);
+		}
+	}
+
+	/**
+	 * Records an event and time spent by its recording.
+	 *
+	 * @param type
+	 *            type of the event
+	 * @param nanos
+	 *            time spent by recording of the event
+	 * @param time
+	 *            value of {@link System#nanoTime()} when the event was
+	 *            recorded
+	 */
+	void recordEvent(int type, long nanos, long time) {
+		eventCount.incrementAndGet();
+		long second = (time - startTime) / NANOS_PER_SECOND;
+		if (second > currentSecond.get())
+			advanceSecond(second);
+
+		currentSecondEvents.incrementAndGet();
+		if (type == MARK_CALL)
+			markCallTimes.record(nanos);
+		else if (type == MARK_RETURN)
+			markReturnTimes.record(nanos);
+	}
+
+	/**
+	 * Starts counting of events in a new second. Events counted in the
+	 * current second become events of the previous second unless the new
+	 * second does not follow immediately.
+	 */
+	private synchronized void advanceSecond(long second) {
+		long current = currentSecond.get();
+		if (second <= current)
+			return;
+
+		long events = currentSecondEvents.getAndSet(0);
+		previousSecondEvents = (second == current + 1) ? events : 0;
+		currentSecond.set(second);
+	}
+
+	/**
+	 * Records time spent by waiting for confirmation.
+	 */
+	void recordConfirmationWait(long nanos) {
+		confirmationWait.addAndGet(nanos);
+	}
+
+	@Override
+	public long getEventCount() {
+		return eventCount.get();
+	}
+
+	@Override
+	public double getEventsPerSecond() {
+		long second = (System.nanoTime() - startTime) / NANOS_PER_SECOND;
+		long current = currentSecond.get();
+		if (second == current)
+			return previousSecondEvents;
+
+		// the current second is over, but no event started the next one
+		if (second == current + 1)
+			return currentSecondEvents.get();
+
+		return 0;
+	}
+
+	@Override
+	public long getCallstackAverageNanos() {
+		return callstackTimes.getAverage();
+	}
+
+	@Override
+	public long getCallstackP99Nanos() {
+		return callstackTimes.getPercentile(99);
+	}
+
+	@Override
+	public long getMarkCallAverageNanos() {
+		return markCallTimes.getAverage();
+	}
+
+	@Override
+	public long getMarkCallP99Nanos() {
+		return markCallTimes.getPercentile(99);
+	}
+
+	@Override
+	public long getMarkReturnAverageNanos() {
+		return markReturnTimes.getAverage();
+	}
+
+	@Override
+	public long getMarkReturnP99Nanos() {
+		return markReturnTimes.getPercentile(99);
+	}
+
+	@Override
+	public long getConfirmationWaitNanos() {
+		return confirmationWait.get();
+	}
+
+	@Override
+	public long getLockContentionCount() {
+		return lockContentions.get();
+	}
+
+	@Override
+	public long getLockWaitNanos() {
+		return lockWait.get();
+	}
+
+	@Override
+	public long getRetainedMethodCalls() {
+		long result = 0;
+		for (CallTreeBuilder builder : builders)
+			result += builder.getHistorySize();
+
+		return result;
+	}
+
+	@Override
+	public long getEstimatedRetainedBytes() {
+		long result = 0;
+		for (CallTreeBuilder builder : builders)
+			result += builder.estimateRetainedBytes();
+
+		return result;
+	}
+
+	@Override
+	public synchronized void reset() {
+		eventCount.set(0);
+		currentSecond.set(0);
+		currentSecondEvents.set(0);
+		previousSecondEvents = 0;
+		callstackTimes.reset();
+		markCallTimes.reset();
+		markReturnTimes.reset();
+		confirmationWait.set(0);
+		lockContentions.set(0);
+		lockWait.set(0);
+		startTime = System.nanoTime();
+	}
+}
@@ -0,0 +1,91 @@
+package sk.upjs.calltree;
+
+/**
+ * Management interface exposing the overhead of call tree recording. The
+ * statistics are registered in the platform MBean server under the name
+ * <code>sk.upjs.calltree:type=RecordingStats</code>, if they are enabled by
+ * {@link Config#setRecordingStats(boolean)}.
+ */
+public interface RecordingStatsMBean {
+
+	/**
+	 * Returns the number of recorded events (markCall, markReturn, log, enter
+	 * and exit).
+	 */
+	long getEventCount();
+
+	/**
+	 * Returns the number of events recorded in the last completed second.
+	 */
+	double getEventsPerSecond();
+
+	/**
+	 * Returns the average time in nanoseconds spent by taking snapshots of
+	 * the call stack.
+	 */
+	long getCallstackAverageNanos();
+
+	/**
+	 * Returns the 99th percentile of time in nanoseconds spent by taking
+	 * snapshots of the call stack.
+	 */
+	long getCallstackP99Nanos();
+
+	/**
+	 * Returns the average time in nanoseconds spent by recording a started
+	 * method call (markCall or enter).
+	 */
+	long getMarkCallAverageNanos();
+
+	/**
+	 * Returns the 99th percentile of time in nanoseconds spent by recording a
+	 * started method call (markCall or enter).
+	 */
+	long getMarkCallP99Nanos();
+
+	/**
+	 * Returns the average time in nanoseconds spent by recording a return
+	 * (markReturn or exit).
+	 */
+	long getMarkReturnAverageNanos();
+
+	/**
+	 * Returns the 99th percentile of time in nanoseconds spent by recording a
+	 * return (markReturn or exit).
+	 */
+	long getMarkReturnP99Nanos();
+
+	/**
+	 * Returns the total time in nanoseconds that recording threads spent
+	 * waiting for confirmation in the visualization.
+	 */
+	long getConfirmationWaitNanos();
+
+	/**
+	 * Returns the number of acquisitions of the lock of a call tree builder
+	 * that waited for another thread.
+	 */
+	long getLockContentionCount();
+
+	/**
+	 * Returns the total time in nanoseconds spent by waiting for the lock of
+	 * a call tree builder.
+	 */
+	long getLockWaitNanos();
+
+	/**
+	 * Returns the number of method calls retained by all call tree builders.
+	 */
+	long getRetainedMethodCalls();
+
+	/**
+	 * Returns the estimated number of bytes retained by recorded method
+	 * calls.
+	 */
+	long getEstimatedRetainedBytes();
+
+	/**
+	 * Resets all counters and durations.
+	 */
+	void reset();
+}
@@ -0,0 +1,291 @@
+package sk.upjs.calltree;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.TexturePaint;
+import java.awt.image.BufferedImage;
+
+/**
+ * Immutable snapshot of configuration settings for painting call trees with
+ * background paints of boxes created in advance. Boxes of all tree nodes have
+ * the same height and the layout pass places rows of boxes with a fixed
+ * pitch. Hence, a gradient from the top to the bottom of a box is realized by
+ * a single texture that repeats with the pitch of rows.
+ */
+class RenderTheme {
+
+	/**
+	 * Number of shades of summaries that distinguish how densely summarized
+	 * subtrees are filled with nodes.
+	 */
+	private static final int SUMMARY_SHADES = 4;
+
+	/**
+	 * Base color of summaries of subtrees that consist of unmarked method
+	 * calls.
+	 */
+	private static final Color UNMARKED_SUMMARY_COLOR = Color.gray;
+
+	/**
+	 * Configuration from which the theme was created.
+	 */
+	private final Config config;
+
+	/**
+	 * Padding of boxes that is also used as the arc size of their corners.
+	 */
+	final int boxPadding;
+
+	/**
+	 * Color of returned values.
+	 */
+	final Color returnValueColor;
+
+	/**
+	 * Indicates whether boxes are colored according to their share of the
+	 * inclusive time.
+	 */
+	final boolean heatColoring;
+
+	/**
+	 * Height of boxes.
+	 */
+	private final int boxHeight;
+
+	/**
+	 * The y-coordinate of boxes in the first row.
+	 */
+	private final int rowTop;
+
+	/**
+	 * Distance between tops of boxes in neighboring rows.
+	 */
+	private final int rowPitch;
+
+	/**
+	 * Width of the narrowest box.
+	 */
+	private final int minBoxWidth;
+
+	/**
+	 * Background paints of boxes for method type indices.
+	 */
+	private final Paint[] methodPaints;
+
+	/**
+	 * Background paints of boxes in the preview for method type indices.
+	 */
+	private final Paint[] methodPreviewPaints;
+
+	/**
+	 * Background paints of boxes for heat levels.
+	 */
+	private final Paint[] heatPaints;
+
+	/**
+	 * Background paints of boxes in the preview for heat levels.
+	 */
+	private final Paint[] heatPreviewPaints;
+
+	/**
+	 * Background paint of selected boxes.
+	 */
+	private final Paint selectedPaint;
+
+	/**
+	 * Paints of summaries for method type indices and shades.
+	 */
+	private final Paint[][] methodSummaryPaints;
+
+	/**
+	 * Paints of summaries for heat levels and shades.
+	 */
+	private final Paint[][] heatSummaryPaints;
+
+	/**
+	 * Paints of summaries of unmarked method calls for shades.
+	 */
+	private final Paint[] unmarkedSummaryPaints;
+
+	/**
+	 * Constructs a theme for trees laid out with given font metrics.
+	 *
+	 * @param top
+	 *            the y-coordinate at which roots of call trees are laid out.
+	 */
+	RenderTheme(Config config, FontMetrics fm, int top) {
+		this.config = config;
+		boxPadding = config.getBoxPadding();
+		returnValueColor = config.getReturnValueColor();
+		heatColoring = config.isHeatColoring();
+
+		boxHeight = fm.getHeight() + 2 * boxPadding;
+		rowTop = top + fm.getHeight();
+		rowPitch = boxHeight + fm.getHeight() + config.getVSpace();
+		minBoxWidth = (int) Math.round(boxHeight * TreeNode.MIN_BOX_ASPECT_RATIO);
+
+		Rectangle box = new Rectangle(0, 0, 1, boxHeight);
+		int methodColorCount = config.getMethodColors().length;
+		methodPaints = new Paint[methodColorCount];
+		methodPreviewPaints = new Paint[methodColorCount];
+		methodSummaryPaints = new Paint[methodColorCount][];
+		for (int i = 0; i < methodColorCount; i++) {
+			methodPaints[i] = createRowPaint(config.createMethodCallBgPaint(i, box));
+			methodPreviewPaints[i] = config.createMethodCallBgPreviewPaint(i, box);
+			methodSummaryPaints[i] = createSummaryPaints(methodPreviewPaints[i]);
+		}
+
+		int heatColorCount = config.getHeatColorCount();
+		heatPaints = new Paint[heatColorCount];
+		heatPreviewPaints = new Paint[heatColorCount];
+		heatSummaryPaints = new Paint[heatColorCount][];
+		for (int i = 0; i < heatColorCount; i++) {
+			double heat = i / (double) (heatColorCount - 1);
+			heatPaints[i] = createRowPaint(config.createHeatBgPaint(heat, box));
+			heatPreviewPaints[i] = config.createHeatBgPreviewPaint(heat);
+			heatSummaryPaints[i] = createSummaryPaints(heatPreviewPaints[i]);
+		}
+
+		unmarkedSummaryPaints = createSummaryPaints(UNMARKED_SUMMARY_COLOR);
+
+		selectedPaint = createRowPaint(config.createSelectedBgPaint(box));
+	}
+
+	/**
+	 * Creates a paint that repeats the paint of a box at the top of the
+	 * coordinate space in all rows of boxes.
+	 */
+	private Paint createRowPaint(Paint boxPaint) {
+		if (boxPaint instanceof Color)
+			return boxPaint;
+
+		BufferedImage image = new BufferedImage(1, rowPitch, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g2 = image.createGraphics();
+		try {
+			g2.setPaint(boxPaint);
+			g2.fillRect(0, 0, 1, rowPitch);
+		} finally {
+			g2.dispose();
+		}
+
+		return new TexturePaint(image, new Rectangle(0, rowTop, 1, rowPitch));
+	}
+
+	/**
+	 * Creates paints of summaries that blend a preview paint with white from
+	 * the sparsest to the densest shade. Other paints than colors are used
+	 * for all shades.
+	 */
+	private static Paint[] createSummaryPaints(Paint previewPaint) {
+		Paint[] result = new Paint[SUMMARY_SHADES];
+		for (int i = 0; i < SUMMARY_SHADES; i++) {
+			if (previewPaint instanceof Color) {
+				Color color = (Color) previewPaint;
+				double weight = (i + 1) / (double) SUMMARY_SHADES;
+				result[i] = new Color((int) Math.round(255 - (255 - color.getRed()) * weight),
+						(int) Math.round(255 - (255 - color.getGreen()) * weight),
+						(int) Math.round(255 - (255 - color.getBlue()) * weight));
+			} else {
+				result[i] = previewPaint;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the shade of a summary of given number of nodes that covers an
+	 * area of given size. The shade is related to the number of boxes that
+	 * would fit into the area.
+	 */
+	private int getSummaryShade(int nodeCount, double width, double height) {
+		double capacity = Math.max(height / rowPitch, 1) * Math.max(width / minBoxWidth, 1);
+		int shade = (int) Math.ceil(nodeCount / capacity * SUMMARY_SHADES);
+		return Math.max(1, Math.min(SUMMARY_SHADES, shade)) - 1;
+	}
+
+	/**
+	 * Returns whether a box is placed in a row of boxes covered by paints of
+	 * rows.
+	 */
+	private boolean isInRow(Rectangle box) {
+		return (box.height == boxHeight) && ((box.y - rowTop) % rowPitch == 0);
+	}
+
+	/**
+	 * Returns a background paint for box of a method call with given
+	 * "category".
+	 */
+	Paint getMethodCallBgPaint(int typeIndex, Rectangle box) {
+		if (typeIndex < 0)
+			return Color.white;
+
+		if (!isInRow(box))
+			return config.createMethodCallBgPaint(typeIndex, box);
+
+		return methodPaints[typeIndex % methodPaints.length];
+	}
+
+	/**
+	 * Returns a background paint for box of a method call with given
+	 * "category" for preview drawing.
+	 */
+	Paint getMethodCallBgPreviewPaint(int typeIndex) {
+		if (typeIndex < 0)
+			return Color.white;
+
+		return methodPreviewPaints[typeIndex % methodPreviewPaints.length];
+	}
+
+	/**
+	 * Returns a background paint for box of a method call with given share of
+	 * the inclusive time.
+	 */
+	Paint getHeatBgPaint(double heat, Rectangle box) {
+		if (!isInRow(box))
+			return config.createHeatBgPaint(heat, box);
+
+		return heatPaints[config.heatIndex(heat)];
+	}
+
+	/**
+	 * Returns a background paint for box of a method call with given share of
+	 * the inclusive time for preview drawing.
+	 */
+	Paint getHeatBgPreviewPaint(double heat) {
+		return heatPreviewPaints[config.heatIndex(heat)];
+	}
+
+	/**
+	 * Returns a paint for summary of subtrees with given number of nodes
+	 * where method calls with given "category" prevail.
+	 */
+	Paint getMethodCallSummaryPaint(int typeIndex, int nodeCount, double width, double height) {
+		int shade = getSummaryShade(nodeCount, width, height);
+		if (typeIndex < 0)
+			return unmarkedSummaryPaints[shade];
+
+		return methodSummaryPaints[typeIndex % methodSummaryPaints.length][shade];
+	}
+
+	/**
+	 * Returns a paint for summary of subtrees with given number of nodes and
+	 * given share of the inclusive time.
+	 */
+	Paint getHeatSummaryPaint(double heat, int nodeCount, double width, double height) {
+		return heatSummaryPaints[config.heatIndex(heat)][getSummaryShade(nodeCount, width, height)];
+	}
+
+	/**
+	 * Returns a background paint for selected box of a method call.
+	 */
+	Paint getSelectedBgPaint(Rectangle box) {
+		if (!isInRow(box))
+			return config.createSelectedBgPaint(box);
+
+		return selectedPaint;
+	}
+}
@@ -0,0 +1,239 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+
+/**
+ * A method call stored as a row of {@link CallRows}. Instances are lightweight
+ * views, hence two views of the same row are equal.
+ */
+class RowMethodCall extends MethodCall {
+
+	/**
+	 * Rows storing the method call.
+	 */
+	final CallRows rows;
+
+	/**
+	 * Index of the row with the method call.
+	 */
+	final int row;
+
+	/**
+	 * Constructs a view of a row.
+	 */
+	RowMethodCall(CallRows rows, int row) {
+		this.rows = rows;
+		this.row = row;
+	}
+
+	@Override
+	public void setArguments(Object[] arguments) {
+		rows.setObjectArguments(row, arguments);
+	}
+
+	@Override
+	void setPrimitiveArguments(byte type, int count, long arg1, long arg2, long arg3) {
+		rows.setPrimitiveArguments(row, type, count, arg1, arg2, arg3);
+	}
+
+	@Override
+	public Object[] getArguments() {
+		return rows.getArguments(row);
+	}
+
+	@Override
+	public List<MethodCall> getMethodCalls() {
+		int count = rows.getChildCount(row);
+		if (count == 0)
+			return Collections.emptyList();
+
+		return new ChildList(rows, rows.getFirstChild(row), count);
+	}
+
+	@Override
+	public boolean hasMethodCalls() {
+		return rows.hasChildren(row);
+	}
+
+	@Override
+	public void log(String message, Object[] values, int lineNumber) {
+		rows.log(row, message, values, lineNumber);
+	}
+
+	@Override
+	void storeReturn(byte type, long bits, Object value) {
+		if (!rows.storeReturn(row, type, bits, value))
+			throw duplicatedReturnException();
+	}
+
+	@Override
+	public boolean isRoot() {
+		return rows.getParent(row) == CallRows.NONE;
+	}
+
+	@Override
+	public int getIndex() {
+		return row;
+	}
+
+	@Override
+	public MethodCall getParent() {
+		int parent = rows.getParent(row);
+		return (parent != CallRows.NONE) ? new RowMethodCall(rows, parent) : null;
+	}
+
+	@Override
+	public int getMethodId() {
+		return rows.getMethodId(row);
+	}
+
+	@Override
+	public int getLineNumber() {
+		return rows.getLineNumber(row);
+	}
+
+	@Override
+	public boolean isMarked() {
+		return rows.isMarked(row);
+	}
+
+	@Override
+	void storeStartTime(long time) {
+		rows.storeStartTime(row, time);
+	}
+
+	@Override
+	void storeEndTime(long time) {
+		rows.storeEndTime(row, time);
+	}
+
+	@Override
+	public long getInclusiveTime() {
+		return rows.getInclusiveTime(row);
+	}
+
+	@Override
+	void storeStartAllocation(long bytes) {
+		rows.storeStartAllocation(row, bytes);
+	}
+
+	@Override
+	void storeEndAllocation(long bytes) {
+		rows.storeEndAllocation(row, bytes);
+	}
+
+	@Override
+	public long getInclusiveAllocation() {
+		return rows.getInclusiveAllocation(row);
+	}
+
+	@Override
+	public boolean hasReturnValue() {
+		return rows.hasReturnValue(row);
+	}
+
+	@Override
+	public Object getReturnValue() {
+		return rows.getReturnValue(row);
+	}
+
+	@Override
+	public String formatReturnValue() {
+		return rows.formatReturnValue(row);
+	}
+
+	@Override
+	public boolean hasLogs() {
+		return rows.hasLogs(row);
+	}
+
+	@Override
+	public List<LogRecord> getLogs(int childLimit) {
+		return rows.getLogs(row, childLimit);
+	}
+
+	/**
+	 * Read-only list view of children of a row. Views of children are
+	 * created when they are accessed. Children are found by following links
+	 * between siblings from the last accessed child, hence children are
+	 * accessed in order in constant time. The view is not thread-safe.
+	 */
+	static final class ChildList extends AbstractList<MethodCall> {
+
+		/**
+		 * Rows storing the children.
+		 */
+		private final CallRows rows;
+
+		/**
+		 * Row of the first child.
+		 */
+		private final int firstChild;
+
+		/**
+		 * Number of children in the view.
+		 */
+		private final int size;
+
+		/**
+		 * Index of the last accessed child.
+		 */
+		private int lastIndex;
+
+		/**
+		 * Row of the last accessed child.
+		 */
+		private int lastChild;
+
+		/**
+		 * Constructs a view of a non-empty list of children.
+		 */
+		ChildList(CallRows rows, int firstChild, int size) {
+			this.rows = rows;
+			this.firstChild = firstChild;
+			this.size = size;
+			lastIndex = 0;
+			lastChild = firstChild;
+		}
+
+		@Override
+		public MethodCall get(int index) {
+			if ((index < 0) || (index >= size))
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+			if (index < lastIndex) {
+				lastIndex = 0;
+				lastChild = firstChild;
+			}
+
+			while (lastIndex < index) {
+				lastChild = rows.getNextSibling(lastChild);
+				lastIndex++;
+			}
+
+			return new RowMethodCall(rows, lastChild);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+
+		if (!(obj instanceof RowMethodCall))
+			return false;
+
+		RowMethodCall other = (RowMethodCall) obj;
+		return (rows == other.rows) && (row == other.row);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * System.identityHashCode(rows) + row;
+	}
+}
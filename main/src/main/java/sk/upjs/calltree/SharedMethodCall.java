@@ -0,0 +1,190 @@
+package sk.upjs.calltree;
+
+import java.util.*;
+
+/**
+ * A method call whose execution is identical to an execution of an earlier
+ * method call. The method call shares the whole subtree of the earlier
+ * method call instead of storing a copy of it. Only the time and the
+ * allocation measured for the method call itself are stored, measurements of
+ * its descendants are shared with the earlier method call.
+ */
+class SharedMethodCall extends MethodCall {
+
+	/**
+	 * The method call whose subtree is shared.
+	 */
+	private final MethodCall sharedCall;
+
+	/**
+	 * Parent of this method call in the call tree.
+	 */
+	private final MethodCall parent;
+
+	/**
+	 * Index of this method call in the history log.
+	 */
+	private final int historyIndex;
+
+	/**
+	 * Inclusive time of this method call or -1, if it is not timed.
+	 */
+	private final long inclusiveTime;
+
+	/**
+	 * Inclusive allocation of this method call or -1, if it is not
+	 * measured.
+	 */
+	private final long inclusiveAllocation;
+
+	/**
+	 * Constructs a new method call sharing the subtree of another method
+	 * call.
+	 * 
+	 * @param sharedCall
+	 *            the method call whose subtree is shared
+	 * @param replacedCall
+	 *            the completed method call replaced by the constructed method
+	 *            call
+	 */
+	SharedMethodCall(MethodCall sharedCall, MethodCall replacedCall) {
+		this.sharedCall = sharedCall;
+		this.parent = replacedCall.getParent();
+		this.historyIndex = replacedCall.getIndex();
+		this.inclusiveTime = replacedCall.getInclusiveTime();
+		this.inclusiveAllocation = replacedCall.getInclusiveAllocation();
+	}
+
+	@Override
+	MethodCall getSharedCall() {
+		return sharedCall;
+	}
+
+	@Override
+	public void setArguments(Object[] arguments) {
+		throw completedCallException();
+	}
+
+	@Override
+	void setPrimitiveArguments(byte type, int count, long arg1, long arg2, long arg3) {
+		throw completedCallException();
+	}
+
+	@Override
+	public Object[] getArguments() {
+		return sharedCall.getArguments();
+	}
+
+	@Override
+	public List<MethodCall> getMethodCalls() {
+		return sharedCall.getMethodCalls();
+	}
+
+	@Override
+	public boolean hasMethodCalls() {
+		return sharedCall.hasMethodCalls();
+	}
+
+	@Override
+	public void log(String message, Object[] values, int lineNumber) {
+		throw completedCallException();
+	}
+
+	@Override
+	void storeReturn(byte type, long bits, Object value) {
+		throw duplicatedReturnException();
+	}
+
+	@Override
+	public boolean isRoot() {
+		return parent == null;
+	}
+
+	@Override
+	public int getIndex() {
+		return historyIndex;
+	}
+
+	@Override
+	public MethodCall getParent() {
+		return parent;
+	}
+
+	@Override
+	public int getMethodId() {
+		return sharedCall.getMethodId();
+	}
+
+	@Override
+	public int getLineNumber() {
+		return sharedCall.getLineNumber();
+	}
+
+	@Override
+	public boolean isMarked() {
+		return sharedCall.isMarked();
+	}
+
+	@Override
+	void storeStartTime(long time) {
+		throw completedCallException();
+	}
+
+	@Override
+	void storeEndTime(long time) {
+		throw completedCallException();
+	}
+
+	@Override
+	public long getInclusiveTime() {
+		return inclusiveTime;
+	}
+
+	@Override
+	void storeStartAllocation(long bytes) {
+		throw completedCallException();
+	}
+
+	@Override
+	void storeEndAllocation(long bytes) {
+		throw completedCallException();
+	}
+
+	@Override
+	public long getInclusiveAllocation() {
+		return inclusiveAllocation;
+	}
+
+	@Override
+	public boolean hasReturnValue() {
+		return sharedCall.hasReturnValue();
+	}
+
+	@Override
+	public Object getReturnValue() {
+		return sharedCall.getReturnValue();
+	}
+
+	@Override
+	public String formatReturnValue() {
+		return sharedCall.formatReturnValue();
+	}
+
+	@Override
+	public boolean hasLogs() {
+		return sharedCall.hasLogs();
+	}
+
+	@Override
+	public List<LogRecord> getLogs(int childLimit) {
+		return sharedCall.getLogs(childLimit);
+	}
+
+	/**
+	 * Creates an exception reporting a change of a completed method call.
+	 */
+	private CallTreeMarkingException completedCallException() {
+		return new CallTreeMarkingException(
+				"Invalid use of calls for building a call tree (method " + getMethodName() + " already returned).");
+	}
+}
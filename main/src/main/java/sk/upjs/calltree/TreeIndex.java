@@ -0,0 +1,214 @@
+package sk.upjs.calltree;
+
+import java.awt.Rectangle;
+import java.util.*;
+
+/**
+ * Spatial index of laid out nodes of a call tree. Nodes are grouped into rows
+ * by their depth and each row keeps its nodes in order from left to right.
+ * Rows of boxes are placed with a fixed pitch and subtrees of nodes in a row
+ * do not overlap, hence nodes at given coordinates are found by binary search
+ * over rows and over nodes in a row.
+ * <p>
+ * The index is updated when a node is appended to the right end of its row
+ * or the last node of a row is removed. Other changes of the tree invalidate
+ * the index and it is rebuilt when it is used next time.
+ */
+class TreeIndex {
+
+	/**
+	 * Root of the indexed tree.
+	 */
+	private final TreeNode root;
+
+	/**
+	 * Nodes of the tree grouped by their depth in order from left to right.
+	 */
+	private final List<List<TreeNode>> rows = new ArrayList<List<TreeNode>>();
+
+	/**
+	 * Indicates whether rows contain all nodes of the tree.
+	 */
+	private boolean valid;
+
+	/**
+	 * Constructs an index of the tree rooted in a node.
+	 */
+	TreeIndex(TreeNode root) {
+		this.root = root;
+	}
+
+	/**
+	 * Updates the index after a child was appended to a node of the tree.
+	 */
+	void nodeAdded(TreeNode parent, TreeNode child) {
+		if (!valid)
+			return;
+
+		if (child.childCount() != 0) {
+			valid = false;
+			return;
+		}
+
+		int rowIndex = child.getDepth() - root.getDepth();
+		if (rowIndex == rows.size())
+			rows.add(new ArrayList<TreeNode>());
+
+		// the child is the rightmost node in its row, if the parent of the
+		// last node in the row is not located to the right of the parent
+		List<TreeNode> row = rows.get(rowIndex);
+		if (!row.isEmpty()) {
+			TreeNode lastParent = row.get(row.size() - 1).getParent();
+			if ((lastParent != parent) && (lastParent.positionInRow > parent.positionInRow)) {
+				valid = false;
+				return;
+			}
+		}
+
+		child.positionInRow = row.size();
+		row.add(child);
+	}
+
+	/**
+	 * Updates the index after a child was removed from a node of the tree.
+	 */
+	void nodeRemoved(TreeNode child) {
+		if (!valid)
+			return;
+
+		int rowIndex = child.getDepth() - root.getDepth();
+		List<TreeNode> row = rows.get(rowIndex);
+		if ((child.childCount() != 0) || (row.get(row.size() - 1) != child)) {
+			valid = false;
+			return;
+		}
+
+		row.remove(row.size() - 1);
+		if (row.isEmpty())
+			rows.remove(rowIndex);
+	}
+
+	/**
+	 * Rebuilds rows of the index by a breadth-first traversal of the tree, if
+	 * the index is not valid.
+	 */
+	private void validate() {
+		if (valid)
+			return;
+
+		rows.clear();
+		List<TreeNode> row = new ArrayList<TreeNode>();
+		row.add(root);
+		while (!row.isEmpty()) {
+			List<TreeNode> nextRow = new ArrayList<TreeNode>();
+			for (int i = 0; i < row.size(); i++) {
+				TreeNode node = row.get(i);
+				node.index = this;
+				node.positionInRow = i;
+				for (int j = 0; j < node.childCount(); j++)
+					nextRow.add(node.getChild(j));
+			}
+
+			rows.add(row);
+			row = nextRow;
+		}
+
+		valid = true;
+	}
+
+	/**
+	 * Returns index of the first row whose top is not above given
+	 * y-coordinate or the number of rows, if there is no such row.
+	 */
+	private int findRowBelow(int y) {
+		int low = 0;
+		int high = rows.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (rows.get(middle).get(0).getTop() < y)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns index of the first node in a row whose subtree is not located
+	 * to the left of given x-coordinate or the size of the row, if there is no
+	 * such node.
+	 */
+	private static int findNodeRightOf(List<TreeNode> row, int x) {
+		int low = 0;
+		int high = row.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			TreeNode node = row.get(middle);
+			if (node.getLeft() + node.getWidth() <= x)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the node whose box is located at given coordinates or null, if
+	 * there is no such node.
+	 */
+	TreeNode findNodeAt(int x, int y) {
+		validate();
+
+		// the row above the first row with top below y is the only row
+		// whose box can contain the point
+		int rowIndex = findRowBelow(y + 1) - 1;
+		if (rowIndex < 0)
+			return null;
+
+		List<TreeNode> row = rows.get(rowIndex);
+		int position = findNodeRightOf(row, x);
+		if (position == row.size())
+			return null;
+
+		TreeNode node = row.get(position);
+		return node.containsPointInBox(x, y) ? node : null;
+	}
+
+	/**
+	 * Collects nodes whose box or connections to children can intersect a
+	 * rectangle. Nodes are collected row by row from the top.
+	 *
+	 * @param area
+	 *            the rectangle.
+	 * @param nodes
+	 *            the list where nodes whose boxes or return values can
+	 *            intersect the rectangle are added.
+	 * @param parents
+	 *            the list where nodes whose connections to children can
+	 *            intersect the rectangle are added.
+	 */
+	void collectVisibleNodes(Rectangle area, List<TreeNode> nodes, List<TreeNode> parents) {
+		validate();
+
+		// rows of nodes whose texts and boxes intersect the area vertically,
+		// connections to them start in the row above
+		int firstRow = Math.max(findRowBelow(area.y) - 1, 0);
+		int lastRow = findRowBelow(area.y + area.height) - 1;
+		for (int rowIndex = Math.max(firstRow - 1, 0); rowIndex <= lastRow; rowIndex++) {
+			List<TreeNode> row = rows.get(rowIndex);
+			for (int i = findNodeRightOf(row, area.x); i < row.size(); i++) {
+				TreeNode node = row.get(i);
+				if (node.getLeft() >= area.x + area.width)
+					break;
+
+				if (rowIndex >= firstRow)
+					nodes.add(node);
+
+				if (node.childCount() != 0)
+					parents.add(node);
+			}
+		}
+	}
+}
@@ -9,7 +9,7 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Stroke;
 import java.awt.geom.Ellipse2D;
-import java.awt.geom.Rectangle2D;
+import java.awt.geom.Path2D;
 import java.awt.geom.RoundRectangle2D;
 import java.util.*;
 
@@ -28,6 +28,102 @@ class TreeNode {
 	 */
 	private static final Stroke SIMPLE_STROKE = new BasicStroke(1);
 
+	/**
+	 * The smallest ratio of width and height of a box.
+	 */
+	static final double MIN_BOX_ASPECT_RATIO = 1.5;
+
+	/**
+	 * Width in pixels of the device space below which subtrees are painted
+	 * as summaries.
+	 */
+	private static final double SUMMARY_SIZE = 4;
+
+	/**
+	 * Summary of consecutive sibling subtrees that are painted as a single
+	 * shape.
+	 */
+	private static class Summary {
+		/**
+		 * Left and right side of the summarized subtrees.
+		 */
+		final int left, right;
+
+		/**
+		 * Top of boxes of summarized nodes and bottom of the summarized
+		 * subtrees.
+		 */
+		final int top, bottom;
+
+		/**
+		 * The x-coordinates where the first and the last summarized subtree
+		 * is attached to the parent.
+		 */
+		final int firstAnchorX, lastAnchorX;
+
+		/**
+		 * Number of nodes in the summarized subtrees.
+		 */
+		final int nodeCount;
+
+		/**
+		 * Type of method that prevails in the summarized subtrees.
+		 */
+		final int typeIndex;
+
+		/**
+		 * Sum of inclusive times of returned summarized method calls.
+		 */
+		final long time;
+
+		/**
+		 * Constructs a summary of subtrees of a range of sibling nodes.
+		 */
+		Summary(List<TreeNode> siblings, int from, int to) {
+			TreeNode first = siblings.get(from);
+			TreeNode last = siblings.get(to - 1);
+			left = first.boundingBox.x;
+			right = last.boundingBox.x + last.boundingBox.width;
+			top = first.nodeBox.y;
+			firstAnchorX = first.nodeBox.x + first.nodeBox.width / 2;
+			lastAnchorX = last.nodeBox.x + last.nodeBox.width / 2;
+
+			// weighted majority vote of dominant types of subtrees
+			int bottom = 0;
+			int nodeCount = 0;
+			int typeIndex = first.dominantTypeIndex;
+			long votes = 0;
+			long time = 0;
+			for (int i = from; i < to; i++) {
+				TreeNode node = siblings.get(i);
+				bottom = Math.max(bottom, node.boundingBox.y + node.boundingBox.height);
+				nodeCount += node.subtreeSize;
+				time += Math.max(node.methodCall.getInclusiveTime(), 0);
+				if (node.dominantTypeIndex == typeIndex) {
+					votes += node.subtreeSize;
+				} else if (votes >= node.subtreeSize) {
+					votes -= node.subtreeSize;
+				} else {
+					typeIndex = node.dominantTypeIndex;
+					votes = node.subtreeSize - votes;
+				}
+			}
+
+			this.bottom = bottom;
+			this.nodeCount = nodeCount;
+			this.typeIndex = typeIndex;
+			this.time = time;
+		}
+
+		/**
+		 * Returns whether the summarized subtrees intersect a rectangle.
+		 */
+		boolean intersects(Rectangle area) {
+			return (left < area.x + area.width) && (right > area.x) && (top < area.y + area.height)
+					&& (bottom > area.y);
+		}
+	}
+
 	/**
 	 * Method call represented by this tree node.
 	 */
@@ -48,6 +144,16 @@ class TreeNode {
 	 */
 	private final int typeIndex;
 
+	/**
+	 * Depth of this node in the call tree.
+	 */
+	private int depth;
+
+	/**
+	 * Parent tree node or null, if this node is a root.
+	 */
+	private TreeNode parent;
+
 	/**
 	 * List of child tree nodes.
 	 */
@@ -64,10 +170,95 @@ class TreeNode {
 	private final Rectangle nodeBox = new Rectangle();
 
 	/**
-	 * Title displayed in this node.
+	 * Name of the thread that recorded the call tree, if this node is a root.
+	 */
+	private String threadName;
+
+	/**
+	 * Title displayed in this node or null, if the box of this node has not
+	 * been measured.
 	 */
 	private String methodTitle;
 
+	/**
+	 * Font metrics in which the box of this node was measured.
+	 */
+	private FontMetrics boxMetrics;
+
+	/**
+	 * Font metrics in which {@link #titleWidth} was measured or null, if the
+	 * width is not known.
+	 */
+	private FontMetrics titleMetrics;
+
+	/**
+	 * Width of the painted title.
+	 */
+	private double titleWidth;
+
+	/**
+	 * Formatted return value displayed above this node or null, if it is not
+	 * cached.
+	 */
+	private String returnValueLabel;
+
+	/**
+	 * Version of the return value in {@link #returnValueLabel}.
+	 */
+	private long returnValueVersion;
+
+	/**
+	 * Font metrics in which {@link #returnValueWidth} was measured.
+	 */
+	private FontMetrics returnValueMetrics;
+
+	/**
+	 * Width of the painted return value.
+	 */
+	private double returnValueWidth;
+
+	/**
+	 * Indicates that dimensions of the tree rooted in this node are up to
+	 * date. If a node is not measured, its ancestors are not measured as
+	 * well.
+	 */
+	private boolean measured;
+
+	/**
+	 * Indicates that the tree rooted in this node is laid out at the current
+	 * position of its bounding box. If a node is not laid out, its ancestors
+	 * are not laid out as well.
+	 */
+	private boolean laidOut;
+
+	/**
+	 * Number of nodes in the tree rooted in this node.
+	 */
+	private int subtreeSize;
+
+	/**
+	 * Type of method that prevails in the tree rooted in this node. If a type
+	 * occurs in more than half of the nodes, it is the prevailing type.
+	 */
+	private int dominantTypeIndex;
+
+	/**
+	 * Indicates that the method call has children whose tree nodes were not
+	 * created yet.
+	 */
+	private boolean collapsed;
+
+	/**
+	 * Spatial index of the tree that contains this node or null, if the tree
+	 * has not been indexed.
+	 */
+	TreeIndex index;
+
+	/**
+	 * Position of this node in its row of the spatial index.
+	 */
+	int positionInRow;
+
 	/**
 	 * Constructs a new tree node representing a method call (execution).
 	 * 
@@ -105,6 +296,29 @@ class TreeNode {
 		this.onCallstack = onCallstack;
 	}
 
+	/**
+	 * Returns whether tree nodes of children of the method call were not
+	 * created yet.
+	 */
+	public boolean isCollapsed() {
+		return collapsed;
+	}
+
+	/**
+	 * Sets whether tree nodes of children of the method call were not created
+	 * yet.
+	 */
+	public void setCollapsed(boolean collapsed) {
+		this.collapsed = collapsed;
+	}
+
+	/**
+	 * Sets name of the thread that recorded the call tree rooted in this node.
+	 */
+	public void setThreadName(String threadName) {
+		this.threadName = threadName;
+	}
+
 	/**
 	 * Returns whether the node is selected.
 	 * 
@@ -149,11 +363,44 @@ class TreeNode {
 		return boundingBox.height;
 	}
 
+	/**
+	 * Returns depth of this node in the call tree.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
 	/**
 	 * Adds a child node.
 	 */
 	public void addChild(TreeNode tn) {
+		tn.depth = depth + 1;
+		tn.parent = this;
 		children.add(tn);
+		tn.index = index;
+		if (index != null)
+			index.nodeAdded(this, tn);
+
+		invalidate();
+	}
+
+	/**
+	 * Returns the parent tree node or null, if this node is a root.
+	 */
+	public TreeNode getParent() {
+		return parent;
+	}
+
+	/**
+	 * Removes the last child node.
+	 */
+	public void removeLastChild() {
+		TreeNode child = children.remove(children.size() - 1);
+		if (index != null)
+			index.nodeRemoved(child);
+
+		child.index = null;
+		invalidate();
 	}
 
 	/**
@@ -164,17 +411,102 @@ class TreeNode {
 	}
 
 	/**
-	 * Realizes a measure pass.
+	 * Returns the child at given position.
+	 */
+	public TreeNode getChild(int index) {
+		return children.get(index);
+	}
+
+	/**
+	 * Invalidates dimensions and layout of trees rooted in this node and in
+	 * its ancestors.
+	 */
+	private void invalidate() {
+		TreeNode node = this;
+		while ((node != null) && (node.measured || node.laidOut)) {
+			node.measured = false;
+			node.laidOut = false;
+			node = node.parent;
+		}
+	}
+
+	/**
+	 * Invalidates dimensions and layout of all nodes in the tree rooted in
+	 * this node, including measured boxes and cached labels of nodes.
+	 */
+	public void invalidateTree() {
+		invalidate();
+		List<TreeNode> stack = new ArrayList<TreeNode>();
+		stack.add(this);
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.remove(stack.size() - 1);
+			node.measured = false;
+			node.laidOut = false;
+			node.methodTitle = null;
+			node.boxMetrics = null;
+			node.titleMetrics = null;
+			node.returnValueLabel = null;
+			for (TreeNode child : node.children)
+				stack.add(child);
+		}
+	}
+
+	/**
+	 * Realizes a measure pass. Nodes are measured in post-order, hence
+	 * children are measured before their parent. Only trees changed since
+	 * the last measure pass are measured again. If the tree was measured in
+	 * other font metrics, the whole tree is invalidated and measured again.
 	 */
 	public void measure(FontMetrics fm, Config config) {
+		if (measured && (boxMetrics != fm) && !fm.equals(boxMetrics))
+			invalidateTree();
+
+		if (measured)
+			return;
+
+		// stack of nodes with index of their next child to be measured
+		List<TreeNode> stack = new ArrayList<TreeNode>();
+		int[] nextChild = new int[16];
+		stack.add(this);
+		nextChild[0] = 0;
+
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			TreeNode node = stack.get(top);
+			int childIndex = nextChild[top];
+			if (childIndex < node.children.size()) {
+				nextChild[top]++;
+				TreeNode child = node.children.get(childIndex);
+				if (!child.measured) {
+					if (stack.size() == nextChild.length)
+						nextChild = Arrays.copyOf(nextChild, 2 * nextChild.length);
+
+					nextChild[stack.size()] = 0;
+					stack.add(child);
+				}
+
+				continue;
+			}
+
+			stack.remove(top);
+			node.measureNode(fm, config);
+			node.measured = true;
+		}
+	}
+
+	/**
+	 * Measures the tree rooted in this node from dimensions of measured
+	 * subtrees of children.
+	 */
+	private void measureNode(FontMetrics fm, Config config) {
 		boundingBox.width = 0;
 		boundingBox.height = 0;
+		subtreeSize = 1;
+		dominantTypeIndex = typeIndex;
+		long votes = 1;
 
-		// measure children
-		for (TreeNode child : children)
-			child.measure(fm, config);
-
-		// calculate dimensions for displaying subtrees
+		// calculate dimensions for displaying subtrees and count nodes of
+		// types by weighted majority vote
 		boolean first = true;
 		for (TreeNode child : children) {
 			boundingBox.width += child.getWidth();
@@ -185,10 +517,21 @@ class TreeNode {
 			}
 
 			boundingBox.height = Math.max(boundingBox.height, child.getHeight());
+			subtreeSize += child.subtreeSize;
+			if (child.dominantTypeIndex == dominantTypeIndex) {
+				votes += child.subtreeSize;
+			} else if (votes >= child.subtreeSize) {
+				votes -= child.subtreeSize;
+			} else {
+				dominantTypeIndex = child.dominantTypeIndex;
+				votes = child.subtreeSize - votes;
+			}
 		}
 
-		// measure box for displaying the node
-		measureBox(fm, config);
+		// measure box for displaying the node, the title of a node never
+		// changes, but its width depends on the font
+		if ((methodTitle == null) || (boxMetrics != fm))
+			measureBox(fm, config);
 
 		// calculate final dimension of the tree
 		boundingBox.width = Math.max(boundingBox.width, nodeBox.width);
@@ -202,30 +545,60 @@ class TreeNode {
 	 * Measures the box representing this tree node.
 	 */
 	private void measureBox(FontMetrics fm, Config config) {
-		methodTitle = buildMethodTitle(config);
+		if (methodTitle == null)
+			methodTitle = buildMethodTitle(config);
+
+		boxMetrics = fm;
 		int titleWidth = fm.stringWidth(methodTitle);
 		int titleHeight = fm.getHeight();
 
 		nodeBox.width = titleWidth + 2 * config.getBoxPadding();
 		nodeBox.height = titleHeight + 2 * config.getBoxPadding();
-		if (nodeBox.width < nodeBox.height * 1.5) {
-			nodeBox.width = (int) Math.round(nodeBox.height * 1.5);
+		if (nodeBox.width < nodeBox.height * MIN_BOX_ASPECT_RATIO) {
+			nodeBox.width = (int) Math.round(nodeBox.height * MIN_BOX_ASPECT_RATIO);
 		}
 	}
 
 	/**
-	 * Realizes the layout pass.
+	 * Realizes the layout pass. Each node places its box and subtrees of its
+	 * children before the children are laid out. Only trees that changed or
+	 * moved since the last layout pass are laid out again.
 	 */
 	public void layout(int left, int top, FontMetrics fm, Config config) {
+		if (laidOut && (boundingBox.x == left) && (boundingBox.y == top))
+			return;
+
 		boundingBox.x = left;
 		boundingBox.y = top;
 
+		List<TreeNode> stack = new ArrayList<TreeNode>();
+		stack.add(this);
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.remove(stack.size() - 1);
+			node.layoutNode(fm, config, stack);
+			node.laidOut = true;
+		}
+	}
+
+	/**
+	 * Places the box of this node and subtrees of its children within the
+	 * placed bounding box of this node. Children that have to be laid out are
+	 * added to the stack.
+	 */
+	private void layoutNode(FontMetrics fm, Config config, List<TreeNode> stack) {
 		nodeBox.x = boundingBox.x + (boundingBox.width - nodeBox.width) / 2;
 		nodeBox.y = boundingBox.y + fm.getHeight();
 
-		top += nodeBox.height + fm.getHeight() + config.getVSpace();
+		int left = boundingBox.x;
+		int top = boundingBox.y + nodeBox.height + fm.getHeight() + config.getVSpace();
 		for (TreeNode child : children) {
-			child.layout(left, top, fm, config);
+			if (!child.laidOut || (child.boundingBox.x != left) || (child.boundingBox.y != top)) {
+				child.boundingBox.x = left;
+				child.boundingBox.y = top;
+				child.laidOut = false;
+				stack.add(child);
+			}
+
 			left += child.getWidth() + config.getHSpace();
 		}
 	}
@@ -247,14 +620,41 @@ class TreeNode {
 	}
 
 	/**
-	 * Returns child that is a root of a tree containing a given point.
+	 * Returns spatial index of the tree rooted in this node.
 	 */
-	public TreeNode getChildContainingPoint(int x, int y) {
-		for (TreeNode child : children)
-			if (child.containsPointInTree(x, y))
-				return child;
+	private TreeIndex getTreeIndex() {
+		if (index == null)
+			index = new TreeIndex(this);
+
+		return index;
+	}
+
+	/**
+	 * Returns node of the laid out tree rooted in this node whose box is
+	 * located at given coordinates or null, if there is no such node.
+	 */
+	public TreeNode findNodeAt(int x, int y) {
+		return getTreeIndex().findNodeAt(x, y);
+	}
 
-		return null;
+	/**
+	 * Returns position of the first child whose box is attached at
+	 * x-coordinate not less than given value or the number of children, if
+	 * there is no such child. Children are attached from left to right.
+	 */
+	private int findChildAttachedFrom(int x) {
+		int low = 0;
+		int high = children.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			Rectangle childBox = children.get(middle).nodeBox;
+			if (childBox.x + childBox.width / 2 < x)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
 	}
 
 	/**
@@ -264,157 +664,477 @@ class TreeNode {
 		return new Point(nodeBox.x + nodeBox.width / 2, nodeBox.y);
 	}
 
+	/**
+	 * Returns position of the first child whose subtree starts at
+	 * x-coordinate not less than given value or the number of children, if
+	 * there is no such child.
+	 */
+	private int findChildStartingFrom(double x) {
+		int low = 0;
+		int high = children.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (children.get(middle).boundingBox.x < x)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns position of the first child whose subtree is not located to the
+	 * left of given x-coordinate or the number of children, if there is no
+	 * such child.
+	 */
+	private int findChildEndingAfter(int x) {
+		int low = 0;
+		int high = children.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			Rectangle childBounds = children.get(middle).boundingBox;
+			if (childBounds.x + childBounds.width <= x)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns position of the first child in the summary that contains the
+	 * child at given position. Children narrower than given width are
+	 * summarized together, if their subtrees start in the same column of the
+	 * given width. Hence, summaries do not depend on the painted area.
+	 */
+	private int findSummaryStart(int childIndex, double summaryWidth) {
+		double column = Math.floor(children.get(childIndex).boundingBox.x / summaryWidth);
+		return findChildStartingFrom(column * summaryWidth);
+	}
+
+	/**
+	 * Returns position after the last child in the summary that contains the
+	 * child at given position.
+	 */
+	private int findSummaryEnd(int childIndex, double summaryWidth) {
+		double column = Math.floor(children.get(childIndex).boundingBox.x / summaryWidth);
+		int end = findChildStartingFrom((column + 1) * summaryWidth);
+
+		// a wide child can start in the column only after all narrow children
+		if ((end - 1 > childIndex) && (children.get(end - 1).boundingBox.width >= summaryWidth))
+			end--;
+
+		return end;
+	}
+
+	/**
+	 * Collects nodes of the tree rooted in this node whose subtrees intersect
+	 * a rectangle. Subtrees narrower than given width are not traversed, they
+	 * are collected as summaries.
+	 */
+	private void collectSummarizedNodes(Rectangle area, double summaryWidth, List<TreeNode> nodes,
+			List<TreeNode> parents, List<Summary> summaries) {
+		if (!boundingBox.intersects(area))
+			return;
+
+		if (boundingBox.width < summaryWidth) {
+			summaries.add(new Summary(Collections.singletonList(this), 0, 1));
+			return;
+		}
+
+		List<TreeNode> stack = new ArrayList<TreeNode>();
+		stack.add(this);
+		while (!stack.isEmpty()) {
+			TreeNode node = stack.remove(stack.size() - 1);
+			nodes.add(node);
+			if (node.children.isEmpty())
+				continue;
+
+			parents.add(node);
+			if (node.children.get(0).boundingBox.y >= area.y + area.height)
+				continue;
+
+			int i = node.findChildEndingAfter(area.x);
+			while ((i < node.children.size()) && (node.children.get(i).boundingBox.x < area.x + area.width)) {
+				TreeNode child = node.children.get(i);
+				if (child.boundingBox.width < summaryWidth) {
+					int end = node.findSummaryEnd(i, summaryWidth);
+					Summary summary = new Summary(node.children, node.findSummaryStart(i, summaryWidth), end);
+					if (summary.intersects(area))
+						summaries.add(summary);
+
+					i = end;
+				} else {
+					if (child.boundingBox.intersects(area))
+						stack.add(child);
+
+					i++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the inclusive time to which times of nodes in the tree rooted
+	 * in this node are related by heat coloring or -1, if heat coloring is
+	 * not applied.
+	 */
+	private long getHeatBase(RenderTheme theme) {
+		if (!theme.heatColoring)
+			return -1;
+
+		long time = methodCall.getInclusiveTime();
+		if (time >= 0)
+			return time;
+
+		// the method call is running, hence its returned children are
+		// related to their total time
+		time = 0;
+		for (TreeNode child : children)
+			time += Math.max(child.methodCall.getInclusiveTime(), 0);
+
+		return (time > 0) ? time : -1;
+	}
+
+	/**
+	 * Returns share of the inclusive time of this node in given time or -1,
+	 * if the node is not heat colored.
+	 */
+	private double getHeat(long heatBase) {
+		if (heatBase <= 0)
+			return -1;
+
+		long time = methodCall.getInclusiveTime();
+		if (time < 0)
+			return -1;
+
+		return Math.min(1.0, time / (double) heatBase);
+	}
+
 	/**
 	 * Paints the tree rooted in this node.
 	 */
-	public void paint(Graphics2D g2, Config config) {
-		// do not realize paintings of trees that are not visible
-		Rectangle clip = g2.getClipBounds();
-		if (clip != null) {
-			if (!boundingBox.intersects(clip))
-				return;
+	public void paint(Graphics2D g2, RenderTheme theme) {
+		paintTree(g2, theme, false);
+	}
+
+	/**
+	 * Paints tree rooted in this node for preview display.
+	 */
+	public void paintPreview(Graphics2D g2, RenderTheme theme) {
+		paintTree(g2, theme, true);
+	}
+
+	/**
+	 * Paints the tree rooted in this node in layers: connections, boxes,
+	 * borders of boxes and texts. Connections with the same style are painted
+	 * as a single path and the graphics state is changed only between layers
+	 * or when the paint of boxes changes. Nodes and connections that can
+	 * intersect the clip are found in the spatial index of the tree. If the
+	 * tree is scaled down so that a box can be narrower than
+	 * {@link #SUMMARY_SIZE} pixels, subtrees narrower than this size are
+	 * painted as summaries. A summary of one or more sibling subtrees is a
+	 * shape that spans the subtrees from top of their boxes to their bottom.
+	 * Its color is given by the prevailing method type or by the heat and its
+	 * shade by density of nodes in the summarized subtrees.
+	 */
+	private void paintTree(Graphics2D g2, RenderTheme theme, boolean preview) {
+		Rectangle area = g2.getClipBounds();
+		if (area == null)
+			area = new Rectangle(boundingBox);
+
+		// include borders and connections painted with double stroke
+		area.grow(2, 2);
+
+		double summaryWidth = SUMMARY_SIZE / Math.abs(g2.getTransform().getScaleX());
+		List<TreeNode> visibleNodes = new ArrayList<TreeNode>();
+		List<TreeNode> visibleParents = new ArrayList<TreeNode>();
+		List<Summary> summaries = new ArrayList<Summary>();
+		if (summaryWidth > nodeBox.height * MIN_BOX_ASPECT_RATIO) {
+			collectSummarizedNodes(area, summaryWidth, visibleNodes, visibleParents, summaries);
+		} else {
+			summaryWidth = 0;
+			getTreeIndex().collectVisibleNodes(area, visibleNodes, visibleParents);
 		}
 
-		// draw connections to children
-		Point nodeAnchor = new Point(nodeBox.x + nodeBox.width / 2, nodeBox.y + nodeBox.height);
+		if (visibleNodes.isEmpty() && visibleParents.isEmpty() && summaries.isEmpty())
+			return;
+
+		long heatBase = getHeatBase(theme);
 
-		for (TreeNode child : children) {
-			child.paint(g2, config);
-			Point anchor = child.getAnchor();
-			if (child.isOnCallstack()) {
-				g2.setStroke(DOUBLE_STROKE);
-				g2.setColor(Color.RED);
-			} else {
-				g2.setColor(Color.BLACK);
+		paintConnections(g2, area, visibleParents, summaryWidth);
+
+		// draw boxes and their borders, the paint is changed only for boxes
+		// with a different paint than the previous box
+		RoundRectangle2D boxShape = new RoundRectangle2D.Float();
+		Paint lastPaint = null;
+		for (TreeNode node : visibleNodes) {
+			Paint bgPaint = node.getBgPaint(theme, heatBase, preview);
+			if (bgPaint != lastPaint) {
+				g2.setPaint(bgPaint);
+				lastPaint = bgPaint;
 			}
 
-			g2.drawLine(nodeAnchor.x, nodeAnchor.y, anchor.x, anchor.y);
-			g2.setStroke(SIMPLE_STROKE);
+			node.setBoxShape(boxShape, theme);
+			g2.fill(boxShape);
 		}
 
-		// draw box
-		Paint bgPaint;
-		if (selected)
-			bgPaint = config.createSelectedBgPaint(nodeBox);
-		else
-			bgPaint = config.createMethodCallBgPaint(typeIndex, nodeBox);
+		paintSummaries(g2, theme, heatBase, summaries);
 
-		g2.setPaint(bgPaint);
-		RoundRectangle2D boxShape = new RoundRectangle2D.Double(nodeBox.x, nodeBox.y, nodeBox.width, nodeBox.height,
-				config.getBoxPadding(), config.getBoxPadding());
-		g2.fill(boxShape);
+		g2.setPaint(Color.GRAY);
+		boolean callstackBordered = false;
+		for (TreeNode node : visibleNodes) {
+			if (node.onCallstack) {
+				callstackBordered = true;
+			} else {
+				node.setBoxShape(boxShape, theme);
+				g2.draw(boxShape);
+			}
+		}
 
-		if (isOnCallstack()) {
+		if (callstackBordered) {
 			g2.setStroke(DOUBLE_STROKE);
 			g2.setPaint(Color.RED);
-		} else {
-			g2.setPaint(Color.GRAY);
+			for (TreeNode node : visibleNodes) {
+				if (node.onCallstack) {
+					node.setBoxShape(boxShape, theme);
+					g2.draw(boxShape);
+				}
+			}
+			g2.setStroke(SIMPLE_STROKE);
 		}
-		g2.draw(boxShape);
-		g2.setStroke(SIMPLE_STROKE);
 
-		// draw title of the box
+		if (preview)
+			return;
+
+		// draw titles of boxes
 		FontMetrics fm = g2.getFontMetrics();
-		Rectangle2D titleBounds = fm.getStringBounds(methodTitle, g2);
-		if (selected) {
-			g2.setColor(Color.white);
-		} else {
-			g2.setColor(Color.black);
-		}
-		g2.drawString(methodTitle, nodeBox.x + (int) ((nodeBox.width - titleBounds.getWidth()) / 2),
-				nodeBox.y + (nodeBox.height + fm.getHeight()) / 2 - fm.getDescent());
+		Color lastColor = null;
+		for (TreeNode node : visibleNodes) {
+			Color color = node.selected ? Color.white : Color.black;
+			if (color != lastColor) {
+				g2.setColor(color);
+				lastColor = color;
+			}
 
-		// draw marker, if this node contains log records
-		if (methodCall.hasLogs()) {
-			g2.setColor(Color.red);
-			int bp = config.getBoxPadding();
-			g2.fill(new Ellipse2D.Double(nodeBox.getMaxX() - bp, nodeBox.y + bp, bp / 2, bp / 2));
+			node.drawTitle(g2, fm);
 		}
 
-		// ask children to draw return value
-		for (TreeNode child : children) {
-			Point anchor = child.getAnchor();
-			if (anchor.x < nodeAnchor.x) {
-				child.drawReturnValue(g2, child.nodeBox.x, anchor.x, config);
-			} else {
-				child.drawReturnValue(g2, anchor.x, child.nodeBox.x + child.nodeBox.width, config);
+		// draw markers of nodes that contain log records
+		g2.setColor(Color.red);
+		Ellipse2D marker = new Ellipse2D.Double();
+		int bp = theme.boxPadding;
+		for (TreeNode node : visibleNodes) {
+			if (node.methodCall.hasLogs()) {
+				marker.setFrame(node.nodeBox.getMaxX() - bp, node.nodeBox.y + bp, bp / 2, bp / 2);
+				g2.fill(marker);
 			}
 		}
 
-		// if this node is root, it draws its return value now
-		if (methodCall.isRoot()) {
-			drawReturnValue(g2, nodeBox.x, nodeBox.x + nodeBox.width, config);
+		// draw return values above boxes on the side of the connection from
+		// the parent, roots draw return values above the whole box
+		g2.setColor(theme.returnValueColor);
+		for (TreeNode node : visibleNodes) {
+			int anchorX = node.nodeBox.x + node.nodeBox.width / 2;
+			if (node.parent == null) {
+				node.drawReturnValue(g2, fm, node.nodeBox.x, node.nodeBox.x + node.nodeBox.width);
+			} else if (anchorX < node.parent.nodeBox.x + node.parent.nodeBox.width / 2) {
+				node.drawReturnValue(g2, fm, node.nodeBox.x, anchorX);
+			} else {
+				node.drawReturnValue(g2, fm, anchorX, node.nodeBox.x + node.nodeBox.width);
+			}
 		}
 	}
 
 	/**
-	 * Paints tree rooted in this node for preview display.
+	 * Paints connections of parents to their children. A connection is
+	 * skipped if the clip and its bounding box are on the opposite sides of
+	 * the parent. Connections with the same style are painted as a single
+	 * path. Summaries of children narrower than given width are connected at
+	 * their first and last subtree.
 	 */
-	public void paintPreview(Graphics2D g2, Config config) {
-		// do not realize paintings of trees that are not visible
-		Rectangle clip = g2.getClipBounds();
-		if (clip != null) {
-			if (!boundingBox.intersects(clip))
-				return;
+	private static void paintConnections(Graphics2D g2, Rectangle area, List<TreeNode> parents, double summaryWidth) {
+		Path2D connections = new Path2D.Float();
+		Path2D callstackConnections = new Path2D.Float();
+		boolean callstackConnected = false;
+		for (TreeNode node : parents) {
+			int x = node.nodeBox.x + node.nodeBox.width / 2;
+			int y = node.nodeBox.y + node.nodeBox.height;
+			int from = (x < area.x) ? node.findChildAttachedFrom(area.x) : 0;
+			int to = (x > area.x + area.width) ? node.findChildAttachedFrom(area.x + area.width + 1)
+					: node.children.size();
+			for (int i = from; i < to; i++) {
+				TreeNode child = node.children.get(i);
+				if (child.boundingBox.width < summaryWidth) {
+					int start = node.findSummaryStart(i, summaryWidth);
+					i = node.findSummaryEnd(i, summaryWidth) - 1;
+					if (i > start)
+						callstackConnected |= addConnection(connections, callstackConnections, area, x, y,
+								node.children.get(i));
+
+					child = node.children.get(start);
+				}
+
+				callstackConnected |= addConnection(connections, callstackConnections, area, x, y, child);
+			}
 		}
 
-		// draw connections to children
-		Point nodeAnchor = new Point(nodeBox.x + nodeBox.width / 2, nodeBox.y + nodeBox.height);
+		g2.setColor(Color.BLACK);
+		g2.draw(connections);
+		if (callstackConnected) {
+			g2.setStroke(DOUBLE_STROKE);
+			g2.setColor(Color.RED);
+			g2.draw(callstackConnections);
+			g2.setStroke(SIMPLE_STROKE);
+		}
+	}
 
-		for (TreeNode child : children) {
-			child.paintPreview(g2, config);
-			Point anchor = child.getAnchor();
-			if (child.isOnCallstack()) {
-				g2.setStroke(DOUBLE_STROKE);
-				g2.setColor(Color.RED);
+	/**
+	 * Adds the visible part of connection from a point to a child to the path
+	 * for its style.
+	 *
+	 * @return true, if the connection was added to the path of connections on
+	 *         the call stack, false otherwise.
+	 */
+	private static boolean addConnection(Path2D connections, Path2D callstackConnections, Rectangle area, int x,
+			int y, TreeNode child) {
+		Path2D path = child.onCallstack ? callstackConnections : connections;
+		addClippedLine(path, area, x, y, child.nodeBox.x + child.nodeBox.width / 2, child.nodeBox.y);
+		return child.onCallstack;
+	}
+
+	/**
+	 * Paints summaries of subtrees. The paint is changed only for summaries
+	 * with a different paint than the previous summary.
+	 */
+	private static void paintSummaries(Graphics2D g2, RenderTheme theme, long heatBase, List<Summary> summaries) {
+		Path2D summaryShape = new Path2D.Float();
+		Paint lastPaint = null;
+		for (Summary summary : summaries) {
+			int width = summary.right - summary.left;
+			int height = summary.bottom - summary.top;
+			Paint summaryPaint;
+			if (heatBase > 0) {
+				double heat = Math.min(1.0, summary.time / (double) heatBase);
+				summaryPaint = theme.getHeatSummaryPaint(heat, summary.nodeCount, width, height);
 			} else {
-				g2.setColor(Color.BLACK);
+				summaryPaint = theme.getMethodCallSummaryPaint(summary.typeIndex, summary.nodeCount, width, height);
 			}
 
-			g2.drawLine(nodeAnchor.x, nodeAnchor.y, anchor.x, anchor.y);
-			g2.setStroke(SIMPLE_STROKE);
+			if (summaryPaint != lastPaint) {
+				g2.setPaint(summaryPaint);
+				lastPaint = summaryPaint;
+			}
+
+			summaryShape.reset();
+			summaryShape.moveTo(summary.firstAnchorX, summary.top);
+			summaryShape.lineTo(summary.lastAnchorX, summary.top);
+			summaryShape.lineTo(summary.right, summary.bottom);
+			summaryShape.lineTo(summary.left, summary.bottom);
+			summaryShape.closePath();
+			g2.fill(summaryShape);
+		}
+	}
+
+	/**
+	 * Adds the part of a line segment that lies within a rectangle to a path.
+	 * Long connections of wide trees are not stroked outside the clip.
+	 */
+	private static void addClippedLine(Path2D path, Rectangle area, int x1, int y1, int x2, int y2) {
+		double dx = x2 - x1;
+		double dy = y2 - y1;
+		double t1 = 0;
+		double t2 = 1;
+
+		// Liang-Barsky clipping against the left, right, top and bottom edge
+		double[] p = { -dx, dx, -dy, dy };
+		double[] q = { x1 - area.x, area.x + area.width - x1, y1 - area.y, area.y + area.height - y1 };
+		for (int i = 0; i < 4; i++) {
+			if (p[i] == 0) {
+				if (q[i] < 0)
+					return;
+			} else {
+				double t = q[i] / p[i];
+				if (p[i] < 0)
+					t1 = Math.max(t1, t);
+				else
+					t2 = Math.min(t2, t);
+			}
 		}
 
-		// draw box
-		Paint bgPaint;
+		if (t1 > t2)
+			return;
+
+		path.moveTo(x1 + t1 * dx, y1 + t1 * dy);
+		path.lineTo(x1 + t2 * dx, y1 + t2 * dy);
+	}
+
+	/**
+	 * Sets a shape to the box of this node.
+	 */
+	private void setBoxShape(RoundRectangle2D shape, RenderTheme theme) {
+		shape.setRoundRect(nodeBox.x, nodeBox.y, nodeBox.width, nodeBox.height, theme.boxPadding, theme.boxPadding);
+	}
+
+	/**
+	 * Returns the background paint of the box of this node with heat coloring
+	 * related to given inclusive time.
+	 */
+	private Paint getBgPaint(RenderTheme theme, long heatBase, boolean preview) {
+		double heat = getHeat(heatBase);
 		if (selected)
-			bgPaint = config.createSelectedBgPaint(nodeBox);
+			return theme.getSelectedBgPaint(nodeBox);
+		else if (heat >= 0)
+			return preview ? theme.getHeatBgPreviewPaint(heat) : theme.getHeatBgPaint(heat, nodeBox);
 		else
-			bgPaint = config.createMethodCallBgPreviewPaint(typeIndex, nodeBox);
-
-		g2.setPaint(bgPaint);
-		RoundRectangle2D boxShape = new RoundRectangle2D.Double(nodeBox.x, nodeBox.y, nodeBox.width, nodeBox.height,
-				config.getBoxPadding(), config.getBoxPadding());
-		g2.fill(boxShape);
+			return preview ? theme.getMethodCallBgPreviewPaint(typeIndex) : theme.getMethodCallBgPaint(typeIndex,
+					nodeBox);
+	}
 
-		if (isOnCallstack()) {
-			g2.setStroke(DOUBLE_STROKE);
-			g2.setPaint(Color.RED);
-		} else {
-			g2.setPaint(Color.GRAY);
+	/**
+	 * Draws the title in the box of this node with the current color. The
+	 * width of the title is cached for given font metrics.
+	 */
+	private void drawTitle(Graphics2D g2, FontMetrics fm) {
+		if (titleMetrics != fm) {
+			titleWidth = fm.getStringBounds(methodTitle, g2).getWidth();
+			titleMetrics = fm;
 		}
-		g2.draw(boxShape);
-		g2.setStroke(SIMPLE_STROKE);
+
+		g2.drawString(methodTitle, nodeBox.x + (int) ((nodeBox.width - titleWidth) / 2),
+				nodeBox.y + (nodeBox.height + fm.getHeight()) / 2 - fm.getDescent());
 	}
 
 	/**
-	 * Draws return value
+	 * Draws return value with the current color. The formatted return value
+	 * and its width are cached until the return value changes.
 	 */
-	private void drawReturnValue(Graphics2D g2, int x1, int x2, Config config) {
+	private void drawReturnValue(Graphics2D g2, FontMetrics fm, int x1, int x2) {
 		if (!methodCall.hasReturnValue())
 			return;
 
-		Object returnValue = methodCall.getReturnValue();
-		String returnValueAsString = (returnValue == null) ? "null" : returnValue.toString();
+		long version = methodCall.getReturnValueVersion();
+		if ((returnValueLabel == null) || (returnValueVersion != version)) {
+			returnValueLabel = methodCall.formatReturnValue();
+			returnValueVersion = version;
+			returnValueMetrics = null;
+		}
+
+		if (returnValueMetrics != fm) {
+			returnValueWidth = fm.getStringBounds(returnValueLabel, g2).getWidth();
+			returnValueMetrics = fm;
+		}
 
-		FontMetrics fm = g2.getFontMetrics();
-		Rectangle2D bounds = fm.getStringBounds(returnValueAsString, g2);
-		g2.setColor(config.getReturnValueColor());
-		g2.drawString(returnValueAsString, (int) (x1 + (x2 - x1 - bounds.getWidth()) / 2), nodeBox.y - 3);
+		g2.drawString(returnValueLabel, (int) (x1 + (x2 - x1 - returnValueWidth) / 2), nodeBox.y - 3);
 	}
 
 	@Override
 	public String toString() {
+		if (threadName != null)
+			return "[" + threadName + "] " + buildMethodTitle(null);
+
 		return buildMethodTitle(null);
 	}
 
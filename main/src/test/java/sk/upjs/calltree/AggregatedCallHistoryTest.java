@@ -0,0 +1,79 @@
+package sk.upjs.calltree;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class AggregatedCallHistoryTest {
+
+	/**
+	 * History under test.
+	 */
+	private final AggregatedCallHistory history = new AggregatedCallHistory();
+
+	/**
+	 * Builder recording to the history.
+	 */
+	private final CallTreeBuilder builder = new CallTreeBuilder("test", history, false, false, null,
+			new CallStackCapture.StackTraceCapture());
+
+	private int fib(int n) {
+		builder.markCallInt(n);
+		if (n < 2) {
+			builder.markReturn(n);
+			return n;
+		}
+
+		int result = fib(n - 1) + fib(n - 2);
+		builder.markReturn(result);
+		return result;
+	}
+
+	private void loop(int count) {
+		builder.markCall(new Object[0]);
+		for (int i = 0; i < count; i++)
+			fib(1);
+
+		builder.markReturn();
+	}
+
+	private void loops(int[] counts) {
+		builder.markCall(new Object[0]);
+		for (int count : counts)
+			loop(count);
+
+		builder.markReturn();
+	}
+
+	@Test
+	public void invocationsAlongSamePathAreMerged() {
+		fib(4);
+
+		assertEquals(4, history.size());
+		long[] counts = { 1, 2, 4, 2 };
+		MethodCall mc = history.get(0);
+		for (int depth = 0; depth < counts.length; depth++) {
+			assertEquals(counts[depth], ((AggregatedMethodCall) mc).getInvocationCount());
+			List<MethodCall> children = mc.getMethodCalls();
+			assertEquals((depth < counts.length - 1) ? 1 : 0, children.size());
+			if (!children.isEmpty())
+				mc = children.get(0);
+		}
+
+		assertEquals("1 call, min 3, max 3, sum 3", history.get(0).formatReturnValue());
+		assertEquals("2 calls, min 0, max 1, sum 1", mc.formatReturnValue());
+		assertNull(mc.getArguments());
+	}
+
+	@Test
+	public void memoryIsBoundedByDistinctPaths() {
+		loops(new int[] { 1000, 10 });
+
+		assertEquals(3, history.size());
+		assertEquals(2, ((AggregatedMethodCall) history.get(1)).getInvocationCount());
+		assertEquals(1010, ((AggregatedMethodCall) history.get(2)).getInvocationCount());
+		assertEquals("1010 calls, min 1, max 1, sum 1010", history.get(2).formatReturnValue());
+	}
+}
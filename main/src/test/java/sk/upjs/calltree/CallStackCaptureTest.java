@@ -0,0 +1,62 @@
+package sk.upjs.calltree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class CallStackCaptureTest {
+
+	/**
+	 * Takes a snapshot one frame above the caller.
+	 */
+	private static StackTraceElement[] nested(CallStackCapture capture) {
+		return capture.capture();
+	}
+
+	@Test
+	public void unchangedCallStackIsShared() {
+		CallStackCapture.StackWalkerCapture capture = new CallStackCapture.StackWalkerCapture();
+		StackTraceElement[] previous = null;
+		for (int i = 0; i < 3; i++) {
+			StackTraceElement[] current = nested(capture);
+			if (previous != null) {
+				assertEquals(previous.length, current.length);
+				for (int j = 0; j < current.length; j++)
+					assertSame(previous[j], current[j]);
+
+				assertEquals(0, capture.convertedFrames);
+			}
+			previous = current;
+		}
+	}
+
+	@Test
+	public void commonPrefixIsShared() {
+		CallStackCapture.StackWalkerCapture capture = new CallStackCapture.StackWalkerCapture();
+		StackTraceElement[] first = nested(capture);
+		StackTraceElement[] second = nested(capture);
+
+		// frames of this method and of the nested method differ, all frames
+		// below them are shared
+		assertEquals(first.length, second.length);
+		int top = second.length - 1;
+		for (int i = 0; i < top - 1; i++)
+			assertSame(first[i], second[i]);
+
+		assertNotSame(first[top - 1], second[top - 1]);
+		assertEquals(first[top], second[top]);
+		assertNotSame(first[top], second[top]);
+		assertEquals(2, capture.convertedFrames);
+	}
+
+	@Test
+	public void enginesCaptureEqualCallStacks() {
+		StackTraceElement[] walked = new CallStackCapture.StackWalkerCapture().capture();
+		StackTraceElement[] traced = new CallStackCapture.StackTraceCapture().capture();
+		assertEquals(walked.length, traced.length);
+		for (int i = 0; i < walked.length - 1; i++)
+			assertEquals(walked[i], traced[i]);
+	}
+}
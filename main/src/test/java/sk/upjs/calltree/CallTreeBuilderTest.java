@@ -0,0 +1,248 @@
+package sk.upjs.calltree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class CallTreeBuilderTest {
+
+	/**
+	 * Builder under test.
+	 */
+	private CallTreeBuilder builder;
+
+	/**
+	 * Array allocated by tests of allocation accounting.
+	 */
+	private byte[] allocated;
+
+	/**
+	 * Builds a call tree by running a scenario with given capture engine and
+	 * returns description of the recorded method calls.
+	 */
+	private String record(CallStackCapture capture, Runnable scenario) {
+		builder = new CallTreeBuilder("test", new ObjectCallHistory(false), false, false, null, capture);
+		scenario.run();
+		return describe(builder.getChanges(0).calls);
+	}
+
+	/**
+	 * Returns description of method calls, each call on a separate line
+	 * indented by its depth.
+	 */
+	private static String describe(List<MethodCall> calls) {
+		StringBuilder sb = new StringBuilder();
+		for (MethodCall mc : calls) {
+			for (MethodCall parent = mc.getParent(); parent != null; parent = parent.getParent())
+				sb.append("  ");
+
+			sb.append(mc.getMethodName()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Asserts that both capture engines build the expected tree.
+	 */
+	private void assertTree(String expected, Runnable scenario) {
+		assertEquals(expected, record(new CallStackCapture.StackTraceCapture(), scenario));
+		assertEquals(expected, record(new CallStackCapture.StackWalkerCapture(), scenario));
+	}
+
+	private void root() {
+		builder.markCall(new Object[0]);
+		a();
+		bb();
+		builder.markReturn();
+	}
+
+	private void a() {
+		x();
+	}
+
+	private void bb() {
+		x();
+	}
+
+	private void x() {
+		z();
+	}
+
+	private void z() {
+		builder.markCall(new Object[0]);
+		builder.markReturn();
+	}
+
+	private int fib(int n) {
+		builder.markCall(new Object[] { n });
+		if (n < 2) {
+			builder.markReturn(n);
+			return n;
+		}
+
+		int result = fib(n - 1) + fib(n - 2);
+		builder.markReturn(result);
+		return result;
+	}
+
+	@Test
+	public void sharedHelperFromDifferentCallers() {
+		assertTree("root\n  a\n    x\n      z\n  bb\n    x\n      z\n", new Runnable() {
+			public void run() {
+				root();
+			}
+		});
+	}
+
+	@Test
+	public void separateTreesForDifferentCallers() {
+		assertTree("z\nz\n", new Runnable() {
+			public void run() {
+				a();
+				bb();
+			}
+		});
+	}
+
+	/**
+	 * Waits and records the wait as a wait for confirmation.
+	 */
+	private void waitForConfirmation(long millis) throws InterruptedException {
+		long start = System.nanoTime();
+		Thread.sleep(millis);
+		builder.recordConfirmationWait(System.nanoTime() - start);
+	}
+
+	@Test
+	public void confirmationWaitsAreExcludedFromTimes() throws InterruptedException {
+		builder = new CallTreeBuilder("test", new ObjectCallHistory(false), true, false, null,
+				new CallStackCapture.StackTraceCapture());
+		MethodCall parent = builder.enter("parent", null);
+		waitForConfirmation(200);
+		MethodCall child = builder.enter("child", null);
+		waitForConfirmation(200);
+		builder.exit(child);
+		waitForConfirmation(200);
+		builder.exit(parent);
+
+		assertTrue(parent.getInclusiveTime() >= 0);
+		assertTrue(parent.getInclusiveTime() < 100 * 1000000L);
+		assertTrue(child.getInclusiveTime() <= parent.getInclusiveTime());
+	}
+
+	@Test
+	public void allocationsOfEventsAreExcluded() {
+		assumeNotNull(AllocationMeter.create());
+		builder = new CallTreeBuilder("test", new ObjectCallHistory(false), false, true, null,
+				new CallStackCapture.StackTraceCapture());
+		int size = 1 << 20;
+
+		MethodCall measured = builder.enter("measured", null);
+		allocated = new byte[size];
+		builder.exit(measured);
+
+		// allocations between beginEvent and endEvent belong to recording
+		MethodCall excluded = builder.enter("excluded", null);
+		builder.beginEvent();
+		allocated = new byte[size];
+		builder.exit(excluded);
+		builder.endEvent();
+
+		assertTrue(measured.getInclusiveAllocation() >= size);
+		assertTrue(excluded.getInclusiveAllocation() >= 0);
+		assertTrue(excluded.getInclusiveAllocation() < size);
+	}
+
+	@Test
+	public void recursion() {
+		assertTree("fib\n  fib\n    fib\n      fib\n      fib\n    fib\n  fib\n    fib\n    fib\n", new Runnable() {
+			public void run() {
+				fib(4);
+			}
+		});
+	}
+
+	/**
+	 * Creates a builder for tests of method calls started by handles.
+	 */
+	private static CallTreeBuilder createHandleBuilder() {
+		return new CallTreeBuilder("test", new ObjectCallHistory(false), false, false, null,
+				new CallStackCapture.StackTraceCapture());
+	}
+
+	@Test
+	public void enteredCallsAreNested() {
+		builder = createHandleBuilder();
+		MethodCall parent = builder.enter("parent", null);
+		MethodCall child = builder.enter("child", null);
+		builder.exit(child, 1);
+		MethodCall sibling = builder.enter("sibling", null);
+		builder.exit(sibling);
+		builder.exit(parent);
+
+		assertEquals("parent\n  child\n  sibling\n", describe(builder.getChanges(0).calls));
+		assertEquals(Integer.valueOf(1), child.getReturnValue());
+	}
+
+	@Test
+	public void exitCompletesCallsWithMissedExit() {
+		builder = createHandleBuilder();
+		MethodCall parent = builder.enter("parent", null);
+		MethodCall child = builder.enter("child", null);
+		builder.enter("grandchild", null);
+		builder.exit(parent);
+		MethodCall next = builder.enter("next", null);
+		builder.exit(next);
+
+		assertSame(parent, child.getParent());
+		assertNull(next.getParent());
+		assertEquals("parent\n  child\n    grandchild\nnext\n", describe(builder.getChanges(0).calls));
+	}
+
+	@Test(expected = CallTreeMarkingException.class)
+	public void exitOfCompletedCallFails() {
+		builder = createHandleBuilder();
+		MethodCall call = builder.enter("call", null);
+		builder.exit(call);
+		builder.exit(call);
+	}
+
+	@Test(expected = CallTreeMarkingException.class)
+	public void exitOfUnknownCallFails() {
+		builder = createHandleBuilder();
+		builder.enter("call", null);
+		builder.exit(createHandleBuilder().enter("other", null));
+	}
+
+	@Test
+	public void logsAreAssociatedWithEnteredCall() {
+		builder = createHandleBuilder();
+		MethodCall parent = builder.enter("parent", null);
+		MethodCall child = builder.enter("child", null);
+		builder.log("in child", new Object[] { 1 });
+		builder.exit(child);
+		builder.log("in parent", null);
+		builder.exit(parent);
+
+		List<MethodCall.LogRecord> logs = child.getLogs(Integer.MAX_VALUE);
+		assertEquals(1, logs.size());
+		assertEquals("in child", logs.get(0).message);
+		assertEquals(-1, logs.get(0).lineNumber);
+		assertEquals(1, parent.getLogs(Integer.MAX_VALUE).size());
+		assertEquals(1, parent.getLogs(Integer.MAX_VALUE).get(0).numberOfChildren);
+	}
+
+	@Test(expected = CallTreeMarkingException.class)
+	public void logOutsideOfMarkedCallFails() {
+		builder = createHandleBuilder();
+		MethodCall call = builder.enter("call", null);
+		builder.exit(call);
+		builder.log("no call", null);
+	}
+}
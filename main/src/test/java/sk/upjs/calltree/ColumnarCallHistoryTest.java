@@ -0,0 +1,157 @@
+package sk.upjs.calltree;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ColumnarCallHistoryTest {
+
+	/**
+	 * Identifier of a method recorded in tests.
+	 */
+	private final int methodId = MethodRegistry.register("sample.Fibonacci", "fib", "Fibonacci.java");
+
+	/**
+	 * Records a method call with a child that returns a string, a log and a
+	 * primitive return value.
+	 */
+	private void record(CallHistory history, int arg) {
+		MethodCall root = history.createCall(methodId, 10, true, null);
+		root.setArguments(arg);
+		root.log("start", new Object[] { "x", 1 }, 11);
+		root.storeStartTime(100);
+		root.storeStartAllocation(1000);
+
+		MethodCall child = history.createCall(methodId, 12, true, root);
+		child.setArguments(new Object[] { "text", null });
+		child.markReturn((Object) "result");
+		history.completeCall(child);
+
+		MethodCall unmarked = history.createCall(methodId, 13, false, root);
+		unmarked.markReturn(2.5);
+
+		root.storeEndTime(350);
+		root.storeEndAllocation(1600);
+		root.markReturn(arg * 2L);
+		history.completeCall(root);
+	}
+
+	/**
+	 * Asserts that a history contains method calls recorded by
+	 * {@link #record(CallHistory, int)}.
+	 */
+	private void assertRecorded(CallHistory history, int firstIndex, int arg) {
+		MethodCall root = history.get(firstIndex);
+		assertTrue(root.isRoot());
+		assertEquals(methodId, root.getMethodId());
+		assertEquals("fib", root.getMethodName());
+		assertEquals(10, root.getLineNumber());
+		assertTrue(root.isMarked());
+		assertArrayEquals(new Object[] { arg }, root.getArguments());
+		assertEquals(Long.valueOf(arg * 2L), root.getReturnValue());
+		assertEquals(250, root.getInclusiveTime());
+		assertEquals(600, root.getInclusiveAllocation());
+
+		List<MethodCall.LogRecord> logs = root.getLogs(Integer.MAX_VALUE);
+		assertEquals(1, logs.size());
+		assertEquals("start", logs.get(0).message);
+		assertEquals(11, logs.get(0).lineNumber);
+		assertEquals(0, logs.get(0).numberOfChildren);
+
+		List<MethodCall> children = root.getMethodCalls();
+		assertEquals(2, children.size());
+		MethodCall child = children.get(0);
+		assertEquals(root, child.getParent());
+		assertEquals(12, child.getLineNumber());
+		assertArrayEquals(new Object[] { "text", null }, child.getArguments());
+		assertEquals("result", child.getReturnValue());
+		assertFalse(child.hasMethodCalls());
+		assertFalse(child.hasLogs());
+		assertEquals(-1, child.getInclusiveTime());
+
+		MethodCall unmarked = children.get(1);
+		assertFalse(unmarked.isMarked());
+		assertEquals(2.5, unmarked.getReturnValue());
+		assertEquals("2.5", unmarked.formatReturnValue());
+	}
+
+	@Test
+	public void recordedCallsAreRead() {
+		ColumnarCallHistory history = new ColumnarCallHistory();
+		record(history, 5);
+		record(history, 8);
+		assertEquals(6, history.size());
+		assertRecorded(history, 0, 5);
+		assertRecorded(history, 3, 8);
+	}
+
+	@Test
+	public void rowsSpanMultipleChunks() {
+		ColumnarCallHistory history = new ColumnarCallHistory();
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		for (int i = 0; i < 10000; i++) {
+			MethodCall child = history.createCall(methodId, 2, true, root);
+			child.markReturn(i);
+		}
+
+		List<MethodCall> children = root.getMethodCalls();
+		assertEquals(10000, children.size());
+		assertEquals(Integer.valueOf(9999), children.get(9999).getReturnValue());
+		assertEquals(Integer.valueOf(4096), children.get(4096).getReturnValue());
+		assertEquals(children.get(4096), history.get(4097));
+	}
+
+	@Test
+	public void logsKeepNumberOfChildren() {
+		ColumnarCallHistory history = new ColumnarCallHistory();
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		for (int i = 0; i < 20; i++) {
+			history.createCall(methodId, 2, true, root);
+			root.log("after child", new Object[] { i }, 3);
+		}
+
+		List<MethodCall.LogRecord> logs = root.getLogs(Integer.MAX_VALUE);
+		assertEquals(20, logs.size());
+		for (int i = 0; i < logs.size(); i++) {
+			assertEquals(i + 1, logs.get(i).numberOfChildren);
+			assertArrayEquals(new Object[] { i }, logs.get(i).values);
+		}
+
+		assertEquals(5, root.getLogs(5).size());
+	}
+
+	@Test
+	public void viewsRemainValidAfterClear() {
+		ColumnarCallHistory history = new ColumnarCallHistory();
+		record(history, 5);
+		MethodCall oldRoot = history.get(0);
+		List<MethodCall> oldChildren = oldRoot.getMethodCalls();
+
+		history.clear();
+		assertEquals(0, history.size());
+		record(history, 9);
+
+		assertArrayEquals(new Object[] { 5 }, oldRoot.getArguments());
+		assertEquals("result", oldChildren.get(0).getReturnValue());
+		assertRecorded(history, 0, 9);
+		assertNotEquals(oldRoot, history.get(0));
+	}
+
+	@Test
+	public void childrenAreViewedInAnyOrder() {
+		ColumnarCallHistory history = new ColumnarCallHistory();
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		for (int i = 0; i < 10; i++)
+			history.createCall(methodId, 100 + i, true, root);
+
+		List<MethodCall> children = root.getMethodCalls();
+		history.createCall(methodId, 200, true, root);
+		assertEquals(10, children.size());
+		for (int i = 9; i >= 0; i--)
+			assertEquals(100 + i, children.get(i).getLineNumber());
+
+		assertEquals(11, root.getMethodCalls().size());
+	}
+}
@@ -0,0 +1,220 @@
+package sk.upjs.calltree;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedCallHistoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Identifier of a method recorded in tests.
+	 */
+	private final int methodId = MethodRegistry.register("sample.Fibonacci", "fib", "Fibonacci.java");
+
+	/**
+	 * Records a method call with a child that returns a string, a log and a
+	 * primitive return value.
+	 */
+	private static void record(CallHistory history, int methodId, int arg) {
+		MethodCall root = history.createCall(methodId, 10, true, null);
+		root.setArguments(arg);
+		root.log("start", new Object[] { "x", 1 }, 11);
+		root.storeStartTime(100);
+
+		MethodCall child = history.createCall(methodId, 12, true, root);
+		child.setArguments(new Object[] { "text", null });
+		child.markReturn((Object) "result");
+		history.completeCall(child);
+
+		MethodCall unmarked = history.createCall(methodId, 13, false, root);
+		unmarked.markReturn(2.5);
+
+		root.storeEndTime(350);
+		root.markReturn(arg * 2L);
+		history.completeCall(root);
+	}
+
+	/**
+	 * Asserts that a history contains method calls recorded by
+	 * {@link #record(CallHistory, int, int)}.
+	 */
+	private void assertRecorded(CallHistory history, int firstIndex, int arg) {
+		MethodCall root = history.get(firstIndex);
+		assertTrue(root.isRoot());
+		assertEquals(methodId, root.getMethodId());
+		assertEquals("fib", root.getMethodName());
+		assertEquals(10, root.getLineNumber());
+		assertTrue(root.isMarked());
+		assertArrayEquals(new Object[] { arg }, root.getArguments());
+		assertEquals(Long.valueOf(arg * 2L), root.getReturnValue());
+		assertEquals(250, root.getInclusiveTime());
+		assertEquals(-1, root.getInclusiveAllocation());
+
+		List<MethodCall.LogRecord> logs = root.getLogs(Integer.MAX_VALUE);
+		assertEquals(1, logs.size());
+		assertEquals("start", logs.get(0).message);
+		assertEquals(11, logs.get(0).lineNumber);
+		assertEquals(0, logs.get(0).numberOfChildren);
+		assertArrayEquals(new Object[] { "x", "1" }, logs.get(0).values);
+
+		List<MethodCall> children = root.getMethodCalls();
+		assertEquals(2, children.size());
+		MethodCall child = children.get(0);
+		assertEquals(root, child.getParent());
+		assertEquals(12, child.getLineNumber());
+		assertArrayEquals(new Object[] { "text", null }, child.getArguments());
+		assertEquals("result", child.getReturnValue());
+		assertFalse(child.hasMethodCalls());
+
+		MethodCall unmarked = children.get(1);
+		assertFalse(unmarked.isMarked());
+		assertEquals(2.5, unmarked.getReturnValue());
+		assertEquals("2.5", unmarked.formatReturnValue());
+	}
+
+	@Test
+	public void recordingIsReadFromFiles() {
+		File file = new File(folder.getRoot(), "recording-0");
+		MappedCallHistory history = new MappedCallHistory(file, "worker");
+		record(history, methodId, 5);
+		assertEquals(3, history.size());
+		assertRecorded(history, 0, 5);
+		history.close();
+
+		MappedCallHistory opened = new MappedCallHistory(file);
+		assertEquals("worker", opened.getThreadName());
+		assertEquals(3, opened.size());
+		assertRecorded(opened, 0, 5);
+		opened.close();
+	}
+
+	@Test
+	public void recordingWithoutCloseIsReadable() {
+		File file = new File(folder.getRoot(), "recording-0");
+		MappedCallHistory history = new MappedCallHistory(file, "worker");
+		record(history, methodId, 7);
+
+		MappedCallHistory opened = new MappedCallHistory(file);
+		assertEquals(3, opened.size());
+		assertRecorded(opened, 0, 7);
+		opened.close();
+		history.close();
+	}
+
+	@Test
+	public void viewsRemainValidAfterClear() {
+		File file = new File(folder.getRoot(), "recording-0");
+		MappedCallHistory history = new MappedCallHistory(file, "worker");
+		record(history, methodId, 5);
+		MethodCall oldRoot = history.get(0);
+		List<MethodCall> oldChildren = oldRoot.getMethodCalls();
+
+		history.clear();
+		assertEquals(0, history.size());
+		record(history, methodId, 9);
+		record(history, methodId, 11);
+
+		assertEquals(Arrays.<Object> asList(5), Arrays.asList(oldRoot.getArguments()));
+		assertEquals("result", oldChildren.get(0).getReturnValue());
+		assertEquals(6, history.size());
+		assertRecorded(history, 0, 9);
+		assertRecorded(history, 3, 11);
+		assertNotEquals(oldRoot, history.get(0));
+
+		try {
+			oldRoot.log("late", null, 20);
+			fail("Records of a cleared history must not be changed.");
+		} catch (CallTreeMarkingException expected) {
+		}
+
+		// only method calls recorded after the history was cleared are read
+		MappedCallHistory opened = new MappedCallHistory(file);
+		assertEquals(6, opened.size());
+		assertRecorded(opened, 0, 9);
+		assertRecorded(opened, 3, 11);
+		opened.close();
+		history.close();
+	}
+
+	@Test
+	public void childrenAreViewedInAnyOrder() {
+		MappedCallHistory history = new MappedCallHistory(new File(folder.getRoot(), "recording-0"), "worker");
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		for (int i = 0; i < 10; i++)
+			history.createCall(methodId, 100 + i, true, root);
+
+		List<MethodCall> children = root.getMethodCalls();
+		history.createCall(methodId, 200, true, root);
+		assertEquals(10, children.size());
+		for (int i = 9; i >= 0; i--)
+			assertEquals(100 + i, children.get(i).getLineNumber());
+
+		int index = 0;
+		for (MethodCall child : children) {
+			assertEquals(history.get(index + 1), child);
+			index++;
+		}
+		assertEquals(11, root.getMethodCalls().size());
+		history.close();
+	}
+
+	@Test
+	public void closedRecordingCannotBeChanged() {
+		MappedCallHistory history = new MappedCallHistory(new File(folder.getRoot(), "recording-0"), "worker");
+		record(history, methodId, 3);
+		history.close();
+
+		assertRecorded(history, 0, 3);
+		try {
+			history.createCall(methodId, 1, true, null);
+			fail("Closed recording must not be changed.");
+		} catch (CallTreeMarkingException expected) {
+		}
+	}
+
+	@Test
+	public void headerCoversCompletedCalls() {
+		File file = new File(folder.getRoot(), "recording-0");
+		MappedCallHistory history = new MappedCallHistory(file, "worker");
+		record(history, methodId, 5);
+		MethodCall running = history.createCall(methodId, 1, true, null);
+		history.createCall(methodId, 2, true, running);
+		assertEquals(1, running.getMethodCalls().size());
+
+		// method calls that did not complete are not stored in the header
+		MappedCallHistory opened = new MappedCallHistory(file);
+		assertEquals(3, opened.size());
+		assertRecorded(opened, 0, 5);
+		opened.close();
+		history.close();
+	}
+
+	@Test
+	public void rootsOfOpenedRecordingAreFound() {
+		File file = new File(folder.getRoot(), "recording-0");
+		MappedCallHistory history = new MappedCallHistory(file, "worker");
+		for (int i = 0; i < 4; i++)
+			record(history, methodId, i);
+		history.close();
+
+		MappedCallHistory opened = new MappedCallHistory(file);
+		CallTreeBuilder builder = new CallTreeBuilder("worker", opened, false, false, null);
+		assertTrue(builder.isOpenedRecording());
+		List<MethodCall> roots = builder.getRootCalls();
+		assertEquals(4, roots.size());
+		for (int i = 0; i < roots.size(); i++) {
+			assertEquals(3 * i, roots.get(i).getIndex());
+			assertEquals(2, roots.get(i).getMethodCalls().size());
+		}
+		opened.close();
+	}
+}
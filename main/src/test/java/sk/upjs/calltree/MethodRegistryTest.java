@@ -0,0 +1,32 @@
+package sk.upjs.calltree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class MethodRegistryTest {
+
+	@Test
+	public void sameMethodHasSameIdentifier() {
+		int id = MethodRegistry.register("RegistryTest", "method", "RegistryTest.java");
+		assertEquals(id, MethodRegistry.register("RegistryTest", "method", "RegistryTest.java"));
+		assertEquals(id, MethodRegistry.register(new String("RegistryTest"), new String("method"),
+				new String("RegistryTest.java")));
+		assertNotEquals(id, MethodRegistry.register("RegistryTest", "method", null));
+		assertNotEquals(id, MethodRegistry.register(null, "method", null));
+		assertEquals("method", MethodRegistry.get(id).methodName);
+	}
+
+	@Test
+	public void identifiersSurviveGrowthOfRegistry() {
+		int[] ids = new int[1000];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = MethodRegistry.register("GrowthTest", "method" + i, null);
+
+		for (int i = 0; i < ids.length; i++) {
+			assertEquals(ids[i], MethodRegistry.register("GrowthTest", "method" + i, null));
+			assertEquals("method" + i, MethodRegistry.get(ids[i]).methodName);
+		}
+	}
+}
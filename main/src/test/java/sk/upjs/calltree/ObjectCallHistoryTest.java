@@ -0,0 +1,107 @@
+package sk.upjs.calltree;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ObjectCallHistoryTest {
+
+	/**
+	 * Identifier of a method recorded in tests.
+	 */
+	private final int methodId = MethodRegistry.register("sample.Fibonacci", "fib", "Fibonacci.java");
+
+	/**
+	 * History under test.
+	 */
+	private final ObjectCallHistory history = new ObjectCallHistory(true);
+
+	/**
+	 * Records a completed method call with given argument and return value
+	 * and a completed child method call.
+	 */
+	private MethodCall record(MethodCall parent, Object argument, Object returnValue) {
+		MethodCall mc = history.createCall(methodId, 10, true, parent);
+		mc.setArguments(new Object[] { argument });
+		MethodCall child = history.createCall(methodId, 11, true, mc);
+		child.setArguments(new Object[] { "child" });
+		child.markReturn(1);
+		history.completeCall(child);
+		mc.markReturn(returnValue);
+		return history.completeCall(mc);
+	}
+
+	@Test
+	public void identicalSubtreesAreShared() {
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		MethodCall first = record(root, 5, "five");
+		MethodCall second = record(root, 5, "five");
+
+		assertFalse(first instanceof SharedMethodCall);
+		assertTrue(second instanceof SharedMethodCall);
+		assertSame(first, second.getSharedCall());
+		assertEquals(root, second.getParent());
+		assertEquals(2, root.getMethodCalls().size());
+		assertSame(second, root.getMethodCalls().get(1));
+		assertEquals(first.getMethodCalls(), second.getMethodCalls());
+		assertEquals(4, history.size());
+		assertSame(second, history.get(3));
+	}
+
+	@Test
+	public void differentValuesAreNotShared() {
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		record(root, 5, "five");
+		assertFalse(record(root, 6, "five") instanceof SharedMethodCall);
+		assertFalse(record(root, 5, "six") instanceof SharedMethodCall);
+		assertFalse(record(root, 5L, "five") instanceof SharedMethodCall);
+		assertTrue(record(root, 6, "five") instanceof SharedMethodCall);
+	}
+
+	@Test
+	public void mutableValuesAreNotShared() {
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		int[] array = { 1, 2 };
+		StringBuilder sb = new StringBuilder("text");
+		record(root, array, null);
+		record(root, null, sb);
+
+		// equal mutable values do not imply identical subtrees, since the
+		// values can be changed later
+		assertFalse(record(root, new int[] { 1, 2 }, null) instanceof SharedMethodCall);
+		assertFalse(record(root, array, null) instanceof SharedMethodCall);
+		assertFalse(record(root, null, sb) instanceof SharedMethodCall);
+	}
+
+	@Test
+	public void mutableLogValuesAreNotShared() {
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		Object[] logged = { new StringBuilder("log") };
+		for (int i = 0; i < 2; i++) {
+			MethodCall mc = history.createCall(methodId, 10, true, root);
+			mc.log("message", logged, 12);
+			mc.markReturn(0);
+			assertFalse(history.completeCall(mc) instanceof SharedMethodCall);
+		}
+	}
+
+	@Test
+	public void sharedCallKeepsOwnMeasurements() {
+		MethodCall root = history.createCall(methodId, 1, true, null);
+		MethodCall[] completed = new MethodCall[2];
+		for (int i = 0; i < completed.length; i++) {
+			MethodCall mc = history.createCall(methodId, 10, true, root);
+			mc.setArguments(new Object[] { 1 });
+			mc.storeStartTime(0);
+			mc.storeStartAllocation(0);
+			mc.storeEndTime(100 * (i + 1));
+			mc.storeEndAllocation(10 * (i + 1));
+			completed[i] = history.completeCall(mc);
+		}
+
+		assertTrue(completed[1] instanceof SharedMethodCall);
+		assertEquals(100, completed[0].getInclusiveTime());
+		assertEquals(200, completed[1].getInclusiveTime());
+		assertEquals(20, completed[1].getInclusiveAllocation());
+	}
+}
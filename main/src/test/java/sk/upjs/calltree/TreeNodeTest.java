@@ -0,0 +1,42 @@
+package sk.upjs.calltree;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class TreeNodeTest {
+
+	/**
+	 * Returns font metrics of given font on an offscreen image.
+	 */
+	private static FontMetrics metrics(Font font) {
+		Graphics2D g2 = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+		try {
+			return g2.getFontMetrics(font);
+		} finally {
+			g2.dispose();
+		}
+	}
+
+	@Test
+	public void treeIsMeasuredAgainInOtherFont() {
+		Config config = new Config();
+		int methodId = MethodRegistry.register("TreeNodeTest", "methodWithLongName", "TreeNodeTest.java");
+		ObjectCallHistory history = new ObjectCallHistory(false);
+		MethodCall rootCall = history.createCall(methodId, 1, true, null);
+		TreeNode root = new TreeNode(rootCall, 0);
+		root.addChild(new TreeNode(history.createCall(methodId, 2, true, rootCall), 0));
+
+		Font font = config.getFont();
+		root.measure(metrics(font), config);
+		int width = root.getWidth();
+
+		root.measure(metrics(font.deriveFont(font.getSize2D() * 3)), config);
+		assertTrue(root.getWidth() > 2 * width);
+	}
+}